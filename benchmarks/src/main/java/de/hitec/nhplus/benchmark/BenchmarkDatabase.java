@@ -0,0 +1,115 @@
+package de.hitec.nhplus.benchmark;
+
+import de.hitec.nhplus.datastorage.ConnectionBuilder;
+import de.hitec.nhplus.datastorage.ConnectionLease;
+import de.hitec.nhplus.utils.DataGenerator;
+import de.hitec.nhplus.utils.SetUpDB;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * The <code>BenchmarkDatabase</code> provides the databases of the benchmarks. A database with a given number of
+ * treatments is seeded once into a template file in the temp directory and copied for every trial, so that the writes
+ * of one trial do not change the data of the next one. The rows are generated by the {@link DataGenerator} from a fixed
+ * seed, so every run benchmarks the same data; none of them is locked. There is one patient per
+ * {@value #TREATMENTS_PER_PATIENT} and one caregiver per {@value #TREATMENTS_PER_CAREGIVER} treatments, but at least
+ * {@value #MIN_ROWS} of each.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+
+    public static final int TREATMENTS_PER_PATIENT = 20;
+    public static final int TREATMENTS_PER_CAREGIVER = 100;
+    public static final int MIN_ROWS = 10;
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("java.io.tmpdir"), "nhplus-benchmark");
+    private static final long SEED = 20240101L;
+    private static final LocalDate TODAY = LocalDate.of(2024, 1, 1);
+
+    private final Path file;
+    private final int treatments;
+
+    private BenchmarkDatabase(Path file, int treatments) {
+        this.file = file;
+        this.treatments = treatments;
+    }
+
+    /**
+     * Copies the template database with the given number of treatments, seeding it first if it does not exist yet, and
+     * points the {@link ConnectionBuilder} to the copy.
+     *
+     * @param treatments Number of treatments of the database.
+     * @return The opened database.
+     */
+    public static BenchmarkDatabase open(int treatments) throws IOException, SQLException {
+        Files.createDirectories(DIRECTORY);
+        Path template = DIRECTORY.resolve("template-" + treatments + ".db");
+        if (!Files.exists(template)) {
+            Path seeded = DIRECTORY.resolve("seeding-" + treatments + "-" + ProcessHandle.current().pid() + ".db");
+            seed(seeded, treatments);
+            Files.move(seeded, template, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Path file = DIRECTORY.resolve("trial-" + treatments + "-" + ProcessHandle.current().pid() + ".db");
+        Files.copy(template, file, StandardCopyOption.REPLACE_EXISTING);
+        ConnectionBuilder.configureDatabase(url(file));
+        return new BenchmarkDatabase(file, treatments);
+    }
+
+    public int getTreatments() {
+        return this.treatments;
+    }
+
+    public int getPatients() {
+        return patientsFor(this.treatments);
+    }
+
+    public int getCaregivers() {
+        return caregiversFor(this.treatments);
+    }
+
+    /**
+     * Closes the connections to the database and deletes the copy.
+     */
+    @Override
+    public void close() throws IOException {
+        ConnectionBuilder.closeConnection();
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(Paths.get(this.file + "-wal"));
+        Files.deleteIfExists(Paths.get(this.file + "-shm"));
+    }
+
+    private static int patientsFor(int treatments) {
+        return Math.max(MIN_ROWS, treatments / TREATMENTS_PER_PATIENT);
+    }
+
+    private static int caregiversFor(int treatments) {
+        return Math.max(MIN_ROWS, treatments / TREATMENTS_PER_CAREGIVER);
+    }
+
+    private static String url(Path file) {
+        return "jdbc:sqlite:" + file.toAbsolutePath();
+    }
+
+    private static void seed(Path file, int treatments) throws SQLException {
+        System.out.println("Seeding benchmark database with " + treatments + " treatments: " + file);
+        ConnectionBuilder.configureDatabase(url(file));
+        try (ConnectionLease lease = ConnectionBuilder.leaseWriteConnection()) {
+            Connection connection = lease.getConnection();
+            SetUpDB.setUpTables(connection);
+            DataGenerator generator = new DataGenerator(SEED);
+            generator.setPatients(patientsFor(treatments));
+            generator.setCaregivers(caregiversFor(treatments));
+            generator.setTreatments(treatments);
+            generator.setToday(TODAY);
+            generator.generate(connection);
+        } finally {
+            ConnectionBuilder.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package de.hitec.nhplus.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the JMH benchmarks. It takes the same options as JMH, but writes the results as JSON to
+ * <code>results/jmh-&lt;date&gt;.json</code> unless another result format or file is given with <code>-rf</code> or
+ * <code>-rff</code>, so that the results of different runs can be compared.
+ */
+public class BenchmarkMain {
+
+    private static final DateTimeFormatter FILE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        int format = options.indexOf("-rf");
+        String extension = format >= 0 && format + 1 < options.size() ? options.get(format + 1).toLowerCase() : "json";
+        if (format < 0) {
+            options.add(0, "-rf");
+            options.add(1, extension);
+        }
+        if (!options.contains("-rff")) {
+            Path directory = Paths.get("results");
+            Files.createDirectories(directory);
+            String fileName = "jmh-" + FILE_DATE_FORMAT.format(LocalDateTime.now()) + "." + extension;
+            options.add(0, "-rff");
+            options.add(1, directory.resolve(fileName).toString());
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
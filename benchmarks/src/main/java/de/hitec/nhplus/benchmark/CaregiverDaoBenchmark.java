@@ -0,0 +1,61 @@
+package de.hitec.nhplus.benchmark;
+
+import de.hitec.nhplus.datastorage.CaregiverDao;
+import de.hitec.nhplus.datastorage.DaoFactory;
+import de.hitec.nhplus.model.Caregiver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the CRUD operations of the {@link CaregiverDao}. New caregivers get an already hashed password, so
+ * that <code>create</code> measures the insert and not the hashing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CaregiverDaoBenchmark extends DatabaseBenchmark {
+
+    private CaregiverDao dao;
+    private Caregiver updated;
+    private long created;
+
+    @Override
+    protected void prepare() throws SQLException {
+        this.dao = DaoFactory.getDaoFactory().createCaregiverDAO();
+        this.updated = this.dao.read(randomKey(this.database.getCaregivers()));
+        this.created = 0;
+    }
+
+    @Benchmark
+    public void create() throws SQLException {
+        // The username has to be unique
+        this.dao.create(new Caregiver(0, "benchmark" + ++this.created, "Benchmark", "Caregiver",
+                LocalDate.of(1980, 1, 1), "0123-456-789", this.updated.getPassword_hash(), false));
+    }
+
+    @Benchmark
+    public Caregiver read() throws SQLException {
+        return this.dao.read(randomKey(this.database.getCaregivers()));
+    }
+
+    @Benchmark
+    public List<Caregiver> readAll() throws SQLException {
+        return this.dao.readAll();
+    }
+
+    @Benchmark
+    public void update() throws SQLException {
+        this.updated.setTelephoneNumber(this.updated.getTelephoneNumber().equals("0123") ? "0456" : "0123");
+        this.dao.update(this.updated);
+    }
+}
@@ -0,0 +1,52 @@
+package de.hitec.nhplus.benchmark;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Base class of the benchmarks, which run against a fresh copy of a {@link BenchmarkDatabase} per trial. The size of
+ * the database is set with the parameter <code>treatments</code>, e.g. <code>-p treatments=1000000</code>.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public abstract class DatabaseBenchmark {
+
+    @Param({"1000", "100000"})
+    public int treatments;
+
+    protected BenchmarkDatabase database;
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws IOException, SQLException {
+        this.database = BenchmarkDatabase.open(this.treatments);
+        prepare();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws IOException {
+        this.database.close();
+    }
+
+    /**
+     * Called after the database was opened, e.g. to create the DAOs of the benchmark.
+     */
+    protected void prepare() throws SQLException {
+    }
+
+    /**
+     * @param count Number of seeded rows.
+     * @return A random key of the seeded rows, which are numbered from 1.
+     */
+    protected static long randomKey(int count) {
+        return ThreadLocalRandom.current().nextLong(1, count + 1L);
+    }
+}
@@ -0,0 +1,116 @@
+package de.hitec.nhplus.benchmark;
+
+import de.hitec.nhplus.utils.DateConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link DateConverter}, which converts the dates and times of every row the DAOs read. Each
+ * conversion is measured three ways: <code>...OfPattern</code> builds a formatter for every call, as the first version
+ * of the converter did, <code>...Formatter</code> uses the shared formatters and the plain name is the converter itself.
+ * A treatment row converts one date and two times.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateConverterBenchmark {
+
+    // Distinct values, so that the results are not constant
+    private static final int VALUES = 1024;
+
+    private final String[] dates = new String[VALUES];
+    private final String[] times = new String[VALUES];
+    private final LocalDate[] localDates = new LocalDate[VALUES];
+    private final LocalTime[] localTimes = new LocalTime[VALUES];
+    private int index;
+
+    @Setup
+    public void createValues() {
+        for (int i = 0; i < VALUES; i++) {
+            this.localDates[i] = LocalDate.of(2020, 1, 1).plusDays(i * 7L);
+            this.localTimes[i] = LocalTime.of(i % 24, i % 60);
+            this.dates[i] = DateConverter.convertLocalDateToString(this.localDates[i]);
+            this.times[i] = DateConverter.convertLocalTimeToString(this.localTimes[i]);
+        }
+    }
+
+    private int next() {
+        return this.index = (this.index + 1) & (VALUES - 1);
+    }
+
+    @Benchmark
+    public LocalDate parseDateOfPattern() {
+        return LocalDate.parse(this.dates[next()], DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    }
+
+    @Benchmark
+    public LocalDate parseDateFormatter() {
+        return LocalDate.parse(this.dates[next()], DateConverter.DATE_FORMATTER);
+    }
+
+    @Benchmark
+    public LocalDate parseDate() {
+        return DateConverter.convertStringToLocalDate(this.dates[next()]);
+    }
+
+    @Benchmark
+    public LocalTime parseTimeOfPattern() {
+        return LocalTime.parse(this.times[next()], DateTimeFormatter.ofPattern("HH:mm"));
+    }
+
+    @Benchmark
+    public LocalTime parseTimeFormatter() {
+        return LocalTime.parse(this.times[next()], DateConverter.TIME_FORMATTER);
+    }
+
+    @Benchmark
+    public LocalTime parseTime() {
+        return DateConverter.convertStringToLocalTime(this.times[next()]);
+    }
+
+    @Benchmark
+    public String formatDateOfPattern() {
+        return this.localDates[next()].format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    }
+
+    @Benchmark
+    public String formatDateFormatter() {
+        return this.localDates[next()].format(DateConverter.DATE_FORMATTER);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return DateConverter.convertLocalDateToString(this.localDates[next()]);
+    }
+
+    @Benchmark
+    public String formatTimeOfPattern() {
+        return this.localTimes[next()].format(DateTimeFormatter.ofPattern("HH:mm"));
+    }
+
+    @Benchmark
+    public String formatTimeFormatter() {
+        return this.localTimes[next()].format(DateConverter.TIME_FORMATTER);
+    }
+
+    @Benchmark
+    public String formatTime() {
+        return DateConverter.convertLocalTimeToString(this.localTimes[next()]);
+    }
+}
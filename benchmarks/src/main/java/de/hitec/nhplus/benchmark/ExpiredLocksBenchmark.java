@@ -0,0 +1,95 @@
+package de.hitec.nhplus.benchmark;
+
+import de.hitec.nhplus.datastorage.CaregiverDao;
+import de.hitec.nhplus.datastorage.ConnectionBuilder;
+import de.hitec.nhplus.datastorage.ConnectionLease;
+import de.hitec.nhplus.datastorage.DaoFactory;
+import de.hitec.nhplus.datastorage.PatientDao;
+import de.hitec.nhplus.datastorage.TreatmentDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the sweeps that delete rows whose lock has expired. Before every sweep, every
+ * <code>expiredEvery</code>-th row of the swept table that is not locked yet gets a lock that expired in the past, so a
+ * sweep deletes about <code>rows / expiredEvery</code> rows. Each invocation locks a different set of rows, so the
+ * table shrinks by that share per invocation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class ExpiredLocksBenchmark extends DatabaseBenchmark {
+
+    private static final String EXPIRED_DATE = "2000-01-01";
+
+    @Param({"1000"})
+    public int expiredEvery;
+
+    private PatientDao patientDao;
+    private TreatmentDao treatmentDao;
+    private CaregiverDao caregiverDao;
+    private int round;
+
+    @Override
+    protected void prepare() {
+        this.patientDao = DaoFactory.getDaoFactory().createPatientDAO();
+        this.treatmentDao = DaoFactory.getDaoFactory().createTreatmentDao();
+        this.caregiverDao = DaoFactory.getDaoFactory().createCaregiverDAO();
+        this.round = 0;
+    }
+
+    /**
+     * Locks the rows that the next sweep deletes, only in the table of the running benchmark.
+     */
+    @Setup(Level.Invocation)
+    public void lockExpiredRows(BenchmarkParams params) throws SQLException {
+        String benchmark = params.getBenchmark();
+        switch (benchmark.substring(benchmark.lastIndexOf('.') + 1)) {
+            case "deleteExpiredPatientLocks" -> lockExpiredRows("patient", "pid");
+            case "deleteExpiredLocks" -> lockExpiredRows("treatment", "tid");
+            case "deleteExpiredCaregiverLocks" -> lockExpiredRows("caregiver", "pid");
+            default -> throw new IllegalStateException("Unknown benchmark " + benchmark);
+        }
+        this.round++;
+    }
+
+    @Benchmark
+    public int deleteExpiredPatientLocks() throws SQLException {
+        return this.patientDao.deleteExpiredPatientLocks();
+    }
+
+    @Benchmark
+    public int deleteExpiredLocks() throws SQLException {
+        return this.treatmentDao.deleteExpiredLocks();
+    }
+
+    @Benchmark
+    public int deleteExpiredCaregiverLocks() throws SQLException {
+        return this.caregiverDao.deleteExpiredCaregiverLocks();
+    }
+
+    private void lockExpiredRows(String table, String key) throws SQLException {
+        String sql = "UPDATE " + table + " SET locked = 1, lockedDate = ? " +
+                "WHERE locked is not true AND " + key + " % ? = ?";
+        try (ConnectionLease lease = ConnectionBuilder.leaseWriteConnection();
+             PreparedStatement statement = lease.getConnection().prepareStatement(sql)) {
+            statement.setString(1, EXPIRED_DATE);
+            statement.setInt(2, this.expiredEvery);
+            statement.setInt(3, this.round % this.expiredEvery);
+            statement.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.hitec.nhplus.benchmark;
+
+import de.hitec.nhplus.service.PasswordHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link PasswordHasher}. The hashes run on the benchmark thread and there is one benchmark thread,
+ * so the score is the number of hashes per second per core; use <code>-t</code> to measure more cores.
+ * <code>verifyLegacy</code> checks a hash of the first version for comparison, its score does not depend on
+ * <code>iterations</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(1)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    private static final String PASSWORD = "Pflege2024!";
+    // Hash of PASSWORD in the format <salt>:<hash> with 10,000 iterations of PBKDF2WithHmacSHA1
+    private static final String LEGACY_HASH =
+            "AAAAAAAAAAAAAAAAAAAAAAAAAAA=:MPpLPSD3H2wYWIxOqVKt062j8g/bpz4t/U+gwAr38Ao=";
+
+    @Param({"10000", "210000", "600000"})
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private String hash;
+
+    @Setup(Level.Trial)
+    public void createHasher() {
+        this.hasher = new PasswordHasher(this.iterations, 1, 1);
+        this.hash = this.hasher.hashNow(PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdownHasher() {
+        this.hasher.shutdown();
+    }
+
+    @Benchmark
+    public String hash() {
+        return this.hasher.hashNow(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return this.hasher.verifyNow(PASSWORD, this.hash);
+    }
+
+    @Benchmark
+    public boolean verifyLegacy() {
+        return this.hasher.verifyNow(PASSWORD, LEGACY_HASH);
+    }
+}
@@ -0,0 +1,56 @@
+package de.hitec.nhplus.benchmark;
+
+import de.hitec.nhplus.datastorage.DaoFactory;
+import de.hitec.nhplus.datastorage.PatientDao;
+import de.hitec.nhplus.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the CRUD operations of the {@link PatientDao}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PatientDaoBenchmark extends DatabaseBenchmark {
+
+    private PatientDao dao;
+    private Patient updated;
+
+    @Override
+    protected void prepare() throws SQLException {
+        this.dao = DaoFactory.getDaoFactory().createPatientDAO();
+        this.updated = this.dao.read(randomKey(this.database.getPatients()));
+    }
+
+    @Benchmark
+    public void create() throws SQLException {
+        this.dao.create(new Patient("Benchmark", "Patient", LocalDate.of(1950, 1, 1), "3", "100", false, null));
+    }
+
+    @Benchmark
+    public Patient read() throws SQLException {
+        return this.dao.read(randomKey(this.database.getPatients()));
+    }
+
+    @Benchmark
+    public List<Patient> readAll() throws SQLException {
+        return this.dao.readAll();
+    }
+
+    @Benchmark
+    public void update() throws SQLException {
+        this.updated.setRoomNumber(this.updated.getRoomNumber().equals("100") ? "200" : "100");
+        this.dao.update(this.updated);
+    }
+}
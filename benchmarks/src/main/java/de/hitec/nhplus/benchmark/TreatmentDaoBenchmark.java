@@ -0,0 +1,65 @@
+package de.hitec.nhplus.benchmark;
+
+import de.hitec.nhplus.datastorage.DaoFactory;
+import de.hitec.nhplus.datastorage.TreatmentDao;
+import de.hitec.nhplus.model.Treatment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the CRUD operations of the {@link TreatmentDao}. A patient has
+ * {@value BenchmarkDatabase#TREATMENTS_PER_PATIENT} treatments on average, which is what
+ * <code>readTreatmentsByPid</code> reads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TreatmentDaoBenchmark extends DatabaseBenchmark {
+
+    private TreatmentDao dao;
+    private Treatment updated;
+
+    @Override
+    protected void prepare() throws SQLException {
+        this.dao = DaoFactory.getDaoFactory().createTreatmentDao();
+        this.updated = this.dao.read(randomKey(this.database.getTreatments()));
+    }
+
+    @Benchmark
+    public void create() throws SQLException {
+        this.dao.create(new Treatment(randomKey(this.database.getPatients()), LocalDate.of(2024, 1, 1),
+                LocalTime.of(10, 0), LocalTime.of(10, 30), "Benchmark", "Benchmark", false, null));
+    }
+
+    @Benchmark
+    public Treatment read() throws SQLException {
+        return this.dao.read(randomKey(this.database.getTreatments()));
+    }
+
+    @Benchmark
+    public List<Treatment> readAll() throws SQLException {
+        return this.dao.readAll();
+    }
+
+    @Benchmark
+    public List<Treatment> readTreatmentsByPid() throws SQLException {
+        return this.dao.readTreatmentsByPid(randomKey(this.database.getPatients()));
+    }
+
+    @Benchmark
+    public void update() throws SQLException {
+        this.updated.setRemarks(this.updated.getRemarks().endsWith("!") ? "Benchmark" : "Benchmark!");
+        this.dao.update(this.updated);
+    }
+}
@@ -2,14 +2,21 @@ package de.hitec.nhplus;
 
 import de.hitec.nhplus.datastorage.CaregiverDao;
 import de.hitec.nhplus.datastorage.ConnectionBuilder;
+import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.datastorage.PatientDao;
+import de.hitec.nhplus.datastorage.SchemaUpgrade;
 import de.hitec.nhplus.datastorage.TreatmentDao;
+import de.hitec.nhplus.service.DbTaskExecutor;
+import de.hitec.nhplus.service.FxStallWatchdog;
+import de.hitec.nhplus.service.UiActionTracker;
+import de.hitec.nhplus.utils.AuditLog;
 
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
 import javafx.stage.Stage;
 
 import java.sql.SQLException;
@@ -26,11 +33,15 @@ public class Main extends Application {
     // A ScheduledExecutorService to schedule tasks to be executed periodically
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
+    // The maximum number of expired treatments deleted per run, the rest is deleted in the next run
+    private static final int MAX_PURGED_TREATMENTS = Integer.getInteger("nhplus.purge.maxTreatments", 100_000);
+
 
     /**
      * This method is the entry point of the application.
      * It is called when the application is launched.
-     * It sets the primary stage of the application and calls the methods to display the login window and schedule tasks.
+     * It sets the primary stage of the application, upgrades the database schema and calls the methods to display the
+     * login window and schedule tasks.
      *
      * @param primaryStage The primary stage for this application, onto which the application scene can be set.
      */
@@ -38,6 +49,19 @@ public class Main extends Application {
     public void start(Stage primaryStage) {
         // Set the primary stage of the application
         this.primaryStage = primaryStage;
+        // Bring an existing database up to the current schema version
+        try {
+            SchemaUpgrade.upgrade();
+        } catch (SQLException exception) {
+            exception.printStackTrace();
+            showUpgradeError(exception);
+        }
+        // Count the statements of every user action if the statements are traced
+        if (ConnectionBuilder.isTraced()) {
+            UiActionTracker.install();
+        }
+        // Watch the application thread for stalls of the user interface
+        FxStallWatchdog.getInstance().start();
         // Display the login window
         loginWindow();
         // Schedule tasks to be executed periodically
@@ -74,9 +98,16 @@ public class Main extends Application {
 
             // Set an event handler for the close request of the primary stage
             this.primaryStage.setOnCloseRequest(e -> {
-                // Close the database connection
+                // Let running database work finish, then close the database connection
+                DbTaskExecutor.getInstance().shutdown(5_000);
                 ConnectionBuilder.closeConnection();
 
+                // Write the queued audit log messages
+                AuditLog.shutdown(5_000);
+
+                // Rank the stalls of the user interface by their call site
+                System.out.print(FxStallWatchdog.getInstance().report());
+
                 // Exit the application
                 Platform.exit();
                 System.exit(0);
@@ -87,6 +118,20 @@ public class Main extends Application {
         }
     }
 
+    /**
+     * Tells the user that the database could not be brought up to the current schema version. The steps that
+     * failed are retried on the next start.
+     *
+     * @param exception The exception of the failed upgrade step.
+     */
+    private void showUpgradeError(SQLException exception) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Datenbank");
+        alert.setHeaderText("Die Datenbank konnte nicht vollständig aktualisiert werden.");
+        alert.setContentText(exception.getMessage() + (exception.getCause() == null ? "" :
+                "\n" + exception.getCause().getMessage()));
+        alert.showAndWait();
+    }
 
     /**
      * This method creates a task that is executed every 24 hours.
@@ -95,18 +140,20 @@ public class Main extends Application {
      * The method uses a ScheduledExecutorService to schedule and execute the task.
      */
     private void scheduleTask() {
-        // Create an instance of TreatmentDao
-        TreatmentDao treatmentDao = new TreatmentDao(ConnectionBuilder.getConnection());
-        PatientDao patientDao = new PatientDao(ConnectionBuilder.getConnection());
-        CaregiverDao caregiverDao = new CaregiverDao(ConnectionBuilder.getConnection());
+        // Create the DAOs; they lease the writer only while a sweep runs, so reads are not blocked in between
+        TreatmentDao treatmentDao = DaoFactory.getDaoFactory().createTreatmentDao();
+        PatientDao patientDao = DaoFactory.getDaoFactory().createPatientDAO();
+        CaregiverDao caregiverDao = DaoFactory.getDaoFactory().createCaregiverDAO();
 
         // Define the task to be executed
         Runnable task = () -> {
             try {
                 // Call the deleteExpiredLocks() method
-                treatmentDao.deleteExpiredLocks();
-                patientDao.deleteExpiredPatientLocks();
-                caregiverDao.deleteExpiredCaregiverLocks();
+                int treatments = treatmentDao.deleteExpiredLocks(MAX_PURGED_TREATMENTS);
+                int patients = patientDao.deleteExpiredPatientLocks();
+                int caregivers = caregiverDao.deleteExpiredCaregiverLocks();
+                System.out.println("Abgelaufene Sperren gelöscht: " + treatments + " Behandlungen, " + patients +
+                        " Patienten, " + caregivers + " Pflegekräfte");
 
             } catch (SQLException e) {
                 // Error handling
@@ -2,10 +2,12 @@ package de.hitec.nhplus.controller;
 
 import de.hitec.nhplus.Main;
 import de.hitec.nhplus.datastorage.CaregiverDao;
+import de.hitec.nhplus.datastorage.ChangeSet;
 import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.datastorage.PatientDao;
 import de.hitec.nhplus.model.Caregiver;
 import de.hitec.nhplus.model.Patient;
+import de.hitec.nhplus.service.DbTaskExecutor;
 import de.hitec.nhplus.service.Session;
 import de.hitec.nhplus.utils.AuditLog;
 import javafx.collections.FXCollections;
@@ -15,14 +17,15 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.AnchorPane;
 import javafx.stage.Stage;
 
 import java.io.IOException;
-import java.sql.SQLException;
+import java.util.Map;
 import java.util.Optional;
 
-public class AllCaregiverController {
+public class AllCaregiverController implements RefreshableView {
 
     @FXML
     private TableView<Caregiver> tableView;
@@ -40,6 +43,11 @@ public class AllCaregiverController {
     private TableColumn<Caregiver, String> colTelephoneNumber;
 
     private final ObservableList<Caregiver> caregivers = FXCollections.observableArrayList();
+    // The dialog to edit a caregiver is built once and shown again for every caregiver
+    private static final String CAREGIVER_VIEW = "/de/hitec/nhplus/CaregiverView.fxml";
+    private final DialogPool dialogs = new DialogPool();
+    // The version of the caregivers in the table, for readChangedSince
+    private long version;
 
     public void initialize() {
         this.readAllAndShowInTableView();
@@ -53,28 +61,61 @@ public class AllCaregiverController {
         this.colTelephoneNumber.setCellValueFactory(new PropertyValueFactory<>("telephoneNumber"));
 
         this.tableView.setItems(this.caregivers);
+        // Changes are applied to the table in place, F5 reads all caregivers again
+        this.tableView.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.F5) {
+                this.readAllAndShowInTableView();
+            }
+        });
+        this.dialogs.preload(CAREGIVER_VIEW);
     }
 
     /**
      * This method is used to read all caregivers from the database and display them in the table view.
-     * It first clears the existing list of caregivers, then creates a new CaregiverDao to interact with the database.
-     * It then tries to read all caregivers from the database and add them to the list of caregivers.
-     * If an SQLException occurs during this process, it is caught and its stack trace is printed.
+     * It creates a new CaregiverDao to interact with the database and reads all caregivers on the DbTaskExecutor.
+     * When they have arrived, they replace the list of caregivers on the JavaFX application thread.
+     * If an SQLException occurs during this process, its stack trace is printed.
      */
     public void readAllAndShowInTableView() {
-        // Clear the existing list of caregivers
-        this.caregivers.clear();
-
         // Create a new CaregiverDao to interact with the database
         CaregiverDao dao = DaoFactory.getDaoFactory().createCaregiverDAO();
 
-        try {
-            // Try to read all caregivers from the database and add them to the list of caregivers
-            this.caregivers.addAll(dao.readAll());
-        } catch (SQLException exception) {
-            // If an SQLException occurs, print its stack trace
-            exception.printStackTrace();
-        }
+        // Read all caregivers in the background and replace the list of caregivers with them. The version is read
+        // first, so a change during the read is applied again by the next refresh
+        DbTaskExecutor.getInstance().submit(() -> {
+            long version = dao.readVersion();
+            return Map.entry(version, dao.readAll());
+        }, loaded -> {
+            this.version = loaded.getKey();
+            this.caregivers.setAll(loaded.getValue());
+        });
+    }
+
+    /**
+     * This method applies the caregivers that were changed since the table was filled or refreshed, instead of
+     * reading all caregivers again. It is called when the view is shown again.
+     */
+    @Override
+    public void refresh() {
+        CaregiverDao dao = DaoFactory.getDaoFactory().createCaregiverDAO();
+        long version = this.version;
+        DbTaskExecutor.getInstance().submit(() -> dao.readChangedSince(version), changes -> {
+            this.version = Math.max(this.version, changes.getVersion());
+            if (!changes.isEmpty()) {
+                changes.applyToUnordered(this.caregivers, Caregiver::getPid);
+                this.tableView.sort();
+            }
+        });
+    }
+
+    /**
+     * This method applies the changes of a write to the table view, so that only the changed caregivers are shown
+     * again instead of reading all caregivers.
+     *
+     * @param changes The changes returned by the CaregiverDao.
+     */
+    public void applyChanges(ChangeSet<Caregiver> changes) {
+        changes.applyTo(this.caregivers, Caregiver::getPid);
     }
 
     /**
@@ -145,14 +186,12 @@ public class AllCaregiverController {
             // Remove the selected patient from the list
             Caregiver c = this.caregivers.remove(index);
 
-            // Create a DAO (Data Access Object) for the patient
+            // Create a DAO (Data Access Object) for the patient and lock the caregiver in the background
             CaregiverDao dao = DaoFactory.getDaoFactory().createCaregiverDAO();
-            try {
+            DbTaskExecutor.getInstance().run(() -> {
                 dao.lockCaregiver(c.getPid());
                 AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Locked Caregiver with ID: " + c.getPid());
-            } catch (SQLException exception) {
-                exception.printStackTrace();
-            }
+            });
         }
         // If "Cancel" was chosen, nothing happens and the method ends
     }
@@ -219,39 +258,15 @@ public class AllCaregiverController {
     }
 
     /**
-     * This method is used to open a new window displaying the details of a specific caregiver.
-     * It first creates a new FXMLLoader and loads the FXML file for the CaregiverView.
-     * It then creates a new Scene with the loaded pane and a new Stage for the window.
-     * The CaregiverController for the new window is retrieved and initialized with the current controller, the new stage, and the specific caregiver.
-     * The new stage is then set with the created scene, its resizable property is set to false, and it is displayed.
-     * If an IOException occurs during this process, it is caught and its stack trace is printed.
+     * This method is used to open the window displaying the details of a specific caregiver.
+     * The window is built once by the dialog pool and shown again for every caregiver: its CaregiverController is
+     * bound to the current controller, the stage, and the specific caregiver before it is displayed.
      *
-     * @param caregiver The specific caregiver whose details are to be displayed in the new window.
+     * @param caregiver The specific caregiver whose details are to be displayed in the window.
      */
     public void CaregiverWindow(Caregiver caregiver) {
-        try {
-            // Create a new FXMLLoader and load the FXML file for the CaregiverView
-            FXMLLoader loader = new FXMLLoader(Main.class.getResource("/de/hitec/nhplus/CaregiverView.fxml"));
-            AnchorPane pane = loader.load();
-
-            // Create a new Scene with the loaded pane
-            Scene scene = new Scene(pane);
-
-            // Create a new Stage for the window
-            Stage stage = new Stage();
-
-            // Retrieve the CaregiverController for the new window and initialize it with the current controller, the new stage, and the specific caregiver
-            CaregiverController controller = loader.getController();
-            controller.initialize(this, stage, caregiver);
-
-            // Set the new stage with the created scene, set its resizable property to false, and display it
-            stage.setScene(scene);
-            stage.setResizable(false);
-            stage.showAndWait();
-        } catch (IOException exception) {
-            // If an IOException occurs, print its stack trace
-            exception.printStackTrace();
-        }
+        this.dialogs.<CaregiverController>show(CAREGIVER_VIEW,
+                (controller, stage) -> controller.initialize(this, stage, caregiver));
     }
     public boolean CheckPermission() {
         return Session.getInstance().getLoggedInCaregiver().isAdmin();
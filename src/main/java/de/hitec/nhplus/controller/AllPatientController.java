@@ -1,10 +1,15 @@
 package de.hitec.nhplus.controller;
 
+import de.hitec.nhplus.datastorage.ChangeSet;
 import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.datastorage.PatientDao;
 import de.hitec.nhplus.datastorage.TreatmentDao;
+import de.hitec.nhplus.export.ExportFormat;
+import de.hitec.nhplus.export.ExportSource;
+import de.hitec.nhplus.export.ExportTask;
 import de.hitec.nhplus.model.Patient;
 import de.hitec.nhplus.model.Treatment;
+import de.hitec.nhplus.service.DbTaskExecutor;
 import de.hitec.nhplus.service.Session;
 import de.hitec.nhplus.utils.AuditLog;
 import de.hitec.nhplus.utils.DateConverter;
@@ -17,17 +22,23 @@ import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import java.io.File;
 import java.io.IOException;
-import java.sql.SQLException;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
 /**
  * The <code>AllPatientController</code> contains the entire logic of the patient view. It determines which data is displayed and how to react to events.
  */
-public class AllPatientController {
+public class AllPatientController implements RefreshableView {
 
     @FXML
     private TableView<Patient> tableView;
@@ -66,6 +77,9 @@ public class AllPatientController {
     @FXML
     private Button buttonSelectAll;
 
+    @FXML
+    private Button buttonExportAll;
+
     @FXML
     private TextField textFieldSurname;
 
@@ -84,6 +98,8 @@ public class AllPatientController {
 
     private final ObservableList<Patient> patients = FXCollections.observableArrayList();
     private PatientDao dao;
+    // The version of the patients in the table, for readChangedSince
+    private long version;
 
     /**
      * When <code>initialize()</code> gets called, all fields are already initialized. For example from the FXMLLoader
@@ -91,7 +107,7 @@ public class AllPatientController {
      * configured.
      */
     public void initialize() {
-        this.readAllAndShowInTableView();
+        this.readAllAndShowInTableView(false);
 
         this.columnId.setCellValueFactory(new PropertyValueFactory<>("pid"));
 
@@ -122,6 +138,12 @@ public class AllPatientController {
         //Anzeigen der Daten
         this.tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         this.tableView.setItems(this.patients);
+        // Changes are applied to the table in place, F5 reads all patients again
+        this.tableView.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.F5) {
+                this.readAllAndShowInTableView(true);
+            }
+        });
 
         this.buttonDelete.setDisable(true);
         this.tableView.getSelectionModel().selectedItemProperty().addListener(new ChangeListener<Patient>() {
@@ -199,31 +221,56 @@ public class AllPatientController {
 
 
     /**
-     * Updates a patient by calling the method <code>update()</code> of {@link PatientDao}.
+     * Updates a patient by calling the method <code>update()</code> of {@link PatientDao} on the
+     * {@link DbTaskExecutor}.
      *
      * @param event Event including the changed object and the change.
      */
     private void doUpdate(TableColumn.CellEditEvent<Patient, String> event) {
-        try {
-            this.dao.update(event.getRowValue());
-            AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Updated patient with ID: " + event.getRowValue().getPid());
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
+        Patient patient = event.getRowValue();
+        PatientDao dao = this.dao;
+        DbTaskExecutor.getInstance().run(() -> {
+            dao.update(patient);
+            AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Updated patient with ID: " + patient.getPid());
+        });
     }
 
     /**
-     * Reloads all patients to the table by clearing the list of all patients and filling it again by all persisted
-     * patients, delivered by {@link PatientDao}.
+     * Reloads all patients to the table by replacing the list of all patients with all persisted patients, delivered
+     * by {@link PatientDao}. The patients are read on the {@link DbTaskExecutor}, the table keeps showing the old list
+     * until they have arrived.
+     *
+     * @param reload <code>true</code> to read the patients from the database even if they are cached, e.g. when the
+     * user reloads the table with F5.
      */
-    private void readAllAndShowInTableView() {
-        this.patients.clear();
+    private void readAllAndShowInTableView(boolean reload) {
         this.dao = DaoFactory.getDaoFactory().createPatientDAO();
-        try {
-            this.patients.addAll(this.dao.readAll());
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
+        PatientDao dao = this.dao;
+        DbTaskExecutor.getInstance().submit(() -> {
+            // The version is read first, so a change during the read is applied again by the next refresh
+            long version = dao.readVersion();
+            return Map.entry(version, reload ? dao.reloadAll() : dao.readAll());
+        }, loaded -> {
+            this.version = loaded.getKey();
+            this.patients.setAll(loaded.getValue());
+        });
+    }
+
+    /**
+     * Applies the patients that were changed since the table was filled or refreshed, e.g. in another view or by
+     * another workstation, instead of reading all patients again.
+     */
+    @Override
+    public void refresh() {
+        PatientDao dao = this.dao;
+        long version = this.version;
+        DbTaskExecutor.getInstance().submit(() -> dao.readChangedSince(version), changes -> {
+            this.version = Math.max(this.version, changes.getVersion());
+            if (!changes.isEmpty()) {
+                changes.applyToUnordered(this.patients, Patient::getPid);
+                this.tableView.sort();
+            }
+        });
     }
 
 
@@ -261,14 +308,12 @@ public class AllPatientController {
             // Remove the selected patient from the list
             Patient p = this.patients.remove(index);
 
-            // Create a DAO (Data Access Object) for the patient
+            // Create a DAO (Data Access Object) for the patient and lock the patient in the background
             PatientDao dao = DaoFactory.getDaoFactory().createPatientDAO();
-            try {
+            DbTaskExecutor.getInstance().run(() -> {
                 dao.lockPatient(p.getPid());
                 AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Locked patient with ID: " + p.getPid());
-            } catch (SQLException exception) {
-                exception.printStackTrace();
-            }
+            });
         }
         // If "Cancel" was chosen, nothing happens and the method ends
     }
@@ -276,7 +321,7 @@ public class AllPatientController {
     /**
      * This method handles the events fired by the button to add a patient. It collects the data from the
      * <code>TextField</code>s, creates an object of class <code>Patient</code> of it and passes the object to
-     * {@link PatientDao} to persist the data.
+     * {@link PatientDao} to persist the data. The created patient is appended to the table.
      */
     @FXML
     public void handleAdd() {
@@ -288,32 +333,49 @@ public class AllPatientController {
         String roomNumber = this.textFieldRoomNumber.getText();
         Boolean locked = false;
         String lockedDate = null;
-        try {
-            this.dao.create(new Patient(firstName, surname, date, careLevel, roomNumber, locked, lockedDate));
+        Patient patient = new Patient(firstName, surname, date, careLevel, roomNumber, locked, lockedDate);
+        PatientDao dao = this.dao;
+        DbTaskExecutor.getInstance().submit(() -> {
+            ChangeSet<Patient> changes = dao.create(patient);
             AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Added patient: " + firstName + " " + surname);
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
-        readAllAndShowInTableView();
+            return changes;
+        }, changes -> changes.applyTo(this.patients, Patient::getPid));
         clearTextfields();
     }
 
     /**
      * This method handles the events fired by the button to export a patient's data. It retrieves the selected
-     * <code>Patient</code> from the <code>TableView</code>, and if a patient is selected, it calls the method
-     * to export the patient's data. The export format can is "CSV".
+     * <code>Patient</code>s from the <code>TableView</code>, and if patients are selected, it asks for the file and
+     * the format and exports the patients' data together with their complete treatment histories. The export
+     * formats are "CSV" and "JSON Lines", optionally compressed with gzip.
      */
     @FXML
     public void handleExport() {
         ObservableList<Patient> selectedPatients = this.tableView.getSelectionModel().getSelectedItems();
         if (selectedPatients != null && !selectedPatients.isEmpty()) {
-            try {
-                exportPatientData(selectedPatients);
-                AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Exported patient data");
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            exportPatientData(new ArrayList<>(selectedPatients));
+        }
+    }
+
+    /**
+     * This method handles the events fired by the button to export the data of the whole facility. It asks for the
+     * file and the format and exports all patients, the complete treatment histories of all patients and, if the
+     * logged in caregiver is an admin, all caregivers, each into its own file.
+     */
+    @FXML
+    public void handleExportAll() {
+        ExportTarget target = chooseExportTarget("Alle Daten exportieren", "nhplus");
+        if (target == null) {
+            return;
         }
+        Path patientFile = target.file("_patienten");
+        ExportTask task = new ExportTask(target.format(), target.gzip())
+                .add(ExportSource.allPatients(), patientFile)
+                .add(ExportSource.allTreatments(), target.file("_behandlungen"));
+        if (Session.getInstance().getLoggedInCaregiver().isAdmin()) {
+            task.add(ExportSource.allCaregivers(), target.file("_pflegekraefte"));
+        }
+        startExport(task, patientFile, target.gzip());
     }
 
     @FXML
@@ -348,7 +410,120 @@ public class AllPatientController {
     }
 
 
-    private void exportPatientData(ObservableList<Patient> selectedPatients) throws Exception {
-        exportUtil.exportToCSV(selectedPatients);
+    /**
+     * Exports the given patients into one file and their treatments into a second file next to it. The export runs on
+     * a background thread; a dialog shows its progress and allows to cancel it.
+     *
+     * @param selectedPatients The patients to export.
+     */
+    private void exportPatientData(List<Patient> selectedPatients) {
+        ExportTarget target = chooseExportTarget("Patientendaten exportieren", "patienten");
+        if (target == null) {
+            return;
+        }
+        Path patientFile = target.file("");
+        List<Long> pids = new ArrayList<>();
+        for (Patient patient : selectedPatients) {
+            pids.add(patient.getPid());
+        }
+        ExportTask task = new ExportTask(target.format(), target.gzip())
+                .add(ExportSource.patients(selectedPatients), patientFile)
+                .add(ExportSource.treatmentsOfPatients(pids), target.file("_behandlungen"));
+        startExport(task, patientFile, target.gzip());
+    }
+
+    /**
+     * The file and the format chosen for an export. The chosen name is used without its extension as base name for
+     * all files of the export.
+     */
+    private record ExportTarget(Path chosenFile, ExportFormat format, boolean gzip) {
+
+        Path file(String suffix) {
+            String baseName = this.chosenFile.getFileName().toString().replaceFirst("\\..*$", "");
+            return this.chosenFile.resolveSibling(ExportTask.fileName(baseName + suffix, this.format, this.gzip));
+        }
+    }
+
+    /**
+     * Asks for the file and the format of an export.
+     *
+     * @param title Title of the file dialog.
+     * @param initialFileName File name that is suggested.
+     * @return The chosen file and format, or <code>null</code> if the dialog was cancelled.
+     */
+    private ExportTarget chooseExportTarget(String title, String initialFileName) {
+        // Every format is offered plain and compressed with gzip
+        List<ExportFormat> formats = new ArrayList<>();
+        List<Boolean> compressed = new ArrayList<>();
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle(title);
+        fileChooser.setInitialFileName(initialFileName);
+        for (ExportFormat format : ExportFormat.values()) {
+            for (boolean gzip : new boolean[]{false, true}) {
+                String extension = "*" + ExportTask.fileName("", format, gzip);
+                fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                        format.getDisplayName() + (gzip ? " (gzip)" : "") + " " + extension, extension));
+                formats.add(format);
+                compressed.add(gzip);
+            }
+        }
+        File file = fileChooser.showSaveDialog(this.tableView.getScene().getWindow());
+        if (file == null) {
+            return null;
+        }
+        int filter = Math.max(0, fileChooser.getExtensionFilters().indexOf(fileChooser.getSelectedExtensionFilter()));
+        return new ExportTarget(file.toPath(), formats.get(filter), compressed.get(filter));
+    }
+
+    /**
+     * Starts the export on a background thread and shows its progress.
+     */
+    private void startExport(ExportTask task, Path patientFile, boolean gzip) {
+        showExportProgress(task, patientFile, gzip);
+
+        Thread thread = new Thread(task, "nhplus-export");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Shows a dialog with the progress of the export, which cancels the export when it is closed before the export
+     * has finished. When the export has succeeded, the file with the patients is opened.
+     */
+    private void showExportProgress(ExportTask task, Path patientFile, boolean gzip) {
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(task.progressProperty());
+        Label message = new Label();
+        message.textProperty().bind(task.messageProperty());
+
+        Alert alert = new Alert(Alert.AlertType.NONE, null, ButtonType.CANCEL);
+        alert.setTitle("Export");
+        alert.setHeaderText("Patientendaten werden exportiert");
+        alert.getDialogPane().setContent(new VBox(10, message, progressBar));
+        alert.setOnHidden(event -> task.cancel());
+
+        task.setOnSucceeded(event -> {
+            alert.close();
+            AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Exported patient data");
+            if (!gzip) {
+                try {
+                    exportUtil.openFile(patientFile.toFile());
+                } catch (IOException exception) {
+                    exception.printStackTrace();
+                }
+            }
+        });
+        task.setOnFailed(event -> {
+            alert.close();
+            task.getException().printStackTrace();
+            Alert error = new Alert(Alert.AlertType.ERROR);
+            error.setTitle("Export");
+            error.setHeaderText("Der Export ist fehlgeschlagen");
+            error.setContentText(task.getException().getMessage());
+            error.showAndWait();
+        });
+        task.setOnCancelled(event -> alert.close());
+        alert.show();
     }
 }
\ No newline at end of file
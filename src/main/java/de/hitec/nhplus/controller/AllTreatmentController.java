@@ -1,43 +1,50 @@
 package de.hitec.nhplus.controller;
 
-import de.hitec.nhplus.Main;
+import de.hitec.nhplus.datastorage.ChangeSet;
 import de.hitec.nhplus.datastorage.DaoFactory;
+import de.hitec.nhplus.datastorage.PatientCache;
 import de.hitec.nhplus.datastorage.PatientDao;
 import de.hitec.nhplus.datastorage.TreatmentDao;
+import de.hitec.nhplus.datastorage.TreatmentQuery;
+import de.hitec.nhplus.datastorage.TreatmentSearchResult;
+import de.hitec.nhplus.service.DbTaskExecutor;
 import de.hitec.nhplus.service.Session;
 import de.hitec.nhplus.utils.AuditLog;
+import javafx.animation.PauseTransition;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
-import javafx.scene.layout.AnchorPane;
-import javafx.stage.Stage;
+import javafx.scene.input.KeyCode;
+import javafx.util.Duration;
 import de.hitec.nhplus.model.Patient;
 import de.hitec.nhplus.model.Treatment;
 
-import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 
 
-public class AllTreatmentController {
+public class AllTreatmentController implements RefreshableView {
 
     @FXML
     private TableView<Treatment> tableView;
 
     @FXML
-    private TableColumn<Treatment, Integer> columnId;
+    private TableColumn<Treatment, Long> columnId;
 
     @FXML
-    private TableColumn<Treatment, Integer> columnPid;
+    private TableColumn<Treatment, Long> columnPid;
 
     @FXML
     private TableColumn<Treatment, String> columnDate;
@@ -57,10 +64,50 @@ public class AllTreatmentController {
     @FXML
     private Button buttonLock;
 
-    private final ObservableList<Treatment> treatments = FXCollections.observableArrayList();
+    @FXML
+    private DatePicker datePickerFrom;
+
+    @FXML
+    private DatePicker datePickerTo;
+
+    @FXML
+    private TextField textFieldDescription;
+
+    @FXML
+    private TextField textFieldSearch;
+
+    // Number of treatments fetched at once and number of such pages kept in memory.
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 20;
+
+    // Shown for treatments that are not loaded yet.
+    private static final String LOADING = "wird geladen ...";
+
+    // Maximum number of treatments shown for a full-text search.
+    private static final int SEARCH_LIMIT = 200;
+
+    private final PagedList<Treatment> treatments = new PagedList<>(
+            new Treatment(0, 0, null, null, null, LOADING, null, false, null), Treatment::getTid, PAGE_SIZE, MAX_PAGES);
     private TreatmentDao dao;
+    // The filters and the order of the shown treatments
+    private TreatmentQuery query = new TreatmentQuery();
+    // The description filter and the search are applied once the user stopped typing
+    private final PauseTransition descriptionPause = new PauseTransition(Duration.millis(300));
+    private final PauseTransition searchPause = new PauseTransition(Duration.millis(300));
+    // The results of the full-text search by treatment id, null if the search box is empty
+    private Map<Long, TreatmentSearchResult> searchResults;
+    // Counts the searches, so that the results of an outdated search are dropped
+    private int searchGeneration;
     private final ObservableList<String> patientSelection = FXCollections.observableArrayList();
-    private ArrayList<Patient> patientList;
+    private List<Patient> patientList;
+    // The versions of the treatments and the patients that are shown, to tell whether they changed since
+    private volatile long version;
+    private long patientVersion;
+
+    // The dialogs to create and edit treatments are built once and shown again for every treatment
+    private static final String NEW_TREATMENT_VIEW = "/de/hitec/nhplus/NewTreatmentView.fxml";
+    private static final String TREATMENT_VIEW = "/de/hitec/nhplus/TreatmentView.fxml";
+    private final DialogPool dialogs = new DialogPool();
 
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
@@ -69,72 +116,272 @@ public class AllTreatmentController {
         comboBoxPatientSelection.setItems(patientSelection);
         comboBoxPatientSelection.getSelectionModel().select(0);
 
-        this.columnId.setCellValueFactory(new PropertyValueFactory<>("tid"));
-        this.columnPid.setCellValueFactory(new PropertyValueFactory<>("pid"));
-        this.columnDate.setCellValueFactory(new PropertyValueFactory<>("date"));
-        this.columnBegin.setCellValueFactory(new PropertyValueFactory<>("begin"));
-        this.columnEnd.setCellValueFactory(new PropertyValueFactory<>("end"));
-        this.columnDescription.setCellValueFactory(new PropertyValueFactory<>("description"));
+        this.columnId.setCellValueFactory(cell -> cellValue(cell.getValue(), Treatment::getTid, null));
+        this.columnPid.setCellValueFactory(cell -> cellValue(cell.getValue(), Treatment::getPid, null));
+        this.columnDate.setCellValueFactory(cell -> cellValue(cell.getValue(), Treatment::getDate, LOADING));
+        this.columnBegin.setCellValueFactory(cell -> cellValue(cell.getValue(), Treatment::getBegin, ""));
+        this.columnEnd.setCellValueFactory(cell -> cellValue(cell.getValue(), Treatment::getEnd, ""));
+        this.columnDescription.setCellValueFactory(cell -> cellValue(cell.getValue(), this::description, ""));
         this.tableView.setItems(this.treatments);
 
+        // The treatments are sorted by the database, the table only passes the order on
+        this.columnPid.setSortable(false);
+        this.columnEnd.setSortable(false);
+        this.columnDescription.setSortable(false);
+        this.tableView.setSortPolicy(table -> {
+            showTreatments();
+            return true;
+        });
+        this.descriptionPause.setOnFinished(event -> handleFilter());
+        this.textFieldDescription.textProperty().addListener(
+                (observableValue, oldText, newText) -> this.descriptionPause.playFromStart());
+        this.searchPause.setOnFinished(event -> handleFilter());
+        this.textFieldSearch.textProperty().addListener(
+                (observableValue, oldText, newText) -> this.searchPause.playFromStart());
+
         this.buttonLock.setDisable(true);
         this.tableView.getSelectionModel().selectedItemProperty().addListener(
                 (observableValue, oldTreatment, newTreatment) ->
-                        AllTreatmentController.this.buttonLock.setDisable(newTreatment == null));
+                        AllTreatmentController.this.buttonLock.setDisable(newTreatment == null
+                                || this.treatments.isPlaceholder(newTreatment)));
+        // Changes are applied to the table in place, F5 loads the shown treatments again
+        this.tableView.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.F5) {
+                this.treatments.refresh();
+            }
+        });
         this.createComboBoxData();
+        this.dialogs.preload(TREATMENT_VIEW, NEW_TREATMENT_VIEW);
+    }
+
+    /**
+     * Returns the value of a cell, or the given loading value while the treatment of the row is not loaded yet.
+     */
+    private <V> ObservableValue<V> cellValue(Treatment treatment, Function<Treatment, V> getter, V loading) {
+        return new ReadOnlyObjectWrapper<>(this.treatments.isPlaceholder(treatment) ? loading : getter.apply(treatment));
+    }
+
+    /**
+     * Returns the description of a treatment, with the matched words highlighted while a search is shown.
+     */
+    private String description(Treatment treatment) {
+        TreatmentSearchResult result = this.searchResults == null ? null : this.searchResults.get(treatment.getTid());
+        return result == null ? treatment.getDescription() : result.getSummary();
     }
 
+    /**
+     * Applies the changes of a write to the table, so that only the changed treatments are shown again. Inserted
+     * treatments are only shown if they match the filters. The table can only append a treatment, so it loads the
+     * shown treatments again if an inserted or updated treatment may move in any other order than by id.
+     *
+     * @param changes Changes returned by the {@link TreatmentDao}.
+     */
+    public void applyChanges(ChangeSet<Treatment> changes) {
+        if (this.searchResults != null) {
+            showTreatments();
+            return;
+        }
+        TreatmentQuery query = this.query;
+        if (query.getOrder() != TreatmentQuery.Order.ID
+                && (!changes.getInserted().isEmpty() || !changes.getUpdated().isEmpty())) {
+            this.treatments.refresh();
+            return;
+        }
+        this.treatments.apply(changes, query::matches);
+    }
+
+    /**
+     * Shows the treatments again if any treatment changed since they were loaded, e.g. in a dialog or by another
+     * workstation. The table then only loads the visible pages again. The patient selection is read again if a patient
+     * changed.
+     */
+    @Override
+    public void refresh() {
+        TreatmentDao dao = this.dao;
+        DbTaskExecutor.getInstance().submit(dao::readVersion, version -> {
+            if (version == this.version) {
+                return;
+            }
+            this.version = version;
+            if (this.searchResults != null) {
+                showTreatments();
+            } else {
+                this.treatments.refresh();
+            }
+        });
+        PatientDao patientDao = DaoFactory.getDaoFactory().createPatientDAO();
+        DbTaskExecutor.getInstance().submit(patientDao::readVersion, version -> {
+            if (version != this.patientVersion) {
+                createComboBoxData();
+            }
+        });
+    }
+
+    /**
+     * Shows all unlocked treatments. The treatments are not read at once: the table only loads the pages of
+     * treatments that are scrolled into view, in the background.
+     */
     public void readAllAndShowInTableView() {
-        this.treatments.clear();
         comboBoxPatientSelection.getSelectionModel().select(0);
         this.dao = DaoFactory.getDaoFactory().createTreatmentDao();
+        showAllTreatments();
+    }
 
-        try {
-            this.treatments.addAll(dao.readAll());
-        } catch (SQLException exception) {
-            exception.printStackTrace();
+    private void showAllTreatments() {
+        showTreatmentsOfPatient(0);
+    }
+
+    private void showTreatmentsOfPatient(long pid) {
+        this.query.patient(pid);
+        showTreatments();
+    }
+
+    /**
+     * Shows the treatments that match the patient selection and the filters, in the order of the sorted column.
+     * Every change of the query starts a new generation of the paged list, so pages of the previous query are dropped.
+     */
+    private void showTreatments() {
+        TreatmentQuery query = new TreatmentQuery()
+                .patient(this.query.getPid())
+                .from(this.datePickerFrom.getValue())
+                .to(this.datePickerTo.getValue())
+                .descriptionPrefix(this.textFieldDescription.getText())
+                .orderBy(sortOrder());
+        this.query = query;
+        if (!this.textFieldSearch.getText().isBlank()) {
+            search(query, this.textFieldSearch.getText());
+            return;
         }
+        this.searchGeneration++;
+        this.searchResults = null;
+        this.tableView.setItems(this.treatments);
+        TreatmentDao dao = this.dao;
+        this.treatments.setLoader(new PagedList.PageLoader<>() {
+            @Override
+            public int count() throws SQLException {
+                // The version is read first, so a change during the count is shown by the next refresh
+                AllTreatmentController.this.version = dao.readVersion();
+                return dao.countMatching(query);
+            }
+
+            @Override
+            public List<Treatment> load(Treatment previous, int offset, int limit) throws SQLException {
+                return previous == null
+                        ? dao.readWindow(query, null, offset, limit)
+                        : dao.readWindow(query, previous, 0, limit);
+            }
+        });
+    }
+
+    /**
+     * Shows the treatments found by the full-text search among those that match the filters, the best match first.
+     */
+    private void search(TreatmentQuery query, String text) {
+        int generation = ++this.searchGeneration;
+        TreatmentDao dao = this.dao;
+        DbTaskExecutor.getInstance().submit(() -> dao.search(text, query, SEARCH_LIMIT), results -> {
+            if (generation != this.searchGeneration) {
+                return;
+            }
+            Map<Long, TreatmentSearchResult> resultsByTid = new HashMap<>();
+            List<Treatment> found = new ArrayList<>();
+            for (TreatmentSearchResult result : results) {
+                resultsByTid.put(result.getTreatment().getTid(), result);
+                found.add(result.getTreatment());
+            }
+            this.searchResults = resultsByTid;
+            this.tableView.setItems(FXCollections.observableArrayList(found));
+        });
+    }
+
+    /**
+     * Maps the sorted column of the table to the order of the query: the id by the treatment id, the date and the
+     * begin by the date of the treatment.
+     */
+    private TreatmentQuery.Order sortOrder() {
+        if (this.tableView.getSortOrder().isEmpty()) {
+            return TreatmentQuery.Order.ID;
+        }
+        TableColumn<Treatment, ?> column = this.tableView.getSortOrder().get(0);
+        boolean descending = column.getSortType() == TableColumn.SortType.DESCENDING;
+        if (column == this.columnId) {
+            return descending ? TreatmentQuery.Order.ID_DESCENDING : TreatmentQuery.Order.ID;
+        }
+        return descending ? TreatmentQuery.Order.DATE_DESCENDING : TreatmentQuery.Order.DATE;
+    }
+
+    /**
+     * Shows the treatments again after a filter or the search was changed.
+     */
+    @FXML
+    public void handleFilter() {
+        this.descriptionPause.stop();
+        this.searchPause.stop();
+        showTreatments();
+    }
+
+    /**
+     * Clears the date and description filters.
+     */
+    @FXML
+    public void handleResetFilter() {
+        this.datePickerFrom.setValue(null);
+        this.datePickerTo.setValue(null);
+        this.textFieldDescription.clear();
+        handleFilter();
     }
 
     private void createComboBoxData() {
         PatientDao dao = DaoFactory.getDaoFactory().createPatientDAO();
-        try {
-            patientList = (ArrayList<Patient>) dao.readAll();
-            this.patientSelection.add("alle");
+        DbTaskExecutor.getInstance().submit(() -> {
+            long version = dao.readVersion();
+            return Map.entry(version, dao.readAll());
+        }, loaded -> {
+            this.patientVersion = loaded.getKey();
+            patientList = loaded.getValue();
+            List<String> selection = new ArrayList<>();
+            selection.add("alle");
             for (Patient patient: patientList) {
-                this.patientSelection.add(patient.getSurname());
+                selection.add(patient.getSurname());
             }
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
+            // Keep the selected patient when the patients are read again
+            String selected = this.comboBoxPatientSelection.getSelectionModel().getSelectedItem();
+            this.patientSelection.setAll(selection);
+            if (selected != null && !selected.equals(this.comboBoxPatientSelection.getSelectionModel().getSelectedItem())
+                    && selection.contains(selected)) {
+                this.comboBoxPatientSelection.getSelectionModel().select(selected);
+            }
+        });
     }
 
 
     @FXML
     public void handleComboBox() {
         String selectedPatient = this.comboBoxPatientSelection.getSelectionModel().getSelectedItem();
-        this.treatments.clear();
         this.dao = DaoFactory.getDaoFactory().createTreatmentDao();
 
-        if (selectedPatient.equals("alle")) {
-            try {
-                this.treatments.addAll(this.dao.readAll());
-            } catch (SQLException exception) {
-                exception.printStackTrace();
-            }
+        if (selectedPatient == null || selectedPatient.equals("alle")) {
+            showAllTreatments();
+            return;
         }
 
         Patient patient = searchInList(selectedPatient);
         if (patient !=null) {
-            try {
-                this.treatments.addAll(this.dao.readTreatmentsByPid(patient.getPid()));
-            } catch (SQLException exception) {
-                exception.printStackTrace();
-            }
+            showTreatmentsOfPatient(patient.getPid());
         }
     }
 
     private Patient searchInList(String surname) {
+        // The surname index of the cache knows all patients unless the cache is full
+        PatientCache cache = PatientCache.getInstance();
+        Patient cachedPatient = cache.findBySurname(surname);
+        if (cachedPatient != null || cache.isComplete()) {
+            return cachedPatient;
+        }
+        // The patients are still loading
+        if (this.patientList == null) {
+            return null;
+        }
         for (Patient patient : this.patientList) {
             if (patient.getSurname().equals(surname)) {
                 return patient;
@@ -147,8 +394,8 @@ public class AllTreatmentController {
      * This method handles the locking of a treatment. When a treatment is locked, it can no longer be edited
      * and will be deleted after 10 years. This action is irreversible.
      * The method first creates a confirmation dialog to ensure that the user really wants to lock the treatment.
-     * If the user confirms, the selected treatment is removed from the list and the 'lockTreatment' method
-     * of the TreatmentDao is called with the treatment ID as a parameter.
+     * If the user confirms, the 'lockTreatment' method of the TreatmentDao is called with the treatment ID as a
+     * parameter and the locked treatment is removed from the table.
      */
     public void handleLock() {
         // Create a confirmation dialog
@@ -171,19 +418,19 @@ public class AllTreatmentController {
 
         // Check if the "Lock" button was selected
         if (result.isPresent() && result.get() == buttonTypeLock) {
-            // Determine the index of the selected treatment in the table
-            int index = this.tableView.getSelectionModel().getSelectedIndex();
-            // Remove the selected treatment from the list
-            Treatment t = this.treatments.remove(index);
+            // Determine the selected treatment in the table
+            Treatment t = this.tableView.getSelectionModel().getSelectedItem();
+            if (t == null || this.treatments.isPlaceholder(t)) {
+                return;
+            }
 
-            // Create a DAO (Data Access Object) for the treatment
+            // Create a DAO (Data Access Object) for the treatment and lock the treatment in the background
             TreatmentDao dao = DaoFactory.getDaoFactory().createTreatmentDao();
-            try {
-                dao.lockTreatment(t.getTid());
+            DbTaskExecutor.getInstance().submit(() -> {
+                ChangeSet<Treatment> changes = dao.lockTreatment(t.getTid());
                 AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Locked treatment with ID: " + t.getTid());
-            } catch (SQLException exception) {
-                exception.printStackTrace();
-            }
+                return changes;
+            }, this::applyChanges);
         }
         // If "Cancel" was chosen, nothing happens and the method ends
     }
@@ -208,49 +455,39 @@ public class AllTreatmentController {
     public void handleMouseClick() {
         tableView.setOnMouseClicked(event -> {
             if (event.getClickCount() == 2 && (tableView.getSelectionModel().getSelectedItem() != null)) {
-                int index = this.tableView.getSelectionModel().getSelectedIndex();
-                Treatment treatment = this.treatments.get(index);
-                treatmentWindow(treatment);
+                Treatment treatment = this.tableView.getSelectionModel().getSelectedItem();
+                if (!this.treatments.isPlaceholder(treatment)) {
+                    treatmentWindow(treatment);
+                }
             }
         });
     }
 
     public void newTreatmentWindow(Patient patient) {
-        try {
-            FXMLLoader loader = new FXMLLoader(Main.class.getResource("/de/hitec/nhplus/NewTreatmentView.fxml"));
-            AnchorPane pane = loader.load();
-            Scene scene = new Scene(pane);
-
-            // the primary stage should stay in the background
-            Stage stage = new Stage();
-
-            NewTreatmentController controller = loader.getController();
-            controller.initialize(this, stage, patient);
-
-            stage.setScene(scene);
-            stage.setResizable(false);
-            stage.showAndWait();
-        } catch (IOException exception) {
-            exception.printStackTrace();
-        }
+        this.dialogs.<NewTreatmentController>show(NEW_TREATMENT_VIEW,
+                (controller, stage) -> controller.initialize(this, stage, patient));
     }
 
     public void treatmentWindow(Treatment treatment){
-        try {
-            FXMLLoader loader = new FXMLLoader(Main.class.getResource("/de/hitec/nhplus/TreatmentView.fxml"));
-            AnchorPane pane = loader.load();
-            Scene scene = new Scene(pane);
-
-            // the primary stage should stay in the background
-            Stage stage = new Stage();
-            TreatmentController controller = loader.getController();
-            controller.initializeController(this, stage, treatment);
-
-            stage.setScene(scene);
-            stage.setResizable(false);
-            stage.showAndWait();
-        } catch (IOException exception) {
-            exception.printStackTrace();
+        this.dialogs.<TreatmentController>show(TREATMENT_VIEW, (controller, stage) ->
+                controller.initializeController(this, stage, treatment, findPatient(treatment.getPid())));
+    }
+
+    /**
+     * Finds a patient in the cache or in the patients of the selection, without reading the database.
+     *
+     * @return The patient, or <code>null</code> if it is not known yet.
+     */
+    private Patient findPatient(long pid) {
+        Patient patient = PatientCache.getInstance().get(pid);
+        if (patient != null || this.patientList == null) {
+            return patient;
         }
+        for (Patient candidate : this.patientList) {
+            if (candidate.getPid() == pid) {
+                return candidate;
+            }
+        }
+        return null;
     }
 }
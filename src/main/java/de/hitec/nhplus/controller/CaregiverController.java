@@ -2,6 +2,8 @@ package de.hitec.nhplus.controller;
 
 import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.datastorage.CaregiverDao;
+import de.hitec.nhplus.datastorage.ChangeSet;
+import de.hitec.nhplus.service.DbTaskExecutor;
 import de.hitec.nhplus.service.Session;
 import de.hitec.nhplus.utils.AuditLog;
 import de.hitec.nhplus.utils.PasswordUtil;
@@ -10,7 +12,6 @@ import javafx.scene.control.*;
 import javafx.stage.Stage;
 import de.hitec.nhplus.model.Caregiver;
 
-import java.sql.SQLException;
 import java.time.LocalDate;
 
 /**
@@ -55,7 +56,8 @@ public class CaregiverController {
     private Stage stage;
 
     /**
-     * This method initializes the CaregiverController with the given AllCaregiverController, stage, and caregiver.
+     * This method binds the CaregiverController to the given AllCaregiverController, stage, and caregiver. The dialog
+     * is reused for every caregiver, so the password entered for the previous caregiver is cleared.
      *
      * @param controller The AllCaregiverController.
      * @param stage The stage.
@@ -67,6 +69,7 @@ public class CaregiverController {
 
         this.caregiver = caregiver;
         showData();
+        this.passwordFieldPassword.clear();
     }
 
     /**
@@ -101,27 +104,27 @@ public class CaregiverController {
         this.caregiver.setTelephoneNumber(this.textFieldTelephoneNumber.getText());
         this.caregiver.setUsername(this.textFieldUsername.getText());
         this.caregiver.setIsAdmin(this.checkBoxIsAdmin.isSelected());
-        if (!this.passwordFieldPassword.getText().isEmpty()) {
-            this.caregiver.setPassword_hash(PasswordUtil.generatePassword(this.passwordFieldPassword.getText()));
-        } else {
-            this.caregiver.setPassword_hash(this.caregiver.getPassword_hash());
-        }
-        doUpdate();
-        controller.readAllAndShowInTableView();
+        doUpdate(this.passwordFieldPassword.getText());
         stage.close();
     }
 
     /**
-     * This method updates the caregiver in the database.
+     * This method updates the caregiver in the database. The new password is hashed and the caregiver is updated on
+     * the DbTaskExecutor, afterwards the caregiver is shown again in the table of all caregivers.
+     *
+     * @param password The new password, or an empty string to keep the current one.
      */
-    private void doUpdate() {
+    private void doUpdate(String password) {
         CaregiverDao dao = DaoFactory.getDaoFactory().createCaregiverDAO();
-        try {
-            dao.update(this.caregiver);
+        Caregiver caregiver = this.caregiver;
+        DbTaskExecutor.getInstance().submit(() -> {
+            if (!password.isEmpty()) {
+                caregiver.setPassword_hash(PasswordUtil.generatePassword(password));
+            }
+            ChangeSet<Caregiver> changes = dao.update(caregiver);
             AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Caregiver updated: " + caregiver.getUsername());
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
+            return changes;
+        }, controller::applyChanges);
     }
 
     /**
@@ -0,0 +1,82 @@
+package de.hitec.nhplus.controller;
+
+import de.hitec.nhplus.Main;
+import javafx.application.Platform;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The <code>DialogPool</code> keeps one modal dialog per FXML file, with its <code>Stage</code>, <code>Scene</code> and
+ * controller, and shows it again for every record that is opened. Before it is shown, the controller is bound to the
+ * record, so it has to reset everything a previous record left in the dialog. Only the first dialog of a kind parses
+ * its FXML; {@link #preload(String...)} does that before the dialog is needed.
+ */
+class DialogPool {
+
+    private record Dialog(Stage stage, Object controller) {
+    }
+
+    private final Map<String, Dialog> dialogs = new HashMap<>();
+
+    /**
+     * Builds the given dialogs that are not built yet, one after another in later runs of the JavaFX application
+     * thread.
+     *
+     * @param fxmls Resource paths of the FXML files of the dialogs.
+     */
+    void preload(String... fxmls) {
+        for (String fxml : fxmls) {
+            Platform.runLater(() -> dialog(fxml));
+        }
+    }
+
+    /**
+     * Binds the dialog of an FXML file to a record and shows it until it is closed.
+     *
+     * @param fxml Resource path of the FXML file of the dialog.
+     * @param bind Binds the controller of the dialog to the record; gets the controller and the stage of the dialog.
+     */
+    @SuppressWarnings("unchecked")
+    <C> void show(String fxml, BiConsumer<C, Stage> bind) {
+        Dialog dialog = dialog(fxml);
+        if (dialog == null) {
+            return;
+        }
+        bind.accept((C) dialog.controller(), dialog.stage());
+        if (dialog.stage().isShowing()) {
+            dialog.stage().toFront();
+        } else {
+            dialog.stage().showAndWait();
+        }
+    }
+
+    private Dialog dialog(String fxml) {
+        Dialog dialog = this.dialogs.get(fxml);
+        if (dialog != null) {
+            return dialog;
+        }
+        FXMLLoader loader = new FXMLLoader(Main.class.getResource(fxml));
+        try {
+            Parent pane = loader.load();
+            Stage stage = new Stage();
+            // The main window waits while a dialog is open, so a dialog is never opened a second time
+            stage.initModality(Modality.APPLICATION_MODAL);
+            stage.setScene(new Scene(pane));
+            stage.setResizable(false);
+            dialog = new Dialog(stage, loader.getController());
+            this.dialogs.put(fxml, dialog);
+            return dialog;
+        } catch (IOException exception) {
+            exception.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package de.hitec.nhplus.controller;
 import de.hitec.nhplus.Main;
 import de.hitec.nhplus.model.Caregiver;
 import de.hitec.nhplus.service.CaregiverService;
+import de.hitec.nhplus.service.DbTaskExecutor;
+import de.hitec.nhplus.service.LoginBusyException;
+import de.hitec.nhplus.service.LoginThrottledException;
 import de.hitec.nhplus.service.Session;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -30,11 +33,15 @@ public class LoginController {
 
     private final CaregiverService caregiverService = new CaregiverService();
 
+    // Whether an authentication is currently running
+    private boolean loginRunning;
+
 
 
     /**
      * This method handles the login process when the login button is clicked.
-     * It retrieves the username and password from the input fields and attempts to authenticate the caregiver.
+     * It retrieves the username and password from the input fields and attempts to authenticate the caregiver on the
+     * DbTaskExecutor, so the window keeps responding while the password is checked.
      * If the authentication is successful, it sets the logged in caregiver in the session and loads the main window view.
      * If the authentication fails, it displays an error message.
      *
@@ -42,20 +49,44 @@ public class LoginController {
      */
     @FXML
     private void login(ActionEvent event) {
+        // Ignore further clicks while a login is running
+        if (loginRunning) {
+            return;
+        }
         // Retrieve the username and password from the input fields
         String username = usernameField.getText();
         String password = passwordField.getText();
-        Caregiver caregiver = null;
 
-        // Attempt to authenticate the caregiver
-        caregiver = caregiverService.authenticate(username, password);
+        // Attempt to authenticate the caregiver in the background, hashing the password takes a while
+        loginRunning = true;
+        DbTaskExecutor.getInstance().submit(() -> caregiverService.authenticate(username, password),
+                this::showLoginResult,
+                exception -> {
+                    loginRunning = false;
+                    if (exception instanceof LoginThrottledException throttled) {
+                        long seconds = (throttled.getRemainingMillis() + 999) / 1000;
+                        errorLabel.setText("Zu viele fehlgeschlagene Anmeldungen. Bitte in " + seconds +
+                                " Sekunden erneut versuchen.");
+                        return;
+                    }
+                    if (exception instanceof LoginBusyException) {
+                        errorLabel.setText("Zu viele Anmeldungen gleichzeitig. Bitte in einigen Sekunden erneut " +
+                                "versuchen.");
+                        return;
+                    }
+                    exception.printStackTrace();
+                    errorLabel.setText("Login failed. Please check your credentials.");
+                });
+    }
+
+    /**
+     * This method is called on the JavaFX application thread when the authentication has finished.
+     *
+     * @param caregiver The authenticated caregiver, or null if the authentication failed.
+     */
+    private void showLoginResult(Caregiver caregiver) {
+        loginRunning = false;
         // Check if the authentication was successful
-        try {
-            caregiver = caregiverService.authenticate(username, password);
-        } catch (Exception e) {
-            e.printStackTrace();
-            errorLabel.setText("Login failed. Please check your credentials.");
-        }
         if (caregiver != null) {
             // Set the logged in caregiver in the session
             Session.getInstance().setLoggedInCaregiver(caregiver);
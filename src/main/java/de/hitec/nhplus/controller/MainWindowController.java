@@ -1,6 +1,5 @@
 package de.hitec.nhplus.controller;
 
-import de.hitec.nhplus.Main;
 import de.hitec.nhplus.service.Session;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -11,39 +10,45 @@ import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.util.List;
 
 public class MainWindowController {
 
     @FXML
     private BorderPane mainBorderPane;
 
+    // The views are loaded once per main window and shown again from here
+    private final ViewRegistry views = new ViewRegistry();
+
+    /**
+     * Loads the views in the background after the login, so that the first switch to a view is as fast as the later
+     * ones. This can be switched off with the system property <code>nhplus.ui.preloadViews=false</code>.
+     */
+    public void initialize() {
+        if (Boolean.parseBoolean(System.getProperty("nhplus.ui.preloadViews", "true"))) {
+            this.views.preload(List.of(ViewRegistry.View.values()));
+        }
+    }
+
     @FXML
     private void handleShowAllPatient(ActionEvent event) {
-        FXMLLoader loader = new FXMLLoader(Main.class.getResource("/de/hitec/nhplus/AllPatientView.fxml"));
-        try {
-            mainBorderPane.setCenter(loader.load());
-        } catch (IOException exception) {
-            exception.printStackTrace();
-        }
+        show(ViewRegistry.View.PATIENTS);
     }
 
     @FXML
     private void handleShowAllTreatments(ActionEvent event) {
-        FXMLLoader loader = new FXMLLoader(Main.class.getResource("/de/hitec/nhplus/AllTreatmentView.fxml"));
-        try {
-            mainBorderPane.setCenter(loader.load());
-        } catch (IOException exception) {
-            exception.printStackTrace();
-        }
+        show(ViewRegistry.View.TREATMENTS);
     }
 
     @FXML
     private void handleShowAllCaregiver(ActionEvent event) {
-        FXMLLoader loader = new FXMLLoader(Main.class.getResource("/de/hitec/nhplus/AllCaregiverView.fxml"));
-        try {
-            mainBorderPane.setCenter(loader.load());
-        } catch (IOException exception) {
-            exception.printStackTrace();
+        show(ViewRegistry.View.CAREGIVERS);
+    }
+
+    private void show(ViewRegistry.View view) {
+        Parent node = this.views.show(view);
+        if (node != null) {
+            mainBorderPane.setCenter(node);
         }
     }
 
@@ -2,6 +2,8 @@ package de.hitec.nhplus.controller;
 
 import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.datastorage.CaregiverDao;
+import de.hitec.nhplus.datastorage.ChangeSet;
+import de.hitec.nhplus.service.DbTaskExecutor;
 import de.hitec.nhplus.service.Session;
 import de.hitec.nhplus.utils.AuditLog;
 import javafx.beans.value.ChangeListener;
@@ -10,6 +12,8 @@ import javafx.scene.control.*;
 import javafx.stage.Stage;
 import de.hitec.nhplus.model.Caregiver;
 import de.hitec.nhplus.utils.DateConverter;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.SQLiteException;
 
 import java.sql.SQLException;
 import java.time.LocalDate;
@@ -91,25 +95,60 @@ public class NewCaregiverController {
         boolean isAdmin = checkBoxIsAdmin.isSelected();
         boolean isLocked = false;
         String lockedDate = null;
-        Caregiver caregiver = new Caregiver(username, firstName, surname, dateOfBirth, telephoneNumber, password, isAdmin, isLocked, lockedDate);
-        createCaregiver(caregiver);
-        controller.readAllAndShowInTableView();
-        stage.close();
+        // The constructor hashes the password, so the caregiver is created on the DbTaskExecutor as well.
+        // The stage stays open until the caregiver is stored, so a taken username can still be changed.
+        DbTaskExecutor.getInstance().submit(() -> createCaregiver(new Caregiver(username, firstName, surname, dateOfBirth,
+                telephoneNumber, password, isAdmin, isLocked, lockedDate)), changes -> {
+            controller.applyChanges(changes);
+            stage.close();
+        }, this::createFailed);
+    }
+
+    /**
+     * This method handles a failed creation of a caregiver. It is called on the application thread.
+     *
+     * @param exception The cause of the failure.
+     */
+    private void createFailed(Throwable exception) {
+        if (isUniqueViolation(exception)) {
+            usernameTaken();
+            return;
+        }
+        exception.printStackTrace();
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("The caregiver could not be created");
+        alert.setContentText(exception.getMessage());
+        alert.showAndWait();
+    }
+
+    /**
+     * This method checks if an exception was caused by a violated unique constraint, e.g. the unique username.
+     *
+     * @param exception The exception to check.
+     * @return True if the exception or one of its causes is a violated unique constraint, false otherwise.
+     */
+    private static boolean isUniqueViolation(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLiteException sqliteException
+                    && sqliteException.getResultCode() == SQLiteErrorCode.SQLITE_CONSTRAINT_UNIQUE) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * This method creates a new caregiver in the database.
+     * This method creates a new caregiver in the database. It is called on the DbTaskExecutor.
      *
      * @param caregiver The caregiver to be created.
+     * @return The changes of the table of all caregivers.
      */
-    private void createCaregiver(Caregiver caregiver) {
+    private ChangeSet<Caregiver> createCaregiver(Caregiver caregiver) throws SQLException {
         CaregiverDao dao = DaoFactory.getDaoFactory().createCaregiverDAO();
-        try {
-            dao.create(caregiver);
-            AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Caregiver created: " + caregiver.getUsername());
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
+        ChangeSet<Caregiver> changes = dao.create(caregiver);
+        AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Caregiver created: " + caregiver.getUsername());
+        return changes;
     }
 
     /**
@@ -150,6 +189,17 @@ public class NewCaregiverController {
         alert.showAndWait();
     }
 
+    /**
+     * This method shows an error alert if the username of the new caregiver is already taken.
+     */
+    private void usernameTaken() {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Invalid Input");
+        alert.setHeaderText("Username already taken");
+        alert.setContentText("Please choose a different username.");
+        alert.showAndWait();
+    }
+
     /**
      * This method shows an error alert if the telephone number of the new caregiver is invalid.
      */
@@ -1,7 +1,9 @@
 package de.hitec.nhplus.controller;
 
+import de.hitec.nhplus.datastorage.ChangeSet;
 import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.datastorage.TreatmentDao;
+import de.hitec.nhplus.service.DbTaskExecutor;
 import de.hitec.nhplus.service.Session;
 import de.hitec.nhplus.utils.AuditLog;
 import javafx.beans.value.ChangeListener;
@@ -13,7 +15,6 @@ import de.hitec.nhplus.model.Treatment;
 import de.hitec.nhplus.utils.DateConverter;
 import javafx.util.StringConverter;
 
-import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalTime;
 
@@ -48,23 +49,11 @@ public class NewTreatmentController {
     private Stage stage;
 
     /**
-     * Initializes the NewTreatmentController with the given AllTreatmentController, Stage, and Patient.
-     * It sets up the necessary listeners for the input fields and disables the 'Add' button until valid input is provided.
-     * It also sets up a converter for the DatePicker to handle LocalDate objects.
-     *
-     * @param controller The AllTreatmentController that this NewTreatmentController is associated with.
-     * @param stage The Stage that this NewTreatmentController is displayed on.
-     * @param patient The Patient that this NewTreatmentController is creating a treatment for.
+     * Sets up the listeners for the input fields, which keep the 'Add' button disabled until valid input is
+     * provided, and a converter for the DatePicker to handle LocalDate objects. This is called once by the FXMLLoader;
+     * the dialog is then reused for every new treatment.
      */
-    public void initialize(AllTreatmentController controller, Stage stage, Patient patient) {
-        // Set the controller, stage, and patient
-        this.controller= controller;
-        this.patient = patient;
-        this.stage = stage;
-
-        // Initially disable the 'Add' button
-        this.buttonAdd.setDisable(true);
-
+    public void initialize() {
         // Create a listener for the input fields
         ChangeListener<String> inputNewPatientListener = (observableValue, oldText, newText) ->
                 // Disable the 'Add' button if the input data is invalid
@@ -93,9 +82,34 @@ public class NewTreatmentController {
                 return DateConverter.convertStringToLocalDate(localDate);
             }
         });
+    }
+
+    /**
+     * Binds the NewTreatmentController to the given AllTreatmentController, Stage, and Patient. The input of the
+     * previous treatment is cleared and the 'Add' button is disabled until valid input is provided.
+     *
+     * @param controller The AllTreatmentController that this NewTreatmentController is associated with.
+     * @param stage The Stage that this NewTreatmentController is displayed on.
+     * @param patient The Patient that this NewTreatmentController is creating a treatment for.
+     */
+    public void initialize(AllTreatmentController controller, Stage stage, Patient patient) {
+        // Set the controller, stage, and patient
+        this.controller= controller;
+        this.patient = patient;
+        this.stage = stage;
 
         // Display the patient's data
         this.showPatientData();
+
+        // Clear the input of the previous treatment
+        this.textFieldBegin.clear();
+        this.textFieldEnd.clear();
+        this.textFieldDescription.clear();
+        this.textAreaRemarks.clear();
+        this.datePicker.setValue(null);
+
+        // Initially disable the 'Add' button
+        this.buttonAdd.setDisable(true);
     }
 
     private void showPatientData(){
@@ -114,18 +128,17 @@ public class NewTreatmentController {
         String lockedDate = null;
         Treatment treatment = new Treatment(patient.getPid(), date, begin, end, description, remarks, locked, lockedDate);
         createTreatment(treatment);
-        controller.readAllAndShowInTableView();
         stage.close();
     }
 
     private void createTreatment(Treatment treatment) {
         TreatmentDao dao = DaoFactory.getDaoFactory().createTreatmentDao();
-        try {
-            dao.create(treatment);
-            AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Treatment created: " + treatment.getTid());
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
+        DbTaskExecutor.getInstance().submit(() -> {
+            ChangeSet<Treatment> changes = dao.create(treatment);
+            AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(),
+                    "Treatment created: " + changes.getInserted().get(0).getTid());
+            return changes;
+        }, controller::applyChanges);
     }
 
     @FXML
@@ -0,0 +1,287 @@
+package de.hitec.nhplus.controller;
+
+import de.hitec.nhplus.datastorage.ChangeSet;
+import de.hitec.nhplus.service.DbTaskExecutor;
+import javafx.collections.ObservableListBase;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * The <code>PagedList</code> is a read-only <code>ObservableList</code> for a <code>TableView</code> that loads its rows
+ * page by page. Up front the list only knows the number of rows. A page is fetched on the {@link DbTaskExecutor} the
+ * first time one of its rows is requested, which a <code>TableView</code> only does for the visible rows. Until the page
+ * has arrived, its rows are represented by a placeholder. At most <code>maxPages</code> pages are kept; when more are
+ * loaded, the least recently used page is dropped and fetched again when it becomes visible.
+ * The rows are ordered by their key. A {@link ChangeSet} of a write is applied to the loaded pages with
+ * {@link #apply(ChangeSet, Predicate)}, so that only the changed rows are rendered again.
+ * All methods have to be called on the JavaFX application thread.
+ */
+public class PagedList<T> extends ObservableListBase<T> {
+
+    /**
+     * Loads the rows of a <code>PagedList</code> from the database. Both methods are called on a database thread.
+     */
+    public interface PageLoader<T> {
+
+        /**
+         * @return Number of rows of the list.
+         */
+        int count() throws SQLException;
+
+        /**
+         * Loads one page of rows.
+         *
+         * @param previous Last row of the previous page if it is still loaded, otherwise <code>null</code>. Allows to
+         *                 seek to the page by its key instead of skipping <code>offset</code> rows.
+         * @param offset Index of the first row of the page.
+         * @param limit Maximum number of rows of the page.
+         * @return Rows of the page.
+         */
+        List<T> load(T previous, int offset, int limit) throws SQLException;
+    }
+
+    private final T placeholder;
+    private final ToLongFunction<T> keyOf;
+    private final int pageSize;
+    private final Map<Integer, List<T>> pages;
+    private final Set<Integer> loading = new HashSet<>();
+
+    private PageLoader<T> loader;
+    private int size;
+    private int generation;
+
+    /**
+     * Creates an empty list. Rows are only loaded after a loader was set with {@link #setLoader(PageLoader)}.
+     *
+     * @param placeholder Row returned for rows that are not loaded yet.
+     * @param keyOf Returns the key of a row, by which the rows are ordered.
+     * @param pageSize Number of rows fetched at once.
+     * @param maxPages Maximum number of pages kept in memory.
+     */
+    public PagedList(T placeholder, ToLongFunction<T> keyOf, int pageSize, int maxPages) {
+        this.placeholder = placeholder;
+        this.keyOf = keyOf;
+        this.pageSize = pageSize;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Replaces the loader and reloads the list from it.
+     *
+     * @param loader Loader for the rows of the list.
+     */
+    public void setLoader(PageLoader<T> loader) {
+        this.loader = loader;
+        refresh();
+    }
+
+    /**
+     * Drops all loaded pages and counts the rows again. The visible rows are fetched again as soon as the new number
+     * of rows is known. Pages that are still loading for the previous state are discarded when they arrive.
+     */
+    public void refresh() {
+        int requested = ++this.generation;
+        this.pages.clear();
+        this.loading.clear();
+        PageLoader<T> loader = this.loader;
+        if (loader == null) {
+            resize(0);
+            return;
+        }
+        DbTaskExecutor.getInstance().submit(loader::count, count -> {
+            if (requested == this.generation) {
+                resize(count);
+            }
+        });
+    }
+
+    /**
+     * Applies the changes of a write to the loaded pages, without loading them again. Updated rows replace the loaded
+     * rows with the same key. Removed rows are taken out of their page and the following loaded pages move up by one
+     * row; the row that is missing at the end of the last of them is fetched again when it becomes visible. Inserted
+     * rows have the greatest key, so they are appended. Only if a removed row is not loaded, its position is unknown and
+     * the list is refreshed.
+     *
+     * @param changes Changes of a write.
+     * @param belongs Tells if a row belongs to this list, e.g. to the treatments of the selected patient.
+     */
+    public void apply(ChangeSet<T> changes, Predicate<T> belongs) {
+        if (changes.isEmpty() || this.loader == null) {
+            return;
+        }
+        // Pages that are still loading were requested for the old positions of the rows
+        this.generation++;
+        this.loading.clear();
+        for (T row : changes.getUpdated()) {
+            int index = indexOf(this.keyOf.applyAsLong(row));
+            if (index < 0) {
+                continue;
+            }
+            if (belongs.test(row)) {
+                replaceLoaded(index, row);
+            } else {
+                removeLoaded(index);
+            }
+        }
+        for (long key : changes.getRemoved()) {
+            int index = indexOf(key);
+            if (index < 0) {
+                refresh();
+                return;
+            }
+            removeLoaded(index);
+        }
+        for (T row : changes.getInserted()) {
+            if (belongs.test(row)) {
+                appendRow(row);
+            }
+        }
+    }
+
+    /**
+     * @param row Row of this list.
+     * @return <code>true</code> if the row is the placeholder of a row that is not loaded yet.
+     */
+    public boolean isPlaceholder(T row) {
+        return row == this.placeholder;
+    }
+
+    @Override
+    public T get(int index) {
+        Objects.checkIndex(index, this.size);
+        int page = index / this.pageSize;
+        List<T> rows = this.pages.get(page);
+        int offset = index % this.pageSize;
+        if (rows != null && offset < rows.size()) {
+            return rows.get(offset);
+        }
+        request(page);
+        return this.placeholder;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    private void request(int page) {
+        if (!this.loading.add(page)) {
+            return;
+        }
+        List<T> previousRows = this.pages.get(page - 1);
+        T previous = previousRows == null || previousRows.isEmpty() ? null : previousRows.get(previousRows.size() - 1);
+        int requested = this.generation;
+        PageLoader<T> loader = this.loader;
+        DbTaskExecutor.getInstance().submit(() -> loader.load(previous, page * this.pageSize, this.pageSize),
+                rows -> pageLoaded(requested, page, rows),
+                exception -> {
+                    exception.printStackTrace();
+                    if (requested == this.generation) {
+                        this.loading.remove(page);
+                    }
+                });
+    }
+
+    private void pageLoaded(int requested, int page, List<T> rows) {
+        if (requested != this.generation) {
+            return;
+        }
+        this.loading.remove(page);
+        int from = page * this.pageSize;
+        int to = Math.min(from + this.pageSize, this.size);
+        if (rows.size() < to - from) {
+            // Rows were deleted since the list was counted, so the pages no longer line up.
+            refresh();
+            return;
+        }
+        // The pages are changed in place by apply
+        this.pages.put(page, new ArrayList<>(rows));
+        if (from < to) {
+            beginChange();
+            for (int index = from; index < to; index++) {
+                nextSet(index, this.placeholder);
+            }
+            endChange();
+        }
+    }
+
+    /**
+     * @return Index of the loaded row with the key, or -1 if no such row is loaded.
+     */
+    private int indexOf(long key) {
+        for (Map.Entry<Integer, List<T>> page : this.pages.entrySet()) {
+            List<T> rows = page.getValue();
+            for (int offset = 0; offset < rows.size(); offset++) {
+                if (this.keyOf.applyAsLong(rows.get(offset)) == key) {
+                    return page.getKey() * this.pageSize + offset;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void replaceLoaded(int index, T row) {
+        List<T> rows = this.pages.get(index / this.pageSize);
+        T old = rows.set(index % this.pageSize, row);
+        beginChange();
+        nextSet(index, old);
+        endChange();
+    }
+
+    private void removeLoaded(int index) {
+        int page = index / this.pageSize;
+        T removed = this.pages.get(page).remove(index % this.pageSize);
+        // The first row of every following loaded page moves to the end of the page before it
+        while (this.pages.containsKey(page + 1) && !this.pages.get(page + 1).isEmpty()) {
+            this.pages.get(page).add(this.pages.get(page + 1).remove(0));
+            page++;
+        }
+        // Pages after a gap start one row too late now
+        int lastShifted = page;
+        this.pages.keySet().removeIf(loaded -> loaded > lastShifted);
+        this.size--;
+        beginChange();
+        nextRemove(index, removed);
+        endChange();
+    }
+
+    private void appendRow(T row) {
+        int index = this.size;
+        List<T> rows = this.pages.get(index / this.pageSize);
+        if (rows != null && rows.size() == index % this.pageSize) {
+            rows.add(row);
+        }
+        this.size++;
+        beginChange();
+        nextAdd(index, index + 1);
+        endChange();
+    }
+
+    private void resize(int size) {
+        int oldSize = this.size;
+        this.size = size;
+        beginChange();
+        if (oldSize > 0) {
+            nextRemove(0, Collections.nCopies(oldSize, this.placeholder));
+        }
+        if (size > 0) {
+            nextAdd(0, size);
+        }
+        endChange();
+    }
+}
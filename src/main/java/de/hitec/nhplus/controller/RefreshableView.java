@@ -0,0 +1,14 @@
+package de.hitec.nhplus.controller;
+
+/**
+ * A <code>RefreshableView</code> is the controller of a view that the {@link ViewRegistry} loads once and shows again
+ * and again. Instead of reading all its data when it is shown again, the view only reads what changed in between.
+ */
+public interface RefreshableView {
+
+    /**
+     * Called on the JavaFX application thread when the view is shown again. Reads the changes since the view read its
+     * data in the background and applies them.
+     */
+    void refresh();
+}
@@ -1,8 +1,10 @@
 package de.hitec.nhplus.controller;
 
+import de.hitec.nhplus.datastorage.ChangeSet;
 import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.datastorage.PatientDao;
 import de.hitec.nhplus.datastorage.TreatmentDao;
+import de.hitec.nhplus.service.DbTaskExecutor;
 import de.hitec.nhplus.service.Session;
 import de.hitec.nhplus.utils.AuditLog;
 import javafx.fxml.FXML;
@@ -12,7 +14,6 @@ import de.hitec.nhplus.model.Patient;
 import de.hitec.nhplus.model.Treatment;
 import de.hitec.nhplus.utils.DateConverter;
 
-import java.sql.SQLException;
 import java.time.LocalDate;
 
 public class TreatmentController {
@@ -43,22 +44,43 @@ public class TreatmentController {
     private Patient patient;
     private Treatment treatment;
 
-    public void initializeController(AllTreatmentController controller, Stage stage, Treatment treatment) {
+    /**
+     * Binds the dialog to a treatment. The dialog is reused for every treatment, so all fields are set again.
+     *
+     * @param controller The view of all treatments, which shows the changes.
+     * @param stage The stage of the dialog.
+     * @param treatment The treatment to edit.
+     * @param patient The patient of the treatment if the caller knows it, otherwise <code>null</code>; then it is read
+     *                in the background.
+     */
+    public void initializeController(AllTreatmentController controller, Stage stage, Treatment treatment, Patient patient) {
         this.stage = stage;
         this.controller= controller;
-        PatientDao pDao = DaoFactory.getDaoFactory().createPatientDAO();
-        try {
-            this.patient = pDao.read((int) treatment.getPid());
-            this.treatment = treatment;
-            showData();
-        } catch (SQLException exception) {
-            exception.printStackTrace();
+        this.treatment = treatment;
+        showTreatment();
+        if (patient != null) {
+            this.patient = patient;
+            showPatient();
+            return;
         }
+        this.labelPatientName.setText("");
+        this.labelCareLevel.setText("");
+        PatientDao pDao = DaoFactory.getDaoFactory().createPatientDAO();
+        DbTaskExecutor.getInstance().submit(() -> pDao.read(treatment.getPid()), readPatient -> {
+            // The dialog may have been bound to another treatment in the meantime
+            if (this.treatment == treatment && readPatient != null) {
+                this.patient = readPatient;
+                showPatient();
+            }
+        });
     }
 
-    private void showData(){
+    private void showPatient(){
         this.labelPatientName.setText(patient.getSurname()+", "+patient.getFirstName());
         this.labelCareLevel.setText(patient.getCareLevel());
+    }
+
+    private void showTreatment(){
         LocalDate date = DateConverter.convertStringToLocalDate(treatment.getDate());
         this.datePicker.setValue(date);
         this.textFieldBegin.setText(this.treatment.getBegin());
@@ -75,18 +97,17 @@ public class TreatmentController {
         this.treatment.setDescription(textFieldDescription.getText());
         this.treatment.setRemarks(textAreaRemarks.getText());
         doUpdate();
-        controller.readAllAndShowInTableView();
         stage.close();
     }
 
     private void doUpdate(){
         TreatmentDao dao = DaoFactory.getDaoFactory().createTreatmentDao();
-        try {
-            dao.update(treatment);
+        Treatment treatment = this.treatment;
+        DbTaskExecutor.getInstance().submit(() -> {
+            ChangeSet<Treatment> changes = dao.update(treatment);
             AuditLog.writeLog(Session.getInstance().getLoggedInCaregiver(), "Treatment updated: " + treatment.getTid());
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
+            return changes;
+        }, controller::applyChanges);
     }
 
     @FXML
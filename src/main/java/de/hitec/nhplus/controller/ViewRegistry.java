@@ -0,0 +1,94 @@
+package de.hitec.nhplus.controller;
+
+import de.hitec.nhplus.Main;
+import javafx.application.Platform;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>ViewRegistry</code> loads each view of the main window once and keeps its node and controller. Showing a
+ * view again reuses both and lets a {@link RefreshableView} controller apply the changes since it was shown last,
+ * so switching between the views neither parses the FXML nor reads all data again.
+ * The registry belongs to one main window; a new login gets a new main window and with it new views.
+ */
+class ViewRegistry {
+
+    /**
+     * The views of the main window.
+     */
+    enum View {
+        PATIENTS("/de/hitec/nhplus/AllPatientView.fxml"),
+        TREATMENTS("/de/hitec/nhplus/AllTreatmentView.fxml"),
+        CAREGIVERS("/de/hitec/nhplus/AllCaregiverView.fxml");
+
+        private final String fxml;
+
+        View(String fxml) {
+            this.fxml = fxml;
+        }
+    }
+
+    private record LoadedView(Parent node, Object controller) {
+    }
+
+    private final Map<View, LoadedView> views = new EnumMap<>(View.class);
+
+    /**
+     * Returns the node of a view, loading it on the first call. A view that was loaded before is refreshed.
+     *
+     * @param view The view to show.
+     * @return The node of the view, or <code>null</code> if its FXML could not be loaded.
+     */
+    Parent show(View view) {
+        LoadedView loaded = this.views.get(view);
+        if (loaded == null) {
+            loaded = load(view);
+            return loaded == null ? null : loaded.node();
+        }
+        if (loaded.controller() instanceof RefreshableView refreshable) {
+            refreshable.refresh();
+        }
+        return loaded.node();
+    }
+
+    /**
+     * Loads the given views that are not loaded yet, one after another in later runs of the JavaFX application thread,
+     * so that the window stays responsive in between. The views read their data in the background as usual.
+     *
+     * @param views The views to load.
+     */
+    void preload(List<View> views) {
+        Deque<View> pending = new ArrayDeque<>(views);
+        Platform.runLater(() -> preloadNext(pending));
+    }
+
+    private void preloadNext(Deque<View> pending) {
+        View view = pending.poll();
+        if (view == null) {
+            return;
+        }
+        if (!this.views.containsKey(view)) {
+            load(view);
+        }
+        Platform.runLater(() -> preloadNext(pending));
+    }
+
+    private LoadedView load(View view) {
+        FXMLLoader loader = new FXMLLoader(Main.class.getResource(view.fxml));
+        try {
+            LoadedView loaded = new LoadedView(loader.load(), loader.getController());
+            this.views.put(view, loaded);
+            return loaded;
+        } catch (IOException exception) {
+            exception.printStackTrace();
+            return null;
+        }
+    }
+}
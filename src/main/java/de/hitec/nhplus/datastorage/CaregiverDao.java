@@ -22,20 +22,30 @@ public class CaregiverDao extends DaoImp<Caregiver>{
         super(connection);
     }
 
+    /**
+     * This constructor creates a new CaregiverDao that leases its connections from the given pool.
+     *
+     * @param pool The connection pool.
+     */
+    public CaregiverDao(ConnectionPool pool) {
+        super(pool);
+    }
+
     /**
      * This method returns a PreparedStatement for creating a new caregiver in the database.
      *
+     * @param connection The database connection to prepare the statement on.
      * @param caregiver The caregiver to be created.
      * @return The PreparedStatement for creating the caregiver.
      */
     @Override
-    protected PreparedStatement getCreateStatement(Caregiver caregiver) {
+    protected PreparedStatement getCreateStatement(Connection connection, Caregiver caregiver) {
         // SQL statement for creating a new caregiver
-        final String SQL = "INSERT INTO caregiver (username, firstname, surname, dateOfBirth, telephoneNumber, password_hash, isAdmin) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        final String SQL = "INSERT INTO caregiver (username, firstname, surname, dateOfBirth, telephoneNumber, password_hash, isAdmin, " +
+                "row_version, modified_at) VALUES (?, ?, ?, ?, ?, ?, ?, " + SchemaUpgrade.TRACKED_INSERT_VALUES + ")";
         PreparedStatement preparedStatement = null;
         try {
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setString(1, caregiver.getUsername());
             preparedStatement.setString(2, caregiver.getFirstName());
             preparedStatement.setString(3, caregiver.getSurname());
@@ -52,22 +62,23 @@ public class CaregiverDao extends DaoImp<Caregiver>{
     /**
      * This method returns a PreparedStatement for reading a caregiver from the database by their ID.
      *
+     * @param connection The database connection to prepare the statement on.
      * @param key The ID of the caregiver.
      * @return The PreparedStatement for reading the caregiver.
      */
     @Override
-    protected PreparedStatement getReadByIDStatement(long key) {
+    protected PreparedStatement getReadByIDStatement(Connection connection, long key) {
         PreparedStatement preparedStatement = null;
         try {
             // SQL statement for reading a caregiver by their ID
             final String SQL = "SELECT * FROM caregiver WHERE pid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, key);
         } catch (SQLException exception) {
             exception.printStackTrace();
         }
 
-        return null;
+        return preparedStatement;
     }
 
     /**
@@ -91,18 +102,49 @@ public class CaregiverDao extends DaoImp<Caregiver>{
         );
     }
 
+    /**
+     * @return The name of the caregiver table.
+     */
+    @Override
+    protected String getTableName() {
+        return "caregiver";
+    }
+
+    /**
+     * @return The name of the ID column of the caregiver table.
+     */
+    @Override
+    protected String getKeyColumn() {
+        return "pid";
+    }
+
+    /**
+     * This method returns a copy of a created caregiver with its generated ID.
+     *
+     * @param caregiver The created caregiver.
+     * @param pid The generated ID of the caregiver.
+     * @return The Caregiver object as it is stored.
+     */
+    @Override
+    protected Caregiver withKey(Caregiver caregiver, long pid) {
+        return new Caregiver(pid, caregiver.getUsername(), caregiver.getFirstName(), caregiver.getSurname(),
+                DateConverter.convertStringToLocalDate(caregiver.getDateOfBirth()), caregiver.getTelephoneNumber(),
+                caregiver.getPassword_hash(), caregiver.isAdmin());
+    }
+
     /**
      * This method returns a PreparedStatement for reading all caregivers from the database who are not locked.
      *
+     * @param connection The database connection to prepare the statement on.
      * @return The PreparedStatement for reading all caregivers.
      */
     @Override
-    protected PreparedStatement getReadAllStatement() {
+    protected PreparedStatement getReadAllStatement(Connection connection) {
         PreparedStatement preparedStatement = null;
         try {
             // SQL statement for reading all caregivers who are not locked
             final String SQL = "SELECT * FROM caregiver WHERE locked is not true";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
         } catch (SQLException exception) {
             exception.printStackTrace();
         }
@@ -125,14 +167,51 @@ public class CaregiverDao extends DaoImp<Caregiver>{
         return caregivers;
     }
 
+    /**
+     * This method returns a PreparedStatement for reading the next page of caregivers who are not locked, ordered by
+     * their ID.
+     *
+     * @param connection The database connection to prepare the statement on.
+     * @param afterPid The ID of the last caregiver of the previous page.
+     * @param limit The maximum number of caregivers of the page.
+     * @return The PreparedStatement for reading the page.
+     */
+    @Override
+    protected PreparedStatement getReadPageStatement(Connection connection, long afterPid, int limit) {
+        PreparedStatement preparedStatement = null;
+        try {
+            final String SQL = "SELECT * FROM caregiver WHERE locked is not true AND pid > ? ORDER BY pid LIMIT ?";
+            preparedStatement = prepareStatement(connection, SQL);
+            preparedStatement.setLong(1, afterPid);
+            preparedStatement.setInt(2, limit);
+        } catch (SQLException exception) {
+            exception.printStackTrace();
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * This method returns a new PreparedStatement for streaming all caregivers who are not locked, ordered by their ID.
+     * The statement is not cached, it is closed together with the stream.
+     *
+     * @param connection The database connection to prepare the statement on.
+     * @return The PreparedStatement for reading all caregivers.
+     * @throws SQLException If a database access error occurs.
+     */
+    @Override
+    protected PreparedStatement getReadAllCursorStatement(Connection connection) throws SQLException {
+        return connection.prepareStatement("SELECT * FROM caregiver WHERE locked is not true ORDER BY pid");
+    }
+
     /**
      * This method returns a PreparedStatement for updating a caregiver in the database.
      *
+     * @param connection The database connection to prepare the statement on.
      * @param caregiver The caregiver to be updated.
      * @return The PreparedStatement for updating the caregiver.
      */
     @Override
-    protected PreparedStatement getUpdateStatement(Caregiver caregiver) {
+    protected PreparedStatement getUpdateStatement(Connection connection, Caregiver caregiver) {
         // SQL statement for updating a caregiver
         final String SQL = "UPDATE caregiver SET " +
                 "username = ?, " +
@@ -145,7 +224,7 @@ public class CaregiverDao extends DaoImp<Caregiver>{
                 "WHERE pid = ?";
         PreparedStatement preparedStatement = null;
         try {
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setString(1, caregiver.getUsername());
             preparedStatement.setString(2, caregiver.getFirstName());
             preparedStatement.setString(3, caregiver.getSurname());
@@ -163,16 +242,17 @@ public class CaregiverDao extends DaoImp<Caregiver>{
     /**
      * This method returns a PreparedStatement for deleting a caregiver from the database by their ID.
      *
+     * @param connection The database connection to prepare the statement on.
      * @param key The ID of the caregiver.
      * @return The PreparedStatement for deleting the caregiver.
      */
     @Override
-    protected PreparedStatement getDeleteStatement(long key) {
+    protected PreparedStatement getDeleteStatement(Connection connection, long key) {
         PreparedStatement preparedStatement = null;
         try {
             // SQL statement for deleting a caregiver by their ID
             final String SQL = "DELETE FROM caregiver WHERE pid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, key);
         } catch (SQLException exception) {
             exception.printStackTrace();
@@ -185,29 +265,78 @@ public class CaregiverDao extends DaoImp<Caregiver>{
      * The caregiver is locked for 10 years from the current date.
      *
      * @param pid The ID of the caregiver.
+     * @return Change set with the locked caregiver as removed.
      * @throws SQLException If a database access error occurs.
      */
-    public void lockCaregiver(long pid) throws SQLException {
-        LocalDate localDate = LocalDate.now().plusYears(10);
-        String sql = "UPDATE caregiver SET locked = 1, lockedDate = ? WHERE pid = ?";
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
-            pstmt.setDate(1, Date.valueOf(localDate));
-            pstmt.setLong(2, pid);
-            pstmt.executeUpdate();
-        }
+    public ChangeSet<Caregiver> lockCaregiver(long pid) throws SQLException {
+        return measure("lockCaregiver", () -> {
+            LocalDate localDate = LocalDate.now().plusYears(10);
+            String sql = "UPDATE caregiver SET locked = 1, lockedDate = ? WHERE pid = ?";
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                PreparedStatement pstmt = prepareStatement(lease.getConnection(), sql);
+                pstmt.setString(1, DateConverter.convertLocalDateToString(localDate));
+                pstmt.setLong(2, pid);
+                pstmt.executeUpdate();
+            }
+            return ChangeSet.removed(pid);
+        }, changes -> 1);
+    }
+
+    /**
+     * This method reads the caregiver with the given username who is not locked, e.g. to check their password at the
+     * login. The lookup uses the unique index on <code>username</code> and the cached statement of the connection.
+     *
+     * @param username The username of the caregiver.
+     * @return The caregiver, or <code>null</code> if there is no unlocked caregiver with this username.
+     * @throws SQLException If a database access error occurs.
+     */
+    public Caregiver readByUsername(String username) throws SQLException {
+        return measure("readByUsername", () -> {
+            String sql = "SELECT * FROM caregiver WHERE username = ? AND locked is not true LIMIT 1";
+            try (ConnectionLease lease = leaseReadConnection()) {
+                PreparedStatement pstmt = prepareStatement(lease.getConnection(), sql);
+                pstmt.setString(1, username);
+                try (ResultSet result = pstmt.executeQuery()) {
+                    return result.next() ? getInstanceFromResultSet(result) : null;
+                }
+            }
+        }, DaoImp::rowsOf);
+    }
+
+    /**
+     * This method replaces the password hash of a caregiver, e.g. with a hash of a newer version after a login.
+     *
+     * @param pid The ID of the caregiver.
+     * @param passwordHash The new password hash.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void updatePasswordHash(long pid, String passwordHash) throws SQLException {
+        String sql = "UPDATE caregiver SET password_hash = ? WHERE pid = ?";
+        measure("updatePasswordHash", () -> {
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                PreparedStatement pstmt = prepareStatement(lease.getConnection(), sql);
+                pstmt.setString(1, passwordHash);
+                pstmt.setLong(2, pid);
+                return pstmt.executeUpdate();
+            }
+        }, Integer::intValue);
     }
 
     /**
      * This method deletes all expired locks on caregivers in the database.
      * A lock is considered expired if its lockedDate is before the current date.
      *
+     * @return The number of deleted caregivers.
      * @throws SQLException If a database access error occurs.
      */
-    public void deleteExpiredCaregiverLocks() throws SQLException {
-        String sql = "DELETE FROM caregiver WHERE locked = 1 AND lockedDate < ?";
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
-            pstmt.setDate(1, Date.valueOf(LocalDate.now()));
-            pstmt.executeUpdate();
-        }
+    public int deleteExpiredCaregiverLocks() throws SQLException {
+        return measure("deleteExpiredCaregiverLocks", () -> {
+            String sql = "DELETE FROM caregiver WHERE locked = 1 AND lockedDate < ?";
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                PreparedStatement pstmt = prepareStatement(lease.getConnection(), sql);
+                pstmt.setString(1, DateConverter.convertLocalDateToString(LocalDate.now()));
+                return pstmt.executeUpdate();
+            }
+        }, Integer::intValue);
     }
 }
@@ -0,0 +1,150 @@
+package de.hitec.nhplus.datastorage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * A <code>ChangeSet</code> describes which rows a write of a DAO changed: the inserted and updated objects as they are
+ * stored now, and the keys of the removed objects. Locked objects count as removed, because they are no longer shown.
+ * A view that shows a list of the objects applies the change set to its list with {@link #applyTo(List, ToLongFunction)}
+ * instead of reading all objects again. Change sets are immutable.
+ */
+public final class ChangeSet<T> {
+
+    private static final ChangeSet<?> EMPTY = new ChangeSet<>(List.of(), List.of(), List.of());
+
+    private final List<T> inserted;
+    private final List<T> updated;
+    private final List<Long> removed;
+
+    private ChangeSet(List<T> inserted, List<T> updated, List<Long> removed) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.removed = removed;
+    }
+
+    /**
+     * @return A change set without changes.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ChangeSet<T> empty() {
+        return (ChangeSet<T>) EMPTY;
+    }
+
+    /**
+     * @param t The inserted object, with its generated key.
+     * @return A change set with the inserted object.
+     */
+    public static <T> ChangeSet<T> inserted(T t) {
+        return new ChangeSet<>(List.of(t), List.of(), List.of());
+    }
+
+    /**
+     * @param t The updated object.
+     * @return A change set with the updated object.
+     */
+    public static <T> ChangeSet<T> updated(T t) {
+        return new ChangeSet<>(List.of(), List.of(t), List.of());
+    }
+
+    /**
+     * @param key Key of the deleted or locked object.
+     * @return A change set with the removed key.
+     */
+    public static <T> ChangeSet<T> removed(long key) {
+        return new ChangeSet<>(List.of(), List.of(), List.of(key));
+    }
+
+    /**
+     * @param keys Keys of the deleted or locked objects.
+     * @return A change set with the removed keys.
+     */
+    public static <T> ChangeSet<T> removed(Collection<Long> keys) {
+        return new ChangeSet<>(List.of(), List.of(), List.copyOf(keys));
+    }
+
+    /**
+     * Combines two change sets, e.g. of consecutive writes.
+     *
+     * @param other The later change set.
+     * @return A change set with the changes of both.
+     */
+    public ChangeSet<T> and(ChangeSet<T> other) {
+        if (isEmpty()) {
+            return other;
+        }
+        if (other.isEmpty()) {
+            return this;
+        }
+        return new ChangeSet<>(concat(this.inserted, other.inserted), concat(this.updated, other.updated),
+                concat(this.removed, other.removed));
+    }
+
+    public List<T> getInserted() {
+        return this.inserted;
+    }
+
+    public List<T> getUpdated() {
+        return this.updated;
+    }
+
+    public List<Long> getRemoved() {
+        return this.removed;
+    }
+
+    public boolean isEmpty() {
+        return this.inserted.isEmpty() && this.updated.isEmpty() && this.removed.isEmpty();
+    }
+
+    /**
+     * Applies the changes to a list of objects ordered by their key, so that an <code>ObservableList</code> only fires
+     * the changes of the affected rows. Updated objects replace the objects with the same key, removed keys are removed
+     * and inserted objects are appended, because generated keys are greater than all existing ones. An updated object is
+     * set even if it is the object in the list, so that a row without properties is rendered again. Updated objects
+     * that are not in the list are ignored; the list may be filtered.
+     *
+     * @param rows List to change.
+     * @param keyOf Returns the key of an object.
+     */
+    public void applyTo(List<T> rows, ToLongFunction<T> keyOf) {
+        if (isEmpty()) {
+            return;
+        }
+        if (!this.updated.isEmpty()) {
+            Map<Long, T> updatedByKey = new HashMap<>();
+            for (T t : this.updated) {
+                updatedByKey.put(keyOf.applyAsLong(t), t);
+            }
+            for (int index = 0; index < rows.size() && !updatedByKey.isEmpty(); index++) {
+                T t = updatedByKey.remove(keyOf.applyAsLong(rows.get(index)));
+                if (t != null) {
+                    rows.set(index, t);
+                }
+            }
+        }
+        if (!this.removed.isEmpty()) {
+            Set<Long> removedKeys = new HashSet<>(this.removed);
+            rows.removeIf(t -> removedKeys.contains(keyOf.applyAsLong(t)));
+        }
+        rows.addAll(this.inserted);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeSet[inserted=" + this.inserted.size() + ", updated=" + this.updated.size() + ", removed="
+                + this.removed.size() + "]";
+    }
+
+    private static <E> List<E> concat(List<E> first, List<E> second) {
+        List<E> all = new ArrayList<>(first.size() + second.size());
+        all.addAll(first);
+        all.addAll(second);
+        return List.copyOf(all);
+    }
+}
@@ -0,0 +1,137 @@
+package de.hitec.nhplus.datastorage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * The <code>ChangesSince</code> are the rows of a table that changed after a given version, as read by
+ * {@link Dao#readChangedSince(long)}: the unlocked rows that were inserted or updated (upserts) and the keys of the rows
+ * that were locked or deleted (tombstones). {@link #getVersion()} is the version of the database the changes were read
+ * at; it is passed to the next call of <code>readChangedSince</code>, so that a client only reads what changed in
+ * between.
+ */
+public final class ChangesSince<T> {
+
+    private final long version;
+    private final List<T> upserts;
+    private final List<Long> removed;
+
+    ChangesSince(long version, List<T> upserts, List<Long> removed) {
+        this.version = version;
+        this.upserts = List.copyOf(upserts);
+        this.removed = List.copyOf(removed);
+    }
+
+    /**
+     * @return Version of the database that contains these changes, for the next call of <code>readChangedSince</code>.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return The inserted or updated unlocked rows, ordered by their version.
+     */
+    public List<T> getUpserts() {
+        return this.upserts;
+    }
+
+    /**
+     * @return The keys of the locked or deleted rows.
+     */
+    public List<Long> getRemoved() {
+        return this.removed;
+    }
+
+    public boolean isEmpty() {
+        return this.upserts.isEmpty() && this.removed.isEmpty();
+    }
+
+    /**
+     * Applies the changes to a list of rows ordered by their key. An upsert replaces the row with the same key or is
+     * inserted at the position of its key; removed keys are removed. An <code>ObservableList</code> only fires the
+     * changes of the affected rows.
+     *
+     * @param rows List to change.
+     * @param keyOf Returns the key of a row.
+     */
+    public void applyTo(List<T> rows, ToLongFunction<T> keyOf) {
+        if (!this.removed.isEmpty()) {
+            Set<Long> removedKeys = new HashSet<>(this.removed);
+            rows.removeIf(t -> removedKeys.contains(keyOf.applyAsLong(t)));
+        }
+        for (T t : this.upserts) {
+            long key = keyOf.applyAsLong(t);
+            int index = indexOf(rows, keyOf, key);
+            if (index >= 0) {
+                rows.set(index, t);
+            } else {
+                rows.add(-index - 1, t);
+            }
+        }
+    }
+
+    /**
+     * Applies the changes to a list of rows in any order, e.g. the rows of a table the user sorted by a column. An
+     * upsert replaces the row with the same key or is appended; removed keys are removed.
+     *
+     * @param rows List to change.
+     * @param keyOf Returns the key of a row.
+     */
+    public void applyToUnordered(List<T> rows, ToLongFunction<T> keyOf) {
+        if (!this.removed.isEmpty()) {
+            Set<Long> removedKeys = new HashSet<>(this.removed);
+            rows.removeIf(t -> removedKeys.contains(keyOf.applyAsLong(t)));
+        }
+        if (this.upserts.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> indexes = new HashMap<>();
+        for (int index = 0; index < rows.size(); index++) {
+            indexes.put(keyOf.applyAsLong(rows.get(index)), index);
+        }
+        List<T> appended = new ArrayList<>();
+        for (T t : this.upserts) {
+            Integer index = indexes.get(keyOf.applyAsLong(t));
+            if (index != null) {
+                rows.set(index, t);
+            } else {
+                appended.add(t);
+            }
+        }
+        rows.addAll(appended);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangesSince[version=" + this.version + ", upserts=" + this.upserts.size() + ", removed="
+                + this.removed.size() + "]";
+    }
+
+    /**
+     * Binary search by key.
+     *
+     * @return Index of the row with the key, or <code>-(insertion point) - 1</code>.
+     */
+    private static <T> int indexOf(List<T> rows, ToLongFunction<T> keyOf, long key) {
+        int low = 0;
+        int high = rows.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = keyOf.applyAsLong(rows.get(middle));
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -1,40 +1,111 @@
 package de.hitec.nhplus.datastorage;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
-import org.sqlite.SQLiteConfig;
-
+/**
+ * The <code>ConnectionBuilder</code> owns the {@link ConnectionPool} of the nursing home database. The size of the pool
+ * and the lease timeout can be changed with {@link #configurePool(int, long)} or the system properties
+ * <code>nhplus.db.readConnections</code> and <code>nhplus.db.leaseTimeoutMillis</code>. The database is
+ * <code>db/nursingHome.db</code> unless another JDBC url is set with {@link #configureDatabase(String)} or the system
+ * property <code>nhplus.db.url</code>, e.g. for a benchmark database. The statements are traced by the
+ * {@link QueryTracer} if this is switched on with {@link #configureTracing(boolean)} or the system property
+ * <code>nhplus.db.trace</code>.
+ */
 public class ConnectionBuilder {
 
     private static final String DB_NAME = "nursingHome.db";
-    private static final String URL = "jdbc:sqlite:db/" + DB_NAME;
+    private static final String DEFAULT_URL = "jdbc:sqlite:db/" + DB_NAME;
+
+    private static final int DEFAULT_READ_CONNECTIONS = 4;
+    private static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 10_000;
+
+    private static String url = System.getProperty("nhplus.db.url", DEFAULT_URL);
+    private static int readConnections = Integer.getInteger("nhplus.db.readConnections", DEFAULT_READ_CONNECTIONS);
+    private static long leaseTimeoutMillis = Long.getLong("nhplus.db.leaseTimeoutMillis", DEFAULT_LEASE_TIMEOUT_MILLIS);
+
+    private static boolean traced = Boolean.getBoolean("nhplus.db.trace");
+
+    private static ConnectionPool pool;
+
+    /**
+     * Changes the size and the lease timeout of the pool. An already open pool is closed, the next access opens a
+     * new one with the given settings.
+     *
+     * @param readConnections Maximum number of read-only connections.
+     * @param leaseTimeoutMillis Maximum time in milliseconds to wait for a free connection.
+     */
+    synchronized public static void configurePool(int readConnections, long leaseTimeoutMillis) {
+        ConnectionBuilder.readConnections = readConnections;
+        ConnectionBuilder.leaseTimeoutMillis = leaseTimeoutMillis;
+        closeConnection();
+    }
+
+    /**
+     * Changes the database. An already open pool is closed, the next access opens a new one for the given database.
+     * The {@link PatientCache} is cleared.
+     *
+     * @param url JDBC url of the database, e.g. <code>jdbc:sqlite:/tmp/nursingHome.db</code>.
+     */
+    synchronized public static void configureDatabase(String url) {
+        ConnectionBuilder.url = url;
+        closeConnection();
+        // The cached patients belong to the previous database
+        PatientCache.getInstance().clear();
+    }
+
+    /**
+     * Switches the tracing of the statements on or off. An already open pool is closed, the next access opens a new
+     * one with or without tracing.
+     *
+     * @param traced <code>true</code> to log slow statements and count the statements per action.
+     */
+    synchronized public static void configureTracing(boolean traced) {
+        ConnectionBuilder.traced = traced;
+        closeConnection();
+    }
 
-    private static Connection connection;
+    synchronized public static boolean isTraced() {
+        return traced;
+    }
+
+    synchronized public static ConnectionPool getPool() {
+        if (ConnectionBuilder.pool == null) {
+            ConnectionBuilder.pool = new ConnectionPool(url, readConnections, leaseTimeoutMillis, traced);
+        }
+        return ConnectionBuilder.pool;
+    }
 
+    /**
+     * Returns the writer connection of the pool without leasing it, so nothing keeps other threads from using it at the
+     * same time, and closing the pool does not wait for it.
+     *
+     * @return The writer connection, or <code>null</code> if the database could not be opened.
+     * @deprecated Use {@link #leaseWriteConnection()}, or {@link #leaseReadConnection()} for reads.
+     */
+    @Deprecated
     synchronized public static Connection getConnection() {
         try {
-            if (ConnectionBuilder.connection == null) {
-                SQLiteConfig configuration = new SQLiteConfig();
-                configuration.enforceForeignKeys(true);
-                ConnectionBuilder.connection = DriverManager.getConnection(URL, configuration.toProperties());
-            }
+            return getPool().getWriteConnection();
         } catch (SQLException exception) {
             System.out.println("Verbindung zur Datenbank konnte nicht aufgebaut werden!");
             exception.printStackTrace();
         }
-        return ConnectionBuilder.connection;
+        return null;
+    }
+
+    public static ConnectionLease leaseReadConnection() throws SQLException {
+        return getPool().leaseReader();
+    }
+
+    public static ConnectionLease leaseWriteConnection() throws SQLException {
+        return getPool().leaseWriter();
     }
 
     synchronized public static void closeConnection() {
-        try {
-            if (ConnectionBuilder.connection != null) {
-                ConnectionBuilder.connection.close();
-                ConnectionBuilder.connection = null;
-            }
-        } catch (SQLException exception) {
-            exception.printStackTrace();
+        if (ConnectionBuilder.pool != null) {
+            ConnectionBuilder.pool.close();
+            ConnectionBuilder.pool = null;
         }
     }
 }
@@ -0,0 +1,45 @@
+package de.hitec.nhplus.datastorage;
+
+import java.sql.Connection;
+
+/**
+ * A <code>ConnectionLease</code> grants the exclusive use of a <code>Connection</code> handed out by a
+ * {@link ConnectionPool}. Closing the lease returns the connection to its pool; the connection itself stays open.
+ * Leases are meant to be used in a try-with-resources statement.
+ */
+public final class ConnectionLease implements AutoCloseable {
+
+    private final Connection connection;
+    private final Runnable release;
+    private boolean released;
+
+    ConnectionLease(Connection connection, Runnable release) {
+        this.connection = connection;
+        this.release = release;
+    }
+
+    /**
+     * Creates a lease on a connection that is not managed by a pool. Closing this lease does nothing.
+     *
+     * @param connection Connection to lease.
+     * @return Lease on the given connection.
+     */
+    static ConnectionLease unpooled(Connection connection) {
+        return new ConnectionLease(connection, () -> { });
+    }
+
+    public Connection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Returns the connection to its pool. Calling this method more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (!this.released) {
+            this.released = true;
+            this.release.run();
+        }
+    }
+}
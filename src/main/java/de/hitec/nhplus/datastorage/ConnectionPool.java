@@ -0,0 +1,263 @@
+package de.hitec.nhplus.datastorage;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The <code>ConnectionPool</code> manages the connections to one SQLite database. The database is opened in WAL
+ * journal mode, so that readers do not block the writer and the writer does not block readers.
+ * The pool keeps up to a fixed number of read-only connections and exactly one writer connection. Connections are
+ * handed out as {@link ConnectionLease}s; a caller waits at most the configured lease timeout for a free connection.
+ * Every pooled connection has its own {@link StatementCache}. A traced pool wraps its connections with the
+ * {@link QueryTracer}.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final int readConnections;
+    private final long leaseTimeoutMillis;
+    private final boolean traced;
+
+    private final Semaphore readPermits;
+    private final ConcurrentLinkedDeque<Connection> idleReaders = new ConcurrentLinkedDeque<>();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Connection writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool for the database at the given JDBC url. No connection is opened before the first lease.
+     *
+     * @param url JDBC url of the SQLite database.
+     * @param readConnections Maximum number of read-only connections, at least 1.
+     * @param leaseTimeoutMillis Maximum time in milliseconds to wait for a free connection.
+     */
+    public ConnectionPool(String url, int readConnections, long leaseTimeoutMillis) {
+        this(url, readConnections, leaseTimeoutMillis, false);
+    }
+
+    /**
+     * Creates a pool for the database at the given JDBC url. No connection is opened before the first lease.
+     *
+     * @param url JDBC url of the SQLite database.
+     * @param readConnections Maximum number of read-only connections, at least 1.
+     * @param leaseTimeoutMillis Maximum time in milliseconds to wait for a free connection.
+     * @param traced <code>true</code> if the statements of the connections are traced by the {@link QueryTracer}.
+     */
+    public ConnectionPool(String url, int readConnections, long leaseTimeoutMillis, boolean traced) {
+        if (readConnections < 1) {
+            throw new IllegalArgumentException("At least one read connection is required");
+        }
+        this.url = url;
+        this.readConnections = readConnections;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.traced = traced;
+        this.readPermits = new Semaphore(readConnections, true);
+    }
+
+    /**
+     * Returns the writer connection without leasing it. Single autocommit statements may be executed on it directly;
+     * everything that needs exclusive use of the connection, e.g. a transaction, has to use {@link #leaseWriter()}.
+     *
+     * @return The writer connection of this pool.
+     * @throws SQLException if the connection could not be opened.
+     */
+    public synchronized Connection getWriteConnection() throws SQLException {
+        checkOpen();
+        if (this.writer == null) {
+            SQLiteConfig configuration = createConfiguration();
+            configuration.setJournalMode(SQLiteConfig.JournalMode.WAL);
+            configuration.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+            this.writer = open(configuration);
+        }
+        return this.writer;
+    }
+
+    /**
+     * Leases the writer connection. The lease is reentrant, so a thread holding the writer may lease it again.
+     *
+     * @return Lease on the writer connection.
+     * @throws SQLTimeoutException if the writer was not released within the lease timeout.
+     * @throws SQLException if the connection could not be opened.
+     */
+    public ConnectionLease leaseWriter() throws SQLException {
+        if (this.writeLock.isHeldByCurrentThread()) {
+            // A nested lease, e.g. inside a transaction, keeps the writer even while the pool waits to close it
+            if (this.writer == null) {
+                throw new SQLException("Connection pool is closed");
+            }
+            this.writeLock.lock();
+            return new ConnectionLease(this.writer, this.writeLock::unlock);
+        }
+        Connection connection = getWriteConnection();
+        try {
+            if (!this.writeLock.tryLock(this.leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + this.leaseTimeoutMillis + " ms waiting for the writer connection");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer connection", exception);
+        }
+        if (this.closed) {
+            // The pool was closed while this thread waited, together with the writer
+            this.writeLock.unlock();
+            throw new SQLException("Connection pool is closed");
+        }
+        return new ConnectionLease(connection, this.writeLock::unlock);
+    }
+
+    /**
+     * Leases a read-only connection. A thread that currently holds the writer gets the writer instead, so that it
+     * sees its own uncommitted changes.
+     *
+     * @return Lease on a read connection.
+     * @throws SQLTimeoutException if no read connection became free within the lease timeout.
+     * @throws SQLException if a connection could not be opened.
+     */
+    public ConnectionLease leaseReader() throws SQLException {
+        if (this.writeLock.isHeldByCurrentThread()) {
+            return ConnectionLease.unpooled(this.writer);
+        }
+        // The writer switches the database to WAL mode, which has to happen before any reader opens it.
+        getWriteConnection();
+        try {
+            if (!this.readPermits.tryAcquire(this.leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + this.leaseTimeoutMillis + " ms waiting for a read connection");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", exception);
+        }
+        try {
+            Connection connection = this.idleReaders.pollFirst();
+            if (connection == null) {
+                connection = openReader();
+            }
+            Connection leased = connection;
+            return new ConnectionLease(leased, () -> release(leased));
+        } catch (SQLException | RuntimeException exception) {
+            this.readPermits.release();
+            throw exception;
+        }
+    }
+
+    /**
+     * Returns the statement cache of a connection of this pool.
+     *
+     * @param connection Connection leased from this pool.
+     * @return The statement cache of the connection.
+     */
+    public StatementCache getStatementCache(Connection connection) {
+        return this.statementCaches.computeIfAbsent(connection,
+                key -> new StatementCache(key, StatementCache.DEFAULT_CAPACITY));
+    }
+
+    public int getReadConnections() {
+        return this.readConnections;
+    }
+
+    public long getLeaseTimeoutMillis() {
+        return this.leaseTimeoutMillis;
+    }
+
+    public boolean isTraced() {
+        return this.traced;
+    }
+
+    /**
+     * Closes all idle connections and the writer. Read connections that are still leased are closed when they are
+     * returned. If the writer is leased, e.g. by a transaction of a scheduled task, the pool waits up to the lease
+     * timeout for it to be released before the writer is closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.closed = true;
+            Connection connection;
+            while ((connection = this.idleReaders.pollFirst()) != null) {
+                closeQuietly(connection);
+            }
+        }
+        // Not waited for inside the monitor, the lessee of the writer may still need it
+        boolean locked = false;
+        try {
+            locked = this.writeLock.tryLock(this.leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        if (!locked) {
+            System.out.println("Die Schreibverbindung wird geschlossen, obwohl sie noch verwendet wird.");
+        }
+        try {
+            synchronized (this) {
+                if (this.writer != null) {
+                    closeQuietly(this.writer);
+                    this.writer = null;
+                }
+            }
+        } finally {
+            if (locked) {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
+    private Connection openReader() throws SQLException {
+        SQLiteConfig configuration = createConfiguration();
+        configuration.setReadOnly(true);
+        return open(configuration);
+    }
+
+    private Connection open(SQLiteConfig configuration) throws SQLException {
+        Connection connection = DriverManager.getConnection(this.url, configuration.toProperties());
+        return this.traced ? QueryTracer.wrap(connection) : connection;
+    }
+
+    private void release(Connection connection) {
+        synchronized (this) {
+            if (this.closed) {
+                closeQuietly(connection);
+            } else {
+                this.idleReaders.offerFirst(connection);
+            }
+        }
+        this.readPermits.release();
+    }
+
+    private void closeQuietly(Connection connection) {
+        StatementCache statementCache = this.statementCaches.remove(connection);
+        if (statementCache != null) {
+            statementCache.close();
+        }
+        try {
+            connection.close();
+        } catch (SQLException exception) {
+            exception.printStackTrace();
+        }
+    }
+
+    private SQLiteConfig createConfiguration() {
+        SQLiteConfig configuration = new SQLiteConfig();
+        configuration.enforceForeignKeys(true);
+        configuration.setBusyTimeout((int) Math.min(Integer.MAX_VALUE, this.leaseTimeoutMillis));
+        return configuration;
+    }
+
+    private void checkOpen() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+}
@@ -1,16 +1,100 @@
 package de.hitec.nhplus.datastorage;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface Dao<T> {
-    void create(T t) throws SQLException;
+    /**
+     * Persists the object.
+     *
+     * @param t Object to persist.
+     * @return Change set with the inserted object and its generated key.
+     */
+    ChangeSet<T> create(T t) throws SQLException;
 
     T read(long key) throws SQLException;
 
     List<T> readAll() throws SQLException;
 
-    void update(T t) throws SQLException;
+    /**
+     * Counts the objects that {@link #readAll()} returns without reading them.
+     *
+     * @return Number of objects.
+     */
+    int countAll() throws SQLException;
 
-    void deleteById(long key) throws SQLException;
+    /**
+     * Reads the next page of objects ordered by their key (keyset pagination).
+     *
+     * @param afterKey Key of the last object of the previous page, 0 for the first page.
+     * @param limit Maximum number of objects of the page.
+     * @return Objects with a key greater than <code>afterKey</code>.
+     */
+    List<T> readPage(long afterKey, int limit) throws SQLException;
+
+    /**
+     * Streams all objects ordered by their key. The rows are mapped lazily while the stream is consumed, so the
+     * stream holds a database connection and has to be closed, e.g. with try-with-resources.
+     *
+     * @return Stream of all objects.
+     */
+    Stream<T> streamAll() throws SQLException;
+
+    /**
+     * Reads the rows that changed after the given version. All reads see the same state of the database.
+     *
+     * @param version Version of the previous call, 0 to read all rows.
+     * @return The unlocked rows that were inserted or updated, the keys of the rows that were locked or deleted and
+     * the current version.
+     */
+    ChangesSince<T> readChangedSince(long version) throws SQLException;
+
+    /**
+     * Reads the version of the latest change of the table, e.g. to tell whether it changed since a view read it.
+     *
+     * @return The greatest version of the rows and the tombstones of the table, 0 if it never changed.
+     */
+    long readVersion() throws SQLException;
+
+    /**
+     * Updates the object.
+     *
+     * @param t Object to update.
+     * @return Change set with the updated object.
+     */
+    ChangeSet<T> update(T t) throws SQLException;
+
+    /**
+     * Deletes the object with the given key.
+     *
+     * @param key Key of the object to delete.
+     * @return Change set with the removed key.
+     */
+    ChangeSet<T> deleteById(long key) throws SQLException;
+
+    /**
+     * Persists all given objects in one transaction.
+     *
+     * @param objects Objects to persist.
+     * @return Generated keys, in the iteration order of <code>objects</code>.
+     */
+    long[] createAll(Collection<T> objects) throws SQLException;
+
+    /**
+     * Updates all given objects in one transaction.
+     *
+     * @param objects Objects to update.
+     * @return Number of updated rows.
+     */
+    int updateAll(Collection<T> objects) throws SQLException;
+
+    /**
+     * Deletes all objects with the given keys in one transaction.
+     *
+     * @param keys Keys of the objects to delete.
+     * @return Number of deleted rows.
+     */
+    int deleteAllById(long[] keys) throws SQLException;
 }
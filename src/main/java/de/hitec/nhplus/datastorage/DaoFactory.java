@@ -15,14 +15,14 @@ public class DaoFactory {
     }
 
     public TreatmentDao createTreatmentDao() {
-        return new TreatmentDao(ConnectionBuilder.getConnection());
+        return new TreatmentDao(ConnectionBuilder.getPool());
     }
 
     public PatientDao createPatientDAO() {
-        return new PatientDao(ConnectionBuilder.getConnection());
+        return new PatientDao(ConnectionBuilder.getPool());
     }
 
     public CaregiverDao createCaregiverDAO() {
-        return new CaregiverDao(ConnectionBuilder.getConnection());
+        return new CaregiverDao(ConnectionBuilder.getPool());
     }
 }
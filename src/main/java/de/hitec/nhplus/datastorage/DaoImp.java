@@ -2,56 +2,566 @@ package de.hitec.nhplus.datastorage;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Base class of all DAOs. A DAO either works on a single <code>Connection</code> or on a {@link ConnectionPool}. With
+ * a pool, reads run on leased read connections and writes on the leased writer, so reads do not wait for writes.
+ * Statements are prepared through {@link #prepareStatement(Connection, String)}, which reuses them per connection.
+ * After every successful write, the DAO calls {@link #created(Object, long)}, {@link #updated(Object)} or
+ * {@link #deleted(long)}, so that subclasses can keep derived state, like a cache, up to date. The single-row writes
+ * return a {@link ChangeSet}, which a view applies to its list instead of reading all objects again.
+ * Every operation is measured with {@link #measure(String, SqlWork, ToIntFunction)} into the {@link DaoMetrics}.
+ */
 public abstract class DaoImp<T> implements Dao<T> {
-    protected Connection connection;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final Connection connection;
+    private final ConnectionPool pool;
+    private final StatementCache statementCache;
+    private int batchSize = DEFAULT_BATCH_SIZE;
 
     public DaoImp(Connection connection) {
         this.connection = connection;
+        this.pool = null;
+        this.statementCache = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+    }
+
+    public DaoImp(ConnectionPool pool) {
+        this.connection = null;
+        this.pool = pool;
+        this.statementCache = null;
     }
 
     @Override
-    public void create(T t) throws SQLException {
-        getCreateStatement(t).executeUpdate();
+    public ChangeSet<T> create(T t) throws SQLException {
+        long key = measure("create", () -> {
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                getCreateStatement(lease.getConnection(), t).executeUpdate();
+                return lastInsertKey(lease.getConnection());
+            }
+        }, created -> 1);
+        created(t, key);
+        return ChangeSet.inserted(withKey(t, key));
     }
 
     @Override
     public T read(long key) throws SQLException {
-        T object = null;
-        ResultSet result = getReadByIDStatement(key).executeQuery();
-        if (result.next()) {
-            object = getInstanceFromResultSet(result);
-        }
-        return object;
+        return measure("read", () -> {
+            try (ConnectionLease lease = leaseReadConnection();
+                 ResultSet result = getReadByIDStatement(lease.getConnection(), key).executeQuery()) {
+                return result.next() ? getInstanceFromResultSet(result) : null;
+            }
+        }, DaoImp::rowsOf);
     }
 
     @Override
     public List<T> readAll() throws SQLException {
-        return getListFromResultSet(getReadAllStatement().executeQuery());
+        return measure("readAll", () -> {
+            try (ConnectionLease lease = leaseReadConnection();
+                 ResultSet result = getReadAllStatement(lease.getConnection()).executeQuery()) {
+                return getListFromResultSet(result);
+            }
+        }, List::size);
+    }
+
+    /**
+     * Counts the unlocked rows by the partial index of the table, which only holds them.
+     */
+    @Override
+    public int countAll() throws SQLException {
+        return measure("countAll", () -> {
+            final String SQL = "SELECT COUNT(*) FROM " + getTableName() + " WHERE locked is not true";
+            try (ConnectionLease lease = leaseReadConnection()) {
+                PreparedStatement statement = prepareStatement(lease.getConnection(), SQL);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getInt(1) : 0;
+                }
+            }
+        }, count -> 1);
+    }
+
+    @Override
+    public List<T> readPage(long afterKey, int limit) throws SQLException {
+        return measure("readPage", () -> {
+            try (ConnectionLease lease = leaseReadConnection();
+                 ResultSet result = getReadPageStatement(lease.getConnection(), afterKey, limit).executeQuery()) {
+                return getListFromResultSet(result);
+            }
+        }, List::size);
+    }
+
+    /**
+     * Only opening the stream is measured, the rows are read while the caller consumes it.
+     */
+    @Override
+    public Stream<T> streamAll() throws SQLException {
+        return measure("streamAll", () -> openStream(this::getReadAllCursorStatement), stream -> 0);
+    }
+
+    /**
+     * Reads the changed rows by the <code>row_version</code> index of the table and the tombstones in
+     * <code>deleted_row</code>, which are maintained by the triggers of {@link SchemaUpgrade}. The queries run in one
+     * read transaction, so they see one snapshot of the database together with its version.
+     */
+    @Override
+    public ChangesSince<T> readChangedSince(long version) throws SQLException {
+        return measure("readChangedSince", () -> readChangedSinceNow(version),
+                changes -> changes.getUpserts().size() + changes.getRemoved().size());
+    }
+
+    /**
+     * Reads the greatest versions by the <code>row_version</code> indexes, without reading any rows.
+     */
+    @Override
+    public long readVersion() throws SQLException {
+        return measure("readVersion", () -> {
+            final String SQL = "SELECT max(coalesce((SELECT max(row_version) FROM " + getTableName() + "), 0), " +
+                    "coalesce((SELECT max(row_version) FROM deleted_row WHERE table_name = ?), 0))";
+            try (ConnectionLease lease = leaseReadConnection()) {
+                PreparedStatement statement = prepareStatement(lease.getConnection(), SQL);
+                statement.setString(1, getTableName());
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getLong(1) : 0;
+                }
+            }
+        }, version -> 1);
+    }
+
+    private ChangesSince<T> readChangedSinceNow(long version) throws SQLException {
+        try (ConnectionLease lease = leaseReadConnection()) {
+            Connection connection = lease.getConnection();
+            return inTransaction(connection, () -> {
+                long current;
+                try (ResultSet result = prepareStatement(connection, "SELECT version FROM sync_version")
+                        .executeQuery()) {
+                    current = result.next() ? result.getLong(1) : 0;
+                }
+                List<T> upserts = new ArrayList<>();
+                List<Long> removed = new ArrayList<>();
+                PreparedStatement changed = prepareStatement(connection, "SELECT * FROM " + getTableName() +
+                        " WHERE row_version > ? ORDER BY row_version");
+                changed.setLong(1, version);
+                try (ResultSet result = changed.executeQuery()) {
+                    while (result.next()) {
+                        if (result.getBoolean("locked")) {
+                            removed.add(result.getLong(getKeyColumn()));
+                        } else {
+                            upserts.add(getInstanceFromResultSet(result));
+                        }
+                    }
+                }
+                PreparedStatement deleted = prepareStatement(connection,
+                        "SELECT id FROM deleted_row WHERE table_name = ? AND row_version > ?");
+                deleted.setString(1, getTableName());
+                deleted.setLong(2, version);
+                try (ResultSet result = deleted.executeQuery()) {
+                    while (result.next()) {
+                        removed.add(result.getLong(1));
+                    }
+                }
+                return new ChangesSince<>(current, upserts, removed);
+            });
+        }
+    }
+
+    @Override
+    public ChangeSet<T> update(T t) throws SQLException {
+        measure("update", () -> {
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                return getUpdateStatement(lease.getConnection(), t).executeUpdate();
+            }
+        }, Integer::intValue);
+        updated(t);
+        return ChangeSet.updated(t);
+    }
+
+    @Override
+    public ChangeSet<T> deleteById(long key) throws SQLException {
+        measure("deleteById", () -> {
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                return getDeleteStatement(lease.getConnection(), key).executeUpdate();
+            }
+        }, Integer::intValue);
+        deleted(key);
+        return ChangeSet.removed(key);
     }
 
+    /**
+     * Inserts all objects with JDBC batches in a single transaction. The batch is flushed every
+     * {@link #getBatchSize()} rows. The keys are derived from <code>last_insert_rowid()</code>: while the writer is
+     * held, an <code>AUTOINCREMENT</code> table hands out consecutive keys, so every flushed chunk ends at that key.
+     */
     @Override
-    public void update(T t) throws SQLException {
-        getUpdateStatement(t).executeUpdate();
+    public long[] createAll(Collection<T> objects) throws SQLException {
+        long[] keys = new long[objects.size()];
+        measure("createAll", () -> insertAll(objects, keys), inserted -> keys.length);
+        int index = 0;
+        for (T t : objects) {
+            created(t, keys[index++]);
+        }
+        return keys;
+    }
+
+    private Void insertAll(Collection<T> objects, long[] keys) throws SQLException {
+        try (ConnectionLease lease = leaseWriteConnection()) {
+            Connection connection = lease.getConnection();
+            inTransaction(connection, () -> {
+                PreparedStatement statement = null;
+                int created = 0;
+                int pending = 0;
+                for (T t : objects) {
+                    statement = getCreateStatement(connection, t);
+                    statement.addBatch();
+                    if (++pending == this.batchSize) {
+                        statement.executeBatch();
+                        fillGeneratedKeys(connection, keys, created, pending);
+                        created += pending;
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    statement.executeBatch();
+                    fillGeneratedKeys(connection, keys, created, pending);
+                }
+                return null;
+            });
+        }
+        return null;
     }
 
     @Override
-    public void deleteById(long key) throws SQLException {
-        getDeleteStatement(key).executeUpdate();
+    public int updateAll(Collection<T> objects) throws SQLException {
+        int updatedRows = measure("updateAll", () -> updateAllNow(objects), Integer::intValue);
+        for (T t : objects) {
+            updated(t);
+        }
+        return updatedRows;
+    }
+
+    private int updateAllNow(Collection<T> objects) throws SQLException {
+        try (ConnectionLease lease = leaseWriteConnection()) {
+            Connection connection = lease.getConnection();
+            return inTransaction(connection, () -> {
+                PreparedStatement statement = null;
+                int updated = 0;
+                int pending = 0;
+                for (T t : objects) {
+                    statement = getUpdateStatement(connection, t);
+                    statement.addBatch();
+                    if (++pending == this.batchSize) {
+                        updated += sum(statement.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    updated += sum(statement.executeBatch());
+                }
+                return updated;
+            });
+        }
+    }
+
+    @Override
+    public int deleteAllById(long[] keys) throws SQLException {
+        int deletedRows = measure("deleteAllById", () -> deleteAllByIdNow(keys), Integer::intValue);
+        for (long key : keys) {
+            deleted(key);
+        }
+        return deletedRows;
+    }
+
+    private int deleteAllByIdNow(long[] keys) throws SQLException {
+        try (ConnectionLease lease = leaseWriteConnection()) {
+            Connection connection = lease.getConnection();
+            return inTransaction(connection, () -> {
+                PreparedStatement statement = null;
+                int deleted = 0;
+                int pending = 0;
+                for (long key : keys) {
+                    statement = getDeleteStatement(connection, key);
+                    statement.addBatch();
+                    if (++pending == this.batchSize) {
+                        deleted += sum(statement.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    deleted += sum(statement.executeBatch());
+                }
+                return deleted;
+            });
+        }
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Sets the number of rows that are sent to the database with one <code>executeBatch</code>.
+     *
+     * @param batchSize Number of rows per batch, at least 1.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size has to be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Runs the given work and records its duration, the number of rows it read or wrote and whether it failed in the
+     * {@link DaoMetrics} of this DAO class. Subclasses measure their own public operations with it, named like the
+     * method.
+     *
+     * @param operation Name of the operation.
+     * @param work Work to run.
+     * @param rows Returns the number of rows from the result of the work.
+     * @return Result of the work.
+     * @throws SQLException if the work failed.
+     */
+    protected <R> R measure(String operation, SqlWork<R> work, ToIntFunction<? super R> rows) throws SQLException {
+        if (!DaoMetrics.isEnabled()) {
+            return work.run();
+        }
+        DaoOperationMetrics metrics = DaoMetrics.operation(getClass(), operation);
+        long start = System.nanoTime();
+        R result;
+        try {
+            result = work.run();
+        } catch (SQLException | RuntimeException exception) {
+            metrics.recordError(System.nanoTime() - start);
+            throw exception;
+        }
+        metrics.record(System.nanoTime() - start, rows.applyAsInt(result));
+        return result;
+    }
+
+    /**
+     * @return 1 for a read object, 0 for <code>null</code>, e.g. to count the rows of {@link #read(long)}.
+     */
+    protected static int rowsOf(Object object) {
+        return object == null ? 0 : 1;
+    }
+
+    /**
+     * Runs the given work in a transaction on the given connection. The transaction is committed if the work
+     * completes and rolled back if it throws. If the connection is already inside a transaction, the work joins it.
+     *
+     * @param connection Leased writer connection.
+     * @param work Work to run.
+     * @return Result of the work.
+     * @throws SQLException if the work or the commit failed.
+     */
+    protected <R> R inTransaction(Connection connection, SqlWork<R> work) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            return work.run();
+        }
+        connection.setAutoCommit(false);
+        try {
+            R result = work.run();
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException exception) {
+            connection.rollback();
+            throw exception;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void fillGeneratedKeys(Connection connection, long[] keys, int offset, int count) throws SQLException {
+        long lastKey = lastInsertKey(connection);
+        for (int i = 0; i < count; i++) {
+            keys[offset + i] = lastKey - count + 1 + i;
+        }
+    }
+
+    private long lastInsertKey(Connection connection) throws SQLException {
+        try (ResultSet result = prepareStatement(connection, "SELECT last_insert_rowid()").executeQuery()) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    private static int sum(int[] updateCounts) {
+        int sum = 0;
+        for (int count : updateCounts) {
+            if (count > 0) {
+                sum += count;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Opens a stream over the rows of a query. The stream holds a leased read connection, the statement and the
+     * <code>ResultSet</code> until it is closed; rows are mapped with {@link #getInstanceFromResultSet(ResultSet)}
+     * one at a time. A <code>SQLException</code> while reading is rethrown as {@link UncheckedSQLException}.
+     *
+     * @param cursor Creates a new statement for the query, which is closed together with the stream.
+     * @return Lazily mapped stream of the rows.
+     * @throws SQLException if the query could not be executed.
+     */
+    protected Stream<T> openStream(CursorStatement cursor) throws SQLException {
+        ConnectionLease lease = leaseReadConnection();
+        PreparedStatement statement = null;
+        ResultSet result;
+        try {
+            statement = cursor.create(lease.getConnection());
+            result = statement.executeQuery();
+        } catch (SQLException | RuntimeException exception) {
+            if (statement != null) {
+                statement.close();
+            }
+            lease.close();
+            throw exception;
+        }
+        PreparedStatement openStatement = statement;
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!result.next()) {
+                        return false;
+                    }
+                    action.accept(getInstanceFromResultSet(result));
+                    return true;
+                } catch (SQLException exception) {
+                    throw new UncheckedSQLException(exception);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                result.close();
+                openStatement.close();
+            } catch (SQLException exception) {
+                throw new UncheckedSQLException(exception);
+            } finally {
+                lease.close();
+            }
+        });
+    }
+
+    /**
+     * Leases a connection for reading. The lease has to be closed after the <code>ResultSet</code> was consumed.
+     *
+     * @return Lease on a read connection, or on the single connection of this DAO.
+     * @throws SQLException if no connection could be leased.
+     */
+    protected ConnectionLease leaseReadConnection() throws SQLException {
+        return this.pool == null ? ConnectionLease.unpooled(this.connection) : this.pool.leaseReader();
+    }
+
+    /**
+     * Leases the connection for writing. While the lease is held, no other thread writes to the database.
+     *
+     * @return Lease on the writer, or on the single connection of this DAO.
+     * @throws SQLException if no connection could be leased.
+     */
+    protected ConnectionLease leaseWriteConnection() throws SQLException {
+        return this.pool == null ? ConnectionLease.unpooled(this.connection) : this.pool.leaseWriter();
+    }
+
+    /**
+     * Returns a prepared statement for the given SQL from the statement cache of the connection. The statement is
+     * owned by the cache and must not be closed; its <code>ResultSet</code>s have to be closed instead.
+     *
+     * @param connection Leased connection to prepare the statement on.
+     * @param sql SQL text of the statement.
+     * @return Cached prepared statement.
+     * @throws SQLException if the statement could not be prepared.
+     */
+    protected PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+        StatementCache cache = this.pool == null ? this.statementCache : this.pool.getStatementCache(connection);
+        return cache.prepare(sql);
+    }
+
+    /**
+     * Called after an object was inserted.
+     *
+     * @param t The inserted object, which does not know its key yet.
+     * @param key Generated key of the object.
+     */
+    protected void created(T t, long key) {
+    }
+
+    /**
+     * Called after an object was updated.
+     *
+     * @param t The updated object.
+     */
+    protected void updated(T t) {
+    }
+
+    /**
+     * Called after the object with the given key was deleted.
+     *
+     * @param key Key of the deleted object.
+     */
+    protected void deleted(long key) {
+    }
+
+    /**
+     * A unit of database work that may throw a <code>SQLException</code>.
+     */
+    @FunctionalInterface
+    protected interface SqlWork<R> {
+        R run() throws SQLException;
+    }
+
+    /**
+     * Creates a new, uncached statement on a connection, e.g. for {@link #openStream(CursorStatement)}.
+     */
+    @FunctionalInterface
+    protected interface CursorStatement {
+        PreparedStatement create(Connection connection) throws SQLException;
     }
 
     protected abstract T getInstanceFromResultSet(ResultSet set) throws SQLException;
 
+    /**
+     * @return Name of the table of the objects.
+     */
+    protected abstract String getTableName();
+
+    /**
+     * @return Name of the key column of the table.
+     */
+    protected abstract String getKeyColumn();
+
+    /**
+     * Returns the inserted object as it is stored, without reading it again.
+     *
+     * @param t Object that was inserted without a key.
+     * @param key Generated key of the object.
+     * @return A new object with the values of <code>t</code> and the key.
+     */
+    protected abstract T withKey(T t, long key);
+
     protected abstract ArrayList<T> getListFromResultSet(ResultSet set) throws SQLException;
 
-    protected abstract PreparedStatement getCreateStatement(T t);
+    protected abstract PreparedStatement getCreateStatement(Connection connection, T t);
+
+    protected abstract PreparedStatement getReadByIDStatement(Connection connection, long key);
+
+    protected abstract PreparedStatement getReadAllStatement(Connection connection);
 
-    protected abstract PreparedStatement getReadByIDStatement(long key);
+    protected abstract PreparedStatement getReadPageStatement(Connection connection, long afterKey, int limit);
 
-    protected abstract PreparedStatement getReadAllStatement();
+    protected abstract PreparedStatement getReadAllCursorStatement(Connection connection) throws SQLException;
 
-    protected abstract PreparedStatement getUpdateStatement(T t);
+    protected abstract PreparedStatement getUpdateStatement(Connection connection, T t);
 
-    protected abstract PreparedStatement getDeleteStatement(long key);
+    protected abstract PreparedStatement getDeleteStatement(Connection connection, long key);
 }
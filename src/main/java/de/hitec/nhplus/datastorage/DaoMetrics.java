@@ -0,0 +1,103 @@
+package de.hitec.nhplus.datastorage;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The <code>DaoMetrics</code> hold the {@link DaoOperationMetrics} of every operation of every DAO class that was
+ * called. {@link DaoImp} records its calls here; the metrics of an operation are created and published as an MXBean
+ * named <code>de.hitec.nhplus:type=DaoMetrics,dao=&lt;DAO&gt;,operation=&lt;operation&gt;</code> on its first call.
+ * The metrics are looked up by the class of the DAO and the name of the operation without allocating, because the
+ * DAOs are created anew for most calls. They are recorded unless the system property
+ * <code>nhplus.metrics.enabled</code> is <code>false</code>.
+ */
+public final class DaoMetrics {
+
+    public static final String DOMAIN = "de.hitec.nhplus";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("nhplus.metrics.enabled", "true"));
+
+    // The metrics of the operations by the class of the DAO and the name of the operation
+    private static final ClassValue<Map<String, DaoOperationMetrics>> OPERATIONS = new ClassValue<>() {
+        @Override
+        protected Map<String, DaoOperationMetrics> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static final List<DaoOperationMetrics> ALL = new ArrayList<>();
+
+    private DaoMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @param dao Class of the DAO.
+     * @param operation Name of the operation, usually the name of the method.
+     * @return The metrics of the operation, created and published on the first call.
+     */
+    public static DaoOperationMetrics operation(Class<?> dao, String operation) {
+        DaoOperationMetrics metrics = OPERATIONS.get(dao).get(operation);
+        return metrics != null ? metrics : OPERATIONS.get(dao).computeIfAbsent(operation,
+                name -> register(new DaoOperationMetrics(dao.getSimpleName(), name)));
+    }
+
+    /**
+     * @return The metrics of all operations that were called, the operation with the longest total duration first.
+     */
+    public static List<DaoOperationMetrics> getOperations() {
+        List<DaoOperationMetrics> operations;
+        synchronized (ALL) {
+            operations = new ArrayList<>(ALL);
+        }
+        operations.sort(Comparator.comparingLong((DaoOperationMetrics metrics) -> metrics.getLatency().getTotal())
+                .reversed());
+        return operations;
+    }
+
+    /**
+     * Starts the counting of all operations again.
+     */
+    public static void resetAll() {
+        for (DaoOperationMetrics metrics : getOperations()) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * @return One line per operation, the operation with the longest total duration first.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (DaoOperationMetrics metrics : getOperations()) {
+            report.append(metrics).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    private static DaoOperationMetrics register(DaoOperationMetrics metrics) {
+        synchronized (ALL) {
+            ALL.add(metrics);
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=DaoMetrics,dao=" + metrics.getDao()
+                    + ",operation=" + metrics.getOperation());
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException exception) {
+            exception.printStackTrace();
+        }
+        return metrics;
+    }
+}
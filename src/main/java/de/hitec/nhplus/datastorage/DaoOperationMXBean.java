@@ -0,0 +1,50 @@
+package de.hitec.nhplus.datastorage;
+
+/**
+ * The metrics of one operation of one DAO as they are shown over JMX, e.g. in JConsole or VisualVM under
+ * <code>de.hitec.nhplus/DaoMetrics</code>. The durations are in milliseconds and are measured from leasing the
+ * connection to mapping the last row.
+ */
+public interface DaoOperationMXBean {
+
+    String getDao();
+
+    String getOperation();
+
+    /**
+     * @return Number of calls, including the failed ones.
+     */
+    long getCount();
+
+    /**
+     * @return Number of calls that threw an exception.
+     */
+    long getErrors();
+
+    /**
+     * @return Number of rows read or written by the successful calls.
+     */
+    long getRows();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    /**
+     * @return Sum of the durations of all calls, to find the operation that costs the most time overall.
+     */
+    double getTotalMillis();
+
+    /**
+     * Starts the counting again, e.g. before a measurement.
+     */
+    void reset();
+}
@@ -0,0 +1,122 @@
+package de.hitec.nhplus.datastorage;
+
+import de.hitec.nhplus.utils.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the calls of one operation of one DAO: their durations in a {@link LatencyHistogram}, the rows they read or
+ * wrote and the calls that failed. All counters are lock-free, DAOs on any thread record into the same instance.
+ */
+public final class DaoOperationMetrics implements DaoOperationMXBean {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String dao;
+    private final String operation;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    DaoOperationMetrics(String dao, String operation) {
+        this.dao = dao;
+        this.operation = operation;
+    }
+
+    /**
+     * Counts a successful call.
+     *
+     * @param nanos Duration of the call.
+     * @param rows Number of rows the call read or wrote.
+     */
+    void record(long nanos, int rows) {
+        this.latency.record(nanos);
+        this.rows.add(rows);
+    }
+
+    /**
+     * Counts a call that threw an exception.
+     *
+     * @param nanos Duration of the call until the exception.
+     */
+    void recordError(long nanos) {
+        this.latency.record(nanos);
+        this.errors.increment();
+    }
+
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    @Override
+    public String getDao() {
+        return this.dao;
+    }
+
+    @Override
+    public String getOperation() {
+        return this.operation;
+    }
+
+    @Override
+    public long getCount() {
+        return this.latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return this.rows.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return this.latency.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return this.latency.getValueAtPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return this.latency.getValueAtPercentile(90) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return this.latency.getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return this.latency.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return this.latency.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return this.latency.getTotal() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        this.latency.reset();
+        this.rows.reset();
+        this.errors.reset();
+    }
+
+    @Override
+    public String toString() {
+        return this.dao + "." + this.operation + ": " + this.latency + " rows=" + getRows() + " errors=" + getErrors();
+    }
+}
@@ -0,0 +1,264 @@
+package de.hitec.nhplus.datastorage;
+
+import de.hitec.nhplus.model.Patient;
+import de.hitec.nhplus.utils.DateConverter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The <code>PatientCache</code> keeps the unlocked patients in memory, so that the views do not read the same patients
+ * again and again. It uses the Singleton design pattern and is kept up to date by the {@link PatientDao}: created and
+ * updated patients are put into the cache, locked and deleted patients are removed from it.
+ * The cache holds at most <code>maxEntries</code> patients, set by the system property
+ * <code>nhplus.cache.patients.maxEntries</code>; when it is full, the least recently used patient is evicted. As long
+ * as no patient was evicted since all patients were loaded, the cache is complete and answers
+ * {@link #getAll()} and {@link #findBySurname(String)} without the database. The cache also keeps the version of the
+ * patient table it was loaded or caught up to, so that the {@link PatientDao} can take over the writes of other
+ * processes before it answers from the cache.
+ * The cache stores the values of the patients, not the objects: every read returns a new <code>Patient</code>, which
+ * the caller may change without affecting the cache.
+ */
+public class PatientCache {
+    // The single instance of the PatientCache class
+    private static PatientCache instance;
+
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final int maxEntries;
+    private final LinkedHashMap<Long, Entry> entries;
+    // Patient ids by surname, for the patients in entries
+    private final Map<String, TreeSet<Long>> pidsBySurname = new HashMap<>();
+    private boolean complete;
+    // The row version of the patient table the cache reflects, 0 if unknown
+    private long version;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * The values of a patient.
+     */
+    private record Entry(long pid, String firstName, String surname, String dateOfBirth, String careLevel,
+                         String roomNumber) {
+
+        Patient toPatient() {
+            return new Patient(this.pid, this.firstName, this.surname,
+                    DateConverter.convertStringToLocalDate(this.dateOfBirth), this.careLevel, this.roomNumber);
+        }
+    }
+
+    /**
+     * @param maxEntries Maximum number of cached patients.
+     */
+    PatientCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * This method returns the single instance of the PatientCache class.
+     * If the instance does not exist, it is created.
+     *
+     * @return The single instance of the PatientCache class.
+     */
+    public static synchronized PatientCache getInstance() {
+        if (instance == null) {
+            instance = new PatientCache(Integer.getInteger("nhplus.cache.patients.maxEntries", DEFAULT_MAX_ENTRIES));
+        }
+        return instance;
+    }
+
+    /**
+     * @param pid Patient id.
+     * @return A copy of the cached patient, or <code>null</code> if the patient is not cached.
+     */
+    public synchronized Patient get(long pid) {
+        Entry entry = this.entries.get(pid);
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.toPatient();
+    }
+
+    /**
+     * @return Copies of all unlocked patients ordered by their id, or <code>null</code> if the cache is not complete.
+     */
+    public synchronized List<Patient> getAll() {
+        if (!this.complete) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        List<Entry> all = new ArrayList<>(this.entries.values());
+        all.sort((first, second) -> Long.compare(first.pid(), second.pid()));
+        List<Patient> patients = new ArrayList<>(all.size());
+        for (Entry entry : all) {
+            patients.add(entry.toPatient());
+        }
+        return patients;
+    }
+
+    /**
+     * Looks the patient up by the surname index.
+     *
+     * @param surname Surname of the patient.
+     * @return A copy of the cached patient with the lowest id of those with the surname, or <code>null</code> if no
+     * such patient is cached.
+     */
+    public synchronized Patient findBySurname(String surname) {
+        TreeSet<Long> pids = this.pidsBySurname.get(surname);
+        if (pids == null) {
+            this.misses++;
+            return null;
+        }
+        return get(pids.first());
+    }
+
+    /**
+     * @return <code>true</code> if the cache holds all unlocked patients.
+     */
+    public synchronized boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Puts the patient into the cache or replaces the cached values.
+     *
+     * @param patient Patient that is stored like this in the database.
+     */
+    public synchronized void put(Patient patient) {
+        put(patient.getPid(), patient);
+    }
+
+    /**
+     * Puts the patient into the cache or replaces the cached values, e.g. for a created patient that has no id yet.
+     *
+     * @param pid Patient id.
+     * @param patient Patient that is stored like this in the database.
+     */
+    public synchronized void put(long pid, Patient patient) {
+        Entry entry = new Entry(pid, patient.getFirstName(), patient.getSurname(), patient.getDateOfBirth(),
+                patient.getCareLevel(), patient.getRoomNumber());
+        Entry previous = this.entries.put(pid, entry);
+        if (previous != null) {
+            removeFromIndex(previous);
+        }
+        this.pidsBySurname.computeIfAbsent(entry.surname(), surname -> new TreeSet<>()).add(pid);
+        evictIfFull();
+    }
+
+    /**
+     * @return The row version of the patient table the cache reflects, 0 if it is not known.
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Notes that the changes up to the given row version were taken over into the cache.
+     *
+     * @param version Row version of the patient table.
+     */
+    public synchronized void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Replaces the content of the cache by all unlocked patients. The cache is complete afterwards if all of them fit
+     * into it.
+     *
+     * @param patients All unlocked patients.
+     * @param version Row version of the patient table read before the patients.
+     */
+    public synchronized void putAll(Collection<Patient> patients, long version) {
+        clear();
+        for (Patient patient : patients) {
+            put(patient);
+        }
+        this.complete = patients.size() <= this.maxEntries;
+        this.version = version;
+    }
+
+    /**
+     * Removes a locked or deleted patient from the cache.
+     *
+     * @param pid Patient id.
+     */
+    public synchronized void remove(long pid) {
+        Entry entry = this.entries.remove(pid);
+        if (entry != null) {
+            removeFromIndex(entry);
+        }
+    }
+
+    /**
+     * Removes all patients. The cache is loaded again by the next read of all patients.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.pidsBySurname.clear();
+        this.complete = false;
+        this.version = 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * @return Share of the reads that were answered by the cache, between 0 and 1.
+     */
+    public synchronized double getHitRate() {
+        long reads = this.hits + this.misses;
+        return reads == 0 ? 0 : (double) this.hits / reads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PatientCache[size=%d/%d, complete=%b, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d]",
+                this.entries.size(), this.maxEntries, this.complete, this.hits, this.misses, getHitRate() * 100,
+                this.evictions);
+    }
+
+    private void evictIfFull() {
+        while (this.entries.size() > this.maxEntries) {
+            Map.Entry<Long, Entry> eldest = this.entries.entrySet().iterator().next();
+            this.entries.remove(eldest.getKey());
+            removeFromIndex(eldest.getValue());
+            this.evictions++;
+            // An evicted patient is still in the database, so the cache no longer knows all patients
+            this.complete = false;
+        }
+    }
+
+    private void removeFromIndex(Entry entry) {
+        TreeSet<Long> pids = this.pidsBySurname.get(entry.surname());
+        if (pids != null) {
+            pids.remove(entry.pid());
+            if (pids.isEmpty()) {
+                this.pidsBySurname.remove(entry.surname());
+            }
+        }
+    }
+}
@@ -6,13 +6,21 @@ import de.hitec.nhplus.utils.DateConverter;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implements the Interface <code>DaoImp</code>. Overrides methods to generate specific <code>PreparedStatements</code>,
  * to execute the specific SQL Statements.
+ * A <code>PatientDao</code> on the connection pool reads through the {@link PatientCache} and keeps it up to date.
  */
 public class PatientDao extends DaoImp<Patient> {
 
+    // Serializes the reads that fill the cache or catch it up, so that an older read never overwrites a newer one
+    private static final Object CACHE_LOAD = new Object();
+
+    // The cache of the pooled database, null for a DAO on a single connection
+    private final PatientCache cache;
+
     /**
      * The constructor initiates an object of <code>PatientDao</code> and passes the connection to its super class.
      *
@@ -20,21 +28,168 @@ public class PatientDao extends DaoImp<Patient> {
      */
     public PatientDao(Connection connection) {
         super(connection);
+        this.cache = null;
+    }
+
+    /**
+     * The constructor initiates an object of <code>PatientDao</code> that leases its connections from the given pool.
+     *
+     * @param pool Object of <code>ConnectionPool</code> to lease the connections from.
+     */
+    public PatientDao(ConnectionPool pool) {
+        super(pool);
+        this.cache = PatientCache.getInstance();
+    }
+
+    /**
+     * Reads the patient from the cache, or from the database if it is not cached. Unlocked patients read from the
+     * database are put into the cache. Only the reads from the database are measured, the {@link PatientCache} counts
+     * its hits itself.
+     *
+     * @param pid Patient id.
+     * @return The patient, or <code>null</code> if there is no patient with this id.
+     */
+    @Override
+    public Patient read(long pid) throws SQLException {
+        if (this.cache == null) {
+            return super.read(pid);
+        }
+        Patient cachedPatient = this.cache.get(pid);
+        if (cachedPatient != null) {
+            return cachedPatient;
+        }
+        return measure("read", () -> {
+            try (ConnectionLease lease = leaseReadConnection();
+                 ResultSet result = getReadByIDStatement(lease.getConnection(), pid).executeQuery()) {
+                if (!result.next()) {
+                    return null;
+                }
+                Patient patient = getInstanceFromResultSet(result);
+                if (!result.getBoolean("locked")) {
+                    this.cache.put(patient);
+                }
+                return patient;
+            }
+        }, DaoImp::rowsOf);
+    }
+
+    /**
+     * Reads all unlocked patients from the cache if it holds all of them, otherwise from the database, which fills the
+     * cache. Before the cache answers, it takes over the changes since its version, e.g. the patients that another
+     * workstation added, changed or locked.
+     *
+     * @return All unlocked patients.
+     */
+    @Override
+    public List<Patient> readAll() throws SQLException {
+        if (this.cache == null) {
+            return super.readAll();
+        }
+        long version = readVersion();
+        synchronized (CACHE_LOAD) {
+            if (this.cache.isComplete()) {
+                long cachedVersion = this.cache.getVersion();
+                if (cachedVersion < version) {
+                    readChangesIntoCache(cachedVersion);
+                }
+                // The changes may have evicted a patient, then the cache is no longer complete
+                List<Patient> patients = this.cache.getAll();
+                if (patients != null) {
+                    return patients;
+                }
+            }
+            return readAllIntoCache(version);
+        }
+    }
+
+    /**
+     * Reads all unlocked patients from the database without asking the cache, e.g. when the user explicitly reloads
+     * them, and loads the cache again.
+     *
+     * @return All unlocked patients.
+     */
+    public List<Patient> reloadAll() throws SQLException {
+        if (this.cache == null) {
+            return super.readAll();
+        }
+        long version = readVersion();
+        synchronized (CACHE_LOAD) {
+            return readAllIntoCache(version);
+        }
+    }
+
+    /**
+     * Reads the changed patients and takes the changes over into the cache, so that the cache also learns about the
+     * writes of other processes that share the database.
+     */
+    @Override
+    public ChangesSince<Patient> readChangedSince(long version) throws SQLException {
+        if (this.cache == null) {
+            return super.readChangedSince(version);
+        }
+        synchronized (CACHE_LOAD) {
+            ChangesSince<Patient> changes = super.readChangedSince(version);
+            applyToCache(changes);
+            return changes;
+        }
+    }
+
+    private List<Patient> readAllIntoCache(long version) throws SQLException {
+        List<Patient> patients = super.readAll();
+        this.cache.putAll(patients, version);
+        return patients;
+    }
+
+    private void readChangesIntoCache(long version) throws SQLException {
+        ChangesSince<Patient> changes = super.readChangedSince(version);
+        applyToCache(changes);
+        this.cache.setVersion(changes.getVersion());
+    }
+
+    private void applyToCache(ChangesSince<Patient> changes) {
+        for (Patient patient : changes.getUpserts()) {
+            this.cache.put(patient);
+        }
+        for (long pid : changes.getRemoved()) {
+            this.cache.remove(pid);
+        }
+    }
+
+    @Override
+    protected void created(Patient patient, long pid) {
+        if (this.cache != null) {
+            this.cache.put(pid, patient);
+        }
+    }
+
+    @Override
+    protected void updated(Patient patient) {
+        if (this.cache != null) {
+            this.cache.put(patient);
+        }
+    }
+
+    @Override
+    protected void deleted(long pid) {
+        if (this.cache != null) {
+            this.cache.remove(pid);
+        }
     }
 
     /**
      * Generates a <code>PreparedStatement</code> to persist the given object of <code>Patient</code>.
      *
+     * @param connection Connection to prepare the statement on.
      * @param patient Object of <code>Patient</code> to persist.
      * @return <code>PreparedStatement</code> to insert the given patient.
      */
     @Override
-    protected PreparedStatement getCreateStatement(Patient patient) {
+    protected PreparedStatement getCreateStatement(Connection connection, Patient patient) {
         PreparedStatement preparedStatement = null;
         try {
-            final String SQL = "INSERT INTO patient (firstname, surname, dateOfBirth, carelevel, roomnumber) " +
-                    "VALUES (?, ?, ?, ?, ?)";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            final String SQL = "INSERT INTO patient (firstname, surname, dateOfBirth, carelevel, roomnumber, " +
+                    "row_version, modified_at) VALUES (?, ?, ?, ?, ?, " + SchemaUpgrade.TRACKED_INSERT_VALUES + ")";
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setString(1, patient.getFirstName());
             preparedStatement.setString(2, patient.getSurname());
             preparedStatement.setString(3, patient.getDateOfBirth());
@@ -49,15 +204,16 @@ public class PatientDao extends DaoImp<Patient> {
     /**
      * Generates a <code>PreparedStatement</code> to query a patient by a given patient id (pid).
      *
+     * @param connection Connection to prepare the statement on.
      * @param pid Patient id to query.
      * @return <code>PreparedStatement</code> to query the patient.
      */
     @Override
-    protected PreparedStatement getReadByIDStatement(long pid) {
+    protected PreparedStatement getReadByIDStatement(Connection connection, long pid) {
         PreparedStatement preparedStatement = null;
         try {
             final String SQL = "SELECT * FROM patient WHERE pid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, pid);
         } catch (SQLException exception) {
             exception.printStackTrace();
@@ -82,17 +238,35 @@ public class PatientDao extends DaoImp<Patient> {
                 result.getString(6));
     }
 
+    @Override
+    protected String getTableName() {
+        return "patient";
+    }
+
+    @Override
+    protected String getKeyColumn() {
+        return "pid";
+    }
+
+    @Override
+    protected Patient withKey(Patient patient, long pid) {
+        return new Patient(pid, patient.getFirstName(), patient.getSurname(),
+                DateConverter.convertStringToLocalDate(patient.getDateOfBirth()), patient.getCareLevel(),
+                patient.getRoomNumber());
+    }
+
     /**
      * Generates a <code>PreparedStatement</code> to query all patients.
      *
+     * @param connection Connection to prepare the statement on.
      * @return <code>PreparedStatement</code> to query all patients.
      */
     @Override
-    protected PreparedStatement getReadAllStatement() {
+    protected PreparedStatement getReadAllStatement(Connection connection) {
         PreparedStatement statement = null;
         try {
             final String SQL = "SELECT * FROM patient WHERE locked is not true";
-            statement = this.connection.prepareStatement(SQL);
+            statement = prepareStatement(connection, SQL);
         } catch (SQLException exception) {
             exception.printStackTrace();
         }
@@ -119,15 +293,50 @@ public class PatientDao extends DaoImp<Patient> {
         return list;
     }
 
+    /**
+     * Generates a <code>PreparedStatement</code> to query the next page of patients, ordered by the patient id (pid).
+     *
+     * @param connection Connection to prepare the statement on.
+     * @param afterPid Patient id of the last patient of the previous page.
+     * @param limit Maximum number of patients of the page.
+     * @return <code>PreparedStatement</code> to query the page.
+     */
+    @Override
+    protected PreparedStatement getReadPageStatement(Connection connection, long afterPid, int limit) {
+        PreparedStatement preparedStatement = null;
+        try {
+            final String SQL = "SELECT * FROM patient WHERE locked is not true AND pid > ? ORDER BY pid LIMIT ?";
+            preparedStatement = prepareStatement(connection, SQL);
+            preparedStatement.setLong(1, afterPid);
+            preparedStatement.setInt(2, limit);
+        } catch (SQLException exception) {
+            exception.printStackTrace();
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Generates a new <code>PreparedStatement</code> to stream all patients, ordered by the patient id (pid). The
+     * statement is not cached, it is closed together with the stream.
+     *
+     * @param connection Connection to prepare the statement on.
+     * @return <code>PreparedStatement</code> to query all patients.
+     */
+    @Override
+    protected PreparedStatement getReadAllCursorStatement(Connection connection) throws SQLException {
+        return connection.prepareStatement("SELECT * FROM patient WHERE locked is not true ORDER BY pid");
+    }
+
     /**
      * Generates a <code>PreparedStatement</code> to update the given patient, identified
      * by the id of the patient (pid).
      *
+     * @param connection Connection to prepare the statement on.
      * @param patient Patient object to update.
      * @return <code>PreparedStatement</code> to update the given patient.
      */
     @Override
-    protected PreparedStatement getUpdateStatement(Patient patient) {
+    protected PreparedStatement getUpdateStatement(Connection connection, Patient patient) {
         PreparedStatement preparedStatement = null;
         try {
             final String SQL =
@@ -138,7 +347,7 @@ public class PatientDao extends DaoImp<Patient> {
                             "carelevel = ?, " +
                             "roomnumber = ? " +
                             "WHERE pid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setString(1, patient.getFirstName());
             preparedStatement.setString(2, patient.getSurname());
             preparedStatement.setString(3, patient.getDateOfBirth());
@@ -154,15 +363,16 @@ public class PatientDao extends DaoImp<Patient> {
     /**
      * Generates a <code>PreparedStatement</code> to delete a patient with the given id.
      *
+     * @param connection Connection to prepare the statement on.
      * @param pid Id of the patient to delete.
      * @return <code>PreparedStatement</code> to delete patient with the given id.
      */
     @Override
-    protected PreparedStatement getDeleteStatement(long pid) {
+    protected PreparedStatement getDeleteStatement(Connection connection, long pid) {
         PreparedStatement preparedStatement = null;
         try {
             final String SQL = "DELETE FROM patient WHERE pid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, pid);
         } catch (SQLException exception) {
             exception.printStackTrace();
@@ -176,27 +386,34 @@ public class PatientDao extends DaoImp<Patient> {
      * It also sets the 'lockedDate' field to the current date plus 10 years, indicating the date when the lock will expire.
      *
      * @param pid The ID of the patient to be locked.
+     * @return Change set with the locked patient as removed.
      * @throws SQLException if a database error occurs.
      */
 
-    public void lockPatient(long pid) throws SQLException {
-        // Calculate the lock date as the current date plus 10 years.
-        LocalDate lockDate = LocalDate.now().plusYears(10);
+    public ChangeSet<Patient> lockPatient(long pid) throws SQLException {
+        return measure("lockPatient", () -> {
+            // Calculate the lock date as the current date plus 10 years.
+            LocalDate lockDate = LocalDate.now().plusYears(10);
 
-        // Prepare the SQL query to update the 'locked' and 'lockedDate' fields of the patient record.
-        String sql = "UPDATE patient SET locked = 1, lockedDate = ? WHERE pid = ?";
+            // Prepare the SQL query to update the 'locked' and 'lockedDate' fields of the patient record.
+            String sql = "UPDATE patient SET locked = 1, lockedDate = ? WHERE pid = ?";
 
-        // Use a try-with-resources statement to automatically close the PreparedStatement object after use.
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
-            // Set the 'lockedDate' parameter in the SQL query.
-            pstmt.setDate(1, Date.valueOf(lockDate));
+            // Use a try-with-resources statement to return the connection after use; the statement stays cached.
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                PreparedStatement pstmt = prepareStatement(lease.getConnection(), sql);
+                // Set the 'lockedDate' parameter in the SQL query, as a sortable 'yyyy-MM-dd' string.
+                pstmt.setString(1, DateConverter.convertLocalDateToString(lockDate));
 
-            // Set the 'pid' parameter in the SQL query.
-            pstmt.setLong(2, pid);
+                // Set the 'pid' parameter in the SQL query.
+                pstmt.setLong(2, pid);
 
-            // Execute the SQL update query.
-            pstmt.executeUpdate();
-        }
+                // Execute the SQL update query.
+                pstmt.executeUpdate();
+            }
+            // Locked patients are no longer shown, so they are not cached either.
+            deleted(pid);
+            return ChangeSet.removed(pid);
+        }, changes -> 1);
     }
 
     /**
@@ -204,19 +421,23 @@ public class PatientDao extends DaoImp<Patient> {
      * It goes through all locked patients in the database and checks if the current date is after the lock date.
      * If this is the case, the patient is deleted.
      *
+     * @return The number of deleted patients.
      * @throws SQLException if a database error occurs.
      */
-    public void deleteExpiredPatientLocks() throws SQLException {
-        // Prepare the SQL query to delete all patients whose 'lockedDate' is before the current date.
-        String sql = "DELETE FROM patient WHERE lockedDate < ?";
+    public int deleteExpiredPatientLocks() throws SQLException {
+        return measure("deleteExpiredPatientLocks", () -> {
+            // Prepare the SQL query to delete all locked patients whose 'lockedDate' is before the current date.
+            String sql = "DELETE FROM patient WHERE locked = 1 AND lockedDate < ?";
 
-        // Use a try-with-resources statement to automatically close the PreparedStatement object after use.
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
-            // Set the 'lockedDate' parameter in the SQL query to the current date.
-            pstmt.setDate(1, Date.valueOf(LocalDate.now()));
+            // Use a try-with-resources statement to return the connection after use; the statement stays cached.
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                PreparedStatement pstmt = prepareStatement(lease.getConnection(), sql);
+                // Set the 'lockedDate' parameter in the SQL query to the current date.
+                pstmt.setString(1, DateConverter.convertLocalDateToString(LocalDate.now()));
 
-            // Execute the SQL delete query.
-            pstmt.executeUpdate();
-        }
+                // Execute the SQL delete query.
+                return pstmt.executeUpdate();
+            }
+        }, Integer::intValue);
     }
 }
\ No newline at end of file
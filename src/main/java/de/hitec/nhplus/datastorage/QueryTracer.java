@@ -0,0 +1,371 @@
+package de.hitec.nhplus.datastorage;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>QueryTracer</code> watches every statement that is executed on a traced connection. The
+ * {@link ConnectionPool} wraps its connections with {@link #wrap(Connection)} if tracing is switched on with the
+ * system property <code>nhplus.db.trace</code> or {@link ConnectionBuilder#configureTracing(boolean)}; otherwise the
+ * DAOs use the connections of the driver directly.
+ * <p>
+ * A statement is timed from its execution until its <code>ResultSet</code> is exhausted or closed. Statements that take
+ * at least <code>nhplus.db.slowStatementMillis</code> milliseconds, 100 by default, are logged. The values of their
+ * parameters are patient data, so only their types and lengths are logged.
+ * <p>
+ * Statements are counted per {@link Action}, e.g. a click in the user interface together with the database work it
+ * starts. When the statements of an action are done, the action is logged with its number of statements. If an action
+ * executes the same SQL <code>nhplus.db.repeatedStatementWarning</code> times, 10 by default, a warning names the code
+ * that executed it, as that is usually a query per row of a list that should be a single query.
+ */
+public final class QueryTracer {
+
+    private static final long SLOW_STATEMENT_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("nhplus.db.slowStatementMillis", 100));
+    private static final int REPEATED_STATEMENT_WARNING = Integer.getInteger("nhplus.db.repeatedStatementWarning", 10);
+
+    private static final ThreadLocal<Action> CURRENT = new ThreadLocal<>();
+
+    private static final Scope NO_SCOPE = new Scope(null, null);
+
+    private QueryTracer() {
+    }
+
+    /**
+     * Wraps a connection, so that its statements are traced.
+     *
+     * @param connection Connection of the driver.
+     * @return Traced connection, which executes everything on the given connection.
+     */
+    public static Connection wrap(Connection connection) {
+        return proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    /**
+     * Starts an action on the current thread. If an action is already running on the thread, e.g. for an event that
+     * another event caused, the scope joins that action instead.
+     *
+     * @param name Name of the action in the log, e.g. the event and the control that received it.
+     * @return Scope of the action on the current thread; the action ends when all its scopes are closed.
+     */
+    public static Scope beginAction(String name) {
+        Action current = CURRENT.get();
+        Action action = current != null ? current.retain() : new Action(name);
+        CURRENT.set(action);
+        return new Scope(action, current);
+    }
+
+    /**
+     * Captures the action of the current thread for work that is handed to another thread. The action does not end
+     * before the work resumed it with {@link #resume(Action)} and closed the scope.
+     *
+     * @return The action of the current thread, or <code>null</code> if there is none.
+     */
+    public static Action captureAction() {
+        Action action = CURRENT.get();
+        return action == null ? null : action.retain();
+    }
+
+    /**
+     * Continues a captured action on the current thread.
+     *
+     * @param action Action returned by {@link #captureAction()}, may be <code>null</code>.
+     * @return Scope of the action on the current thread.
+     */
+    public static Scope resume(Action action) {
+        if (action == null) {
+            return NO_SCOPE;
+        }
+        Action previous = CURRENT.get();
+        CURRENT.set(action);
+        return new Scope(action, previous);
+    }
+
+    private static void executed(String sql, List<String> parameters, long nanos) {
+        Action action = CURRENT.get();
+        if (action != null) {
+            action.executed(sql, nanos);
+        }
+        if (nanos >= SLOW_STATEMENT_NANOS) {
+            System.out.println("Langsame Anweisung (" + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms"
+                    + (action == null ? "" : ", Aktion " + action.name) + "): " + sql
+                    + (parameters.isEmpty() ? "" : " " + parameters));
+        }
+    }
+
+    /**
+     * Describes a parameter value without revealing it.
+     */
+    private static String redact(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof CharSequence text) {
+            return "String(" + text.length() + ")";
+        }
+        if (value instanceof byte[] bytes) {
+            return "byte[" + bytes.length + "]";
+        }
+        return value.getClass().getSimpleName();
+    }
+
+    /**
+     * @return The first caller outside of the data storage, e.g. the controller that called the DAO.
+     */
+    private static String callSite() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> !frame.getClassName().startsWith(QueryTracer.class.getPackageName())
+                        && !frame.getClassName().startsWith("java.")
+                        && !frame.getClassName().startsWith("jdk.")
+                        && !frame.getClassName().startsWith("sun.")
+                        && !frame.getClassName().startsWith("com.sun.proxy")
+                        && !frame.getClassName().startsWith("de.hitec.nhplus.service.DbTaskExecutor"))
+                .findFirst()
+                .map(StackWalker.StackFrame::toStackTraceElement)
+                .map(StackTraceElement::toString)
+                .orElse("unbekannt"));
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(QueryTracer.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] arguments) throws Throwable {
+        try {
+            return method.invoke(target, arguments);
+        } catch (InvocationTargetException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * An <code>Action</code> collects the statements of one piece of work that may span several threads, e.g. the
+     * handling of a click and the database tasks it submits.
+     */
+    public static final class Action {
+
+        private final String name;
+        private final long start = System.nanoTime();
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final LongAdder statements = new LongAdder();
+        private final LongAdder statementNanos = new LongAdder();
+        // The number of executions by SQL text
+        private final Map<String, AtomicInteger> executions = new ConcurrentHashMap<>();
+        private final Set<String> warned = ConcurrentHashMap.newKeySet();
+
+        private Action(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        private Action retain() {
+            this.references.incrementAndGet();
+            return this;
+        }
+
+        private void release() {
+            if (this.references.decrementAndGet() == 0 && this.statements.sum() > 0) {
+                System.out.println("Aktion " + this.name + ": " + this.statements.sum() + " Anweisungen in "
+                        + TimeUnit.NANOSECONDS.toMillis(this.statementNanos.sum()) + " ms, insgesamt "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start) + " ms");
+            }
+        }
+
+        private void executed(String sql, long nanos) {
+            this.statements.increment();
+            this.statementNanos.add(nanos);
+            int count = this.executions.computeIfAbsent(sql, key -> new AtomicInteger()).incrementAndGet();
+            if (count >= REPEATED_STATEMENT_WARNING && this.warned.add(sql)) {
+                System.out.println("Warnung: Aktion " + this.name + " hat dieselbe Anweisung " + count
+                        + " Mal ausgeführt, zuletzt aus " + callSite() + ": " + sql);
+            }
+        }
+    }
+
+    /**
+     * A <code>Scope</code> is the part of an {@link Action} that runs on one thread. Closing the scope restores the
+     * previous action of the thread, unless the thread has moved on to another action, e.g. because an outer scope was
+     * closed first.
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private final Action action;
+        private final Action previous;
+
+        private Scope(Action action, Action previous) {
+            this.action = action;
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (this.action == null) {
+                return;
+            }
+            if (CURRENT.get() == this.action) {
+                if (this.previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(this.previous);
+                }
+            }
+            this.action.release();
+        }
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        private ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == arguments[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Traced" + this.connection;
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, new StatementHandler(
+                            (Statement) QueryTracer.invoke(this.connection, method, arguments), (String) arguments[0]));
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler(
+                            (Statement) QueryTracer.invoke(this.connection, method, arguments), null));
+                default:
+                    return QueryTracer.invoke(this.connection, method, arguments);
+            }
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final String sql;
+        // The redacted parameters by their index - 1
+        private final List<String> parameters = new ArrayList<>();
+
+        private StatementHandler(Statement statement, String sql) {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == arguments[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.startsWith("set") && arguments != null && arguments.length >= 2
+                    && arguments[0] instanceof Integer index) {
+                setParameter(index, name.equals("setNull") ? null : arguments[1]);
+            } else if (name.equals("clearParameters")) {
+                this.parameters.clear();
+            } else if (name.startsWith("execute")) {
+                return execute(method, arguments);
+            }
+            return QueryTracer.invoke(this.statement, method, arguments);
+        }
+
+        private void setParameter(int index, Object value) {
+            while (this.parameters.size() < index) {
+                this.parameters.add("?");
+            }
+            this.parameters.set(index - 1, redact(value));
+        }
+
+        private Object execute(Method method, Object[] arguments) throws Throwable {
+            String sql = this.sql != null ? this.sql
+                    : arguments != null && arguments.length > 0 && arguments[0] instanceof String text ? text : "?";
+            List<String> parameters = List.copyOf(this.parameters);
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = QueryTracer.invoke(this.statement, method, arguments);
+            } catch (Throwable exception) {
+                executed(sql, parameters, System.nanoTime() - start);
+                throw exception;
+            }
+            if (result instanceof ResultSet resultSet) {
+                // The rows are only computed while the result set is read
+                return proxy(ResultSet.class, new ResultSetHandler(resultSet, sql, parameters, System.nanoTime() - start));
+            }
+            executed(sql, parameters, System.nanoTime() - start);
+            return result;
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+
+        private final ResultSet resultSet;
+        private final String sql;
+        private final List<String> parameters;
+        private long nanos;
+        private boolean done;
+
+        private ResultSetHandler(ResultSet resultSet, String sql, List<String> parameters, long nanos) {
+            this.resultSet = resultSet;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == arguments[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "next":
+                    long start = System.nanoTime();
+                    Object next;
+                    try {
+                        next = QueryTracer.invoke(this.resultSet, method, arguments);
+                    } finally {
+                        this.nanos += System.nanoTime() - start;
+                    }
+                    if (Boolean.FALSE.equals(next)) {
+                        done();
+                    }
+                    return next;
+                case "close":
+                    done();
+                    return QueryTracer.invoke(this.resultSet, method, arguments);
+                default:
+                    return QueryTracer.invoke(this.resultSet, method, arguments);
+            }
+        }
+
+        private void done() {
+            if (!this.done) {
+                this.done = true;
+                executed(this.sql, this.parameters, this.nanos);
+            }
+        }
+    }
+}
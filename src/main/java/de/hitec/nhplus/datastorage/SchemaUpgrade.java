@@ -0,0 +1,300 @@
+package de.hitec.nhplus.datastorage;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>SchemaUpgrade</code> brings an existing database up to the current schema version. The version of a
+ * database is kept in <code>PRAGMA user_version</code>; every step raises it by one and runs in its own transaction,
+ * so a database is never left between two versions. Steps that failed are retried on the next start.
+ */
+public class SchemaUpgrade {
+
+    /**
+     * The upgrade steps. Step <code>i</code> upgrades a database from version <code>i</code> to <code>i + 1</code>.
+     */
+    private static final String[][] STEPS = {
+            // Version 1: indexes for the predicates of the DAOs and the expiry sweeps.
+            {
+                    "CREATE INDEX IF NOT EXISTS treatment_pid_date ON treatment (pid, treatment_date)",
+                    // readAll and the count of the unlocked rows only see the rows of these indexes
+                    "CREATE INDEX IF NOT EXISTS patient_unlocked ON patient (pid) WHERE locked is not true",
+                    "CREATE INDEX IF NOT EXISTS treatment_unlocked ON treatment (tid) WHERE locked is not true",
+                    "CREATE INDEX IF NOT EXISTS caregiver_unlocked ON caregiver (pid) WHERE locked is not true",
+                    // The expiry sweeps only see the locked rows
+                    "CREATE INDEX IF NOT EXISTS patient_lockedDate ON patient (lockedDate) WHERE locked = 1",
+                    "CREATE INDEX IF NOT EXISTS treatment_lockedDate ON treatment (lockedDate) WHERE locked = 1",
+                    "CREATE INDEX IF NOT EXISTS caregiver_lockedDate ON caregiver (lockedDate) WHERE locked = 1",
+            },
+            // Version 2: 'lockedDate' was stored as milliseconds since the epoch, it is now a sortable 'yyyy-MM-dd'.
+            {
+                    normalizeLockedDate("patient"),
+                    normalizeLockedDate("treatment"),
+                    normalizeLockedDate("caregiver"),
+            },
+            // Version 3: change tracking for readChangedSince.
+            trackChanges(),
+            // Version 4: indexes for the order by date and the description filter of the TreatmentQuery.
+            {
+                    "CREATE INDEX IF NOT EXISTS treatment_date_begin ON treatment (treatment_date, begin)",
+                    // Replaces treatment_pid_date, so the treatments of a patient are also ordered by their begin
+                    "CREATE INDEX IF NOT EXISTS treatment_pid_date_begin ON treatment (pid, treatment_date, begin)",
+                    "DROP INDEX IF EXISTS treatment_pid_date",
+                    "CREATE INDEX IF NOT EXISTS treatment_description ON treatment (description COLLATE NOCASE)",
+            },
+            // Version 5: full-text search over the description and the remark of the treatments.
+            treatmentSearch(),
+            // Version 6: usernames are unique. Older databases may have duplicates, which have to be resolved by hand,
+            // so this step comes last and cannot keep the other steps from running.
+            {
+                    "CREATE UNIQUE INDEX IF NOT EXISTS caregiver_username ON caregiver (username)",
+            },
+    };
+
+    // The version of the step that creates the search index of the treatments
+    private static final int TREATMENT_SEARCH_VERSION = 5;
+
+    // The version of the step that makes the usernames unique
+    private static final int UNIQUE_USERNAME_VERSION = 6;
+
+    public static final int CURRENT_VERSION = STEPS.length;
+
+    /**
+     * Values of the columns <code>row_version, modified_at</code> for an <code>INSERT</code>. A row that is inserted
+     * with them only increments the version counter; a row that is inserted without them is stamped by a second update.
+     */
+    public static final String TRACKED_INSERT_VALUES =
+            "(SELECT version + 1 FROM sync_version), strftime('%Y-%m-%d %H:%M:%f', 'now')";
+
+    /**
+     * Upgrades the nursing home database on the writer connection of the {@link ConnectionBuilder}.
+     *
+     * @throws SQLException if a step failed, so that the caller can tell the user. The steps before it stay applied.
+     */
+    public static void upgrade() throws SQLException {
+        try (ConnectionLease lease = ConnectionBuilder.leaseWriteConnection()) {
+            upgrade(lease.getConnection());
+        }
+    }
+
+    /**
+     * Runs all upgrade steps above the current version of the database. A database without tables is left
+     * untouched, it gets the current schema when it is set up.
+     *
+     * @param connection Writer connection to the database.
+     * @throws SQLException if a step failed. The steps before it stay applied.
+     */
+    public static void upgrade(Connection connection) throws SQLException {
+        if (!hasTables(connection)) {
+            return;
+        }
+        for (int version = getVersion(connection); version < CURRENT_VERSION; version++) {
+            if (version + 1 == UNIQUE_USERNAME_VERSION) {
+                checkUniqueUsernames(connection);
+            }
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : STEPS[version]) {
+                    statement.execute(sql);
+                }
+                statement.execute("PRAGMA user_version = " + (version + 1));
+                connection.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw new SQLException("Upgrade to schema version " + (version + 1) + " failed", exception);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * @param connection Connection to the database.
+     * @return The schema version of the database, 0 for a database that was never upgraded.
+     */
+    public static int getVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("PRAGMA user_version")) {
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Sets the schema version of the database, e.g. back to 0 after its tables were dropped.
+     *
+     * @param connection Connection to the database.
+     * @param version New schema version.
+     */
+    public static void setVersion(Connection connection, int version) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA user_version = " + version);
+        }
+    }
+
+    /**
+     * Drops the indexes of <code>treatment</code> and the triggers of its search index before a bulk load, e.g. of the
+     * {@link de.hitec.nhplus.utils.DataGenerator}. Building them once after the load is much faster than updating them
+     * for every inserted row. The triggers of the change tracking are kept, so the loaded rows are still tracked.
+     *
+     * @param connection Writer connection to the database.
+     * @return The statements that create the dropped indexes and triggers again, for
+     * {@link #createTreatmentIndexes(Connection, List)}.
+     */
+    public static List<String> dropTreatmentIndexes(Connection connection) throws SQLException {
+        final String SQL = "SELECT type, name, sql FROM sqlite_master WHERE tbl_name = 'treatment' AND sql IS NOT NULL " +
+                "AND (type = 'index' OR (type = 'trigger' AND name LIKE 'treatment_search_%'))";
+        List<String> created = new ArrayList<>();
+        List<String> dropped = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(SQL)) {
+            while (result.next()) {
+                dropped.add("DROP " + result.getString("type").toUpperCase() + " " + result.getString("name"));
+                created.add(result.getString("sql"));
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : dropped) {
+                statement.execute(sql);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Creates the indexes and triggers of <code>treatment</code> again after a bulk load and rebuilds the search
+     * index from the treatments.
+     *
+     * @param connection Writer connection to the database.
+     * @param created The statements returned by {@link #dropTreatmentIndexes(Connection)}.
+     */
+    public static void createTreatmentIndexes(Connection connection, List<String> created) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : created) {
+                statement.execute(sql);
+            }
+            if (getVersion(connection) >= TREATMENT_SEARCH_VERSION) {
+                statement.execute("INSERT INTO treatment_search (treatment_search) VALUES ('rebuild')");
+            }
+        }
+    }
+
+    /**
+     * Every row gets the version of its last change in <code>row_version</code> and the time of it in
+     * <code>modified_at</code>. The versions are counted by the single row of <code>sync_version</code>, so they
+     * increase across all tables and all processes that share the database file. Triggers maintain both columns, so
+     * every write is tracked, whichever DAO or process made it; inserts are cheaper with {@link #TRACKED_INSERT_VALUES}.
+     * A deleted row leaves its key and version in
+     * <code>deleted_row</code>; a row that is deleted after it was locked does not, its lock was already tracked.
+     * The rows that exist before the upgrade get version 1.
+     */
+    private static String[] trackChanges() {
+        List<String> sql = new ArrayList<>();
+        sql.add("CREATE TABLE IF NOT EXISTS sync_version (" +
+                "   id INTEGER PRIMARY KEY CHECK (id = 0), " +
+                "   version INTEGER NOT NULL" +
+                ")");
+        sql.add("INSERT OR IGNORE INTO sync_version (id, version) VALUES (0, 1)");
+        sql.add("CREATE TABLE IF NOT EXISTS deleted_row (" +
+                "   table_name TEXT NOT NULL, " +
+                "   id INTEGER NOT NULL, " +
+                "   row_version INTEGER NOT NULL, " +
+                "   PRIMARY KEY (table_name, id)" +
+                ")");
+        sql.add("CREATE INDEX IF NOT EXISTS deleted_row_version ON deleted_row (table_name, row_version)");
+        trackChanges(sql, "patient", "pid");
+        trackChanges(sql, "treatment", "tid");
+        trackChanges(sql, "caregiver", "pid");
+        return sql.toArray(new String[0]);
+    }
+
+    private static void trackChanges(List<String> sql, String table, String key) {
+        final String NOW = "strftime('%Y-%m-%d %H:%M:%f', 'now')";
+        final String NEXT_VERSION = "UPDATE sync_version SET version = version + 1;";
+        final String VERSION = "(SELECT version FROM sync_version)";
+        sql.add("ALTER TABLE " + table + " ADD COLUMN row_version INTEGER NOT NULL DEFAULT 0");
+        sql.add("ALTER TABLE " + table + " ADD COLUMN modified_at TEXT");
+        sql.add("UPDATE " + table + " SET row_version = 1, modified_at = " + NOW);
+        sql.add("CREATE INDEX IF NOT EXISTS " + table + "_row_version ON " + table + " (row_version)");
+        String stamp = "UPDATE " + table + " SET row_version = " + VERSION + ", modified_at = " + NOW +
+                " WHERE " + key + " = NEW." + key + ";";
+        sql.add("CREATE TRIGGER IF NOT EXISTS " + table + "_track_insert AFTER INSERT ON " + table + " " +
+                "WHEN NEW.row_version = 0 " +
+                "BEGIN " + NEXT_VERSION + stamp + " END");
+        sql.add("CREATE TRIGGER IF NOT EXISTS " + table + "_track_tracked_insert AFTER INSERT ON " + table + " " +
+                "WHEN NEW.row_version <> 0 " +
+                "BEGIN UPDATE sync_version SET version = max(version, NEW.row_version); END");
+        // The update of the trigger itself changes the version, so it does not fire the trigger again
+        sql.add("CREATE TRIGGER IF NOT EXISTS " + table + "_track_update AFTER UPDATE ON " + table + " " +
+                "WHEN NEW.row_version IS OLD.row_version " +
+                "BEGIN " + NEXT_VERSION + stamp + " END");
+        sql.add("CREATE TRIGGER IF NOT EXISTS " + table + "_track_delete AFTER DELETE ON " + table + " " +
+                "WHEN OLD.locked is not true " +
+                "BEGIN " + NEXT_VERSION +
+                "INSERT OR REPLACE INTO deleted_row (table_name, id, row_version) " +
+                "VALUES ('" + table + "', OLD." + key + ", " + VERSION + "); END");
+    }
+
+    /**
+     * <code>treatment_search</code> is an FTS5 index of the description and the remark of every treatment. It is an
+     * external content table: it stores only the index, the text is read from <code>treatment</code> by the tid. The
+     * tokenizer ignores case and diacritics, so "gesprach" finds "Gespräch", and the prefix indexes answer the prefix
+     * queries of {@link TreatmentDao#search(String, TreatmentQuery, int)} without scanning the terms. Triggers keep the index in sync
+     * with every write, whichever DAO or process made it; updates that do not change the text, like the change
+     * tracking, do not touch it. The treatments that exist before the upgrade are indexed by a rebuild.
+     */
+    private static String[] treatmentSearch() {
+        final String INDEX = "INSERT INTO treatment_search (rowid, description, remark) " +
+                "VALUES (NEW.tid, NEW.description, NEW.remark);";
+        final String UNINDEX = "INSERT INTO treatment_search (treatment_search, rowid, description, remark) " +
+                "VALUES ('delete', OLD.tid, OLD.description, OLD.remark);";
+        return new String[]{
+                "CREATE VIRTUAL TABLE IF NOT EXISTS treatment_search USING fts5(" +
+                        "description, remark, content = 'treatment', content_rowid = 'tid', " +
+                        "tokenize = 'unicode61 remove_diacritics 2', prefix = '2 3')",
+                "CREATE TRIGGER IF NOT EXISTS treatment_search_insert AFTER INSERT ON treatment " +
+                        "BEGIN " + INDEX + " END",
+                "CREATE TRIGGER IF NOT EXISTS treatment_search_update AFTER UPDATE OF description, remark " +
+                        "ON treatment BEGIN " + UNINDEX + INDEX + " END",
+                "CREATE TRIGGER IF NOT EXISTS treatment_search_delete AFTER DELETE ON treatment " +
+                        "BEGIN " + UNINDEX + " END",
+                "INSERT INTO treatment_search (treatment_search) VALUES ('rebuild')",
+        };
+    }
+
+    /**
+     * @throws SQLException naming the usernames that more than one caregiver has, if there are any.
+     */
+    private static void checkUniqueUsernames(Connection connection) throws SQLException {
+        List<String> duplicates = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT username FROM caregiver GROUP BY username " +
+                     "HAVING COUNT(*) > 1 ORDER BY username")) {
+            while (result.next()) {
+                duplicates.add(result.getString(1));
+            }
+        }
+        if (!duplicates.isEmpty()) {
+            throw new SQLException("Upgrade to schema version " + UNIQUE_USERNAME_VERSION + " failed: usernames " +
+                    "used by more than one caregiver: " + String.join(", ", duplicates));
+        }
+    }
+
+    private static String normalizeLockedDate(String table) {
+        return "UPDATE " + table + " " +
+                "SET lockedDate = date(CAST(lockedDate AS INTEGER) / 1000, 'unixepoch', 'localtime') " +
+                "WHERE lockedDate NOT LIKE '%-%' AND CAST(lockedDate AS INTEGER) > 0";
+    }
+
+    private static boolean hasTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' " +
+                     "AND name IN ('patient', 'treatment', 'caregiver')")) {
+            return result.next() && result.getInt(1) == 3;
+        }
+    }
+}
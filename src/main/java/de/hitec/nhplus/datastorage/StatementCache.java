@@ -0,0 +1,115 @@
+package de.hitec.nhplus.datastorage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>StatementCache</code> keeps the <code>PreparedStatement</code>s of one <code>Connection</code>, keyed by
+ * their SQL text, so SQLite compiles each statement only once. The cache is bounded; when it is full, the least recently
+ * used statement is closed and removed.
+ * Statements handed out by the cache belong to the cache and must not be closed by the caller. Because a statement is
+ * reused for every call with the same SQL, the connection has to be used by one thread at a time, which the
+ * {@link ConnectionLease}s guarantee.
+ */
+public class StatementCache implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("nhplus.db.statementCacheSize", 64);
+
+    private static final LongAdder TOTAL_HITS = new LongAdder();
+    private static final LongAdder TOTAL_MISSES = new LongAdder();
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache for the given connection.
+     *
+     * @param connection Connection to prepare the statements on.
+     * @param capacity Maximum number of statements kept open.
+     */
+    public StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > capacity) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for the given SQL or prepares and caches a new one.
+     *
+     * @param sql SQL text of the statement.
+     * @return Prepared statement, owned by this cache.
+     * @throws SQLException if the statement could not be prepared.
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = this.statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            this.hits++;
+            TOTAL_HITS.increment();
+            return statement;
+        }
+        this.misses++;
+        TOTAL_MISSES.increment();
+        statement = this.connection.prepareStatement(sql);
+        this.statements.put(sql, statement);
+        return statement;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized int size() {
+        return this.statements.size();
+    }
+
+    /**
+     * @return Number of cache hits of all caches since the start of the application.
+     */
+    public static long getTotalHits() {
+        return TOTAL_HITS.sum();
+    }
+
+    /**
+     * @return Number of cache misses of all caches since the start of the application.
+     */
+    public static long getTotalMisses() {
+        return TOTAL_MISSES.sum();
+    }
+
+    /**
+     * Closes all cached statements. The connection itself stays open.
+     */
+    @Override
+    public synchronized void close() {
+        for (PreparedStatement statement : this.statements.values()) {
+            closeQuietly(statement);
+        }
+        this.statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException exception) {
+            exception.printStackTrace();
+        }
+    }
+}
@@ -4,12 +4,11 @@ import de.hitec.nhplus.model.Treatment;
 import de.hitec.nhplus.utils.DateConverter;
 
 import java.sql.*;
-import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Implements the Interface <code>DaoImp</code>. Overrides methods to generate specific <code>PreparedStatements</code>,
@@ -17,6 +16,15 @@ import java.util.List;
  */
 public class TreatmentDao extends DaoImp<Treatment> {
 
+    /**
+     * Markers around the matched words of a {@link TreatmentSearchResult}.
+     */
+    public static final String HIGHLIGHT_START = "»";
+    public static final String HIGHLIGHT_END = "«";
+
+    // Number of the newest matches of a search that are ranked, set by the system property 'nhplus.search.rankedMatches'
+    private static final int RANKED_MATCHES = Integer.getInteger("nhplus.search.rankedMatches", 10_000);
+
     /**
      * The constructor initiates an object of <code>TreatmentDao</code> and passes the connection to its super class.
      *
@@ -26,19 +34,29 @@ public class TreatmentDao extends DaoImp<Treatment> {
         super(connection);
     }
 
+    /**
+     * The constructor initiates an object of <code>TreatmentDao</code> that leases its connections from the given pool.
+     *
+     * @param pool Object of <code>ConnectionPool</code> to lease the connections from.
+     */
+    public TreatmentDao(ConnectionPool pool) {
+        super(pool);
+    }
+
     /**
      * Generates a <code>PreparedStatement</code> to persist the given object of <code>Treatment</code>.
      *
+     * @param connection Connection to prepare the statement on.
      * @param treatment Object of <code>Treatment</code> to persist.
      * @return <code>PreparedStatement</code> to insert the given patient.
      */
     @Override
-    protected PreparedStatement getCreateStatement(Treatment treatment) {
+    protected PreparedStatement getCreateStatement(Connection connection, Treatment treatment) {
         PreparedStatement preparedStatement = null;
         try {
-            final String SQL = "INSERT INTO treatment (pid, treatment_date, begin, end, description, remark) " +
-                    "VALUES (?, ?, ?, ?, ?, ?)";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            final String SQL = "INSERT INTO treatment (pid, treatment_date, begin, end, description, remark, " +
+                    "row_version, modified_at) VALUES (?, ?, ?, ?, ?, ?, " + SchemaUpgrade.TRACKED_INSERT_VALUES + ")";
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, treatment.getPid());
             preparedStatement.setString(2, treatment.getDate());
             preparedStatement.setString(3, treatment.getBegin());
@@ -54,15 +72,16 @@ public class TreatmentDao extends DaoImp<Treatment> {
     /**
      * Generates a <code>PreparedStatement</code> to query a treatment by a given treatment id (tid).
      *
+     * @param connection Connection to prepare the statement on.
      * @param tid Treatment id to query.
      * @return <code>PreparedStatement</code> to query the treatment.
      */
     @Override
-    protected PreparedStatement getReadByIDStatement(long tid) {
+    protected PreparedStatement getReadByIDStatement(Connection connection, long tid) {
         PreparedStatement preparedStatement = null;
         try {
             final String SQL = "SELECT * FROM treatment WHERE tid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, tid);
         } catch (SQLException exception) {
             exception.printStackTrace();
@@ -85,17 +104,36 @@ public class TreatmentDao extends DaoImp<Treatment> {
                 date, begin, end, result.getString(6), result.getString(7), result.getBoolean(8), result.getString(9));
     }
 
+    @Override
+    protected String getTableName() {
+        return "treatment";
+    }
+
+    @Override
+    protected String getKeyColumn() {
+        return "tid";
+    }
+
+    @Override
+    protected Treatment withKey(Treatment treatment, long tid) {
+        return new Treatment(tid, treatment.getPid(), DateConverter.convertStringToLocalDate(treatment.getDate()),
+                DateConverter.convertStringToLocalTime(treatment.getBegin()),
+                DateConverter.convertStringToLocalTime(treatment.getEnd()), treatment.getDescription(),
+                treatment.getRemarks(), treatment.getLocked(), treatment.getLockedDate());
+    }
+
     /**
      * Generates a <code>PreparedStatement</code> to query all treatments.
      *
+     * @param connection Connection to prepare the statement on.
      * @return <code>PreparedStatement</code> to query all treatments.
      */
     @Override
-    protected PreparedStatement getReadAllStatement() {
+    protected PreparedStatement getReadAllStatement(Connection connection) {
         PreparedStatement statement = null;
         try {
             final String SQL = "SELECT * FROM treatment WHERE locked is not true";
-            statement = this.connection.prepareStatement(SQL);
+            statement = prepareStatement(connection, SQL);
 
             // Debug
 
@@ -142,17 +180,52 @@ public class TreatmentDao extends DaoImp<Treatment> {
         return list;
     }
 
+    /**
+     * Generates a <code>PreparedStatement</code> to query the next page of treatments, ordered by the treatment id (tid).
+     *
+     * @param connection Connection to prepare the statement on.
+     * @param afterTid Treatment id of the last treatment of the previous page.
+     * @param limit Maximum number of treatments of the page.
+     * @return <code>PreparedStatement</code> to query the page.
+     */
+    @Override
+    protected PreparedStatement getReadPageStatement(Connection connection, long afterTid, int limit) {
+        PreparedStatement preparedStatement = null;
+        try {
+            final String SQL = "SELECT * FROM treatment WHERE locked is not true AND tid > ? ORDER BY tid LIMIT ?";
+            preparedStatement = prepareStatement(connection, SQL);
+            preparedStatement.setLong(1, afterTid);
+            preparedStatement.setInt(2, limit);
+        } catch (SQLException exception) {
+            exception.printStackTrace();
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Generates a new <code>PreparedStatement</code> to stream all treatments, ordered by the treatment id (tid). The
+     * statement is not cached, it is closed together with the stream.
+     *
+     * @param connection Connection to prepare the statement on.
+     * @return <code>PreparedStatement</code> to query all treatments.
+     */
+    @Override
+    protected PreparedStatement getReadAllCursorStatement(Connection connection) throws SQLException {
+        return connection.prepareStatement("SELECT * FROM treatment WHERE locked is not true ORDER BY tid");
+    }
+
     /**
      * Generates a <code>PreparedStatement</code> to query all treatments of a patient with a given patient id (pid).
      *
+     * @param connection Connection to prepare the statement on.
      * @param pid Patient id to query all treatments referencing this id.
      * @return <code>PreparedStatement</code> to query all treatments of the given patient id (pid).
      */
-    private PreparedStatement getReadAllTreatmentsOfOnePatientByPid(long pid) {
+    private PreparedStatement getReadAllTreatmentsOfOnePatientByPid(Connection connection, long pid) {
         PreparedStatement preparedStatement = null;
         try {
             final String SQL = "SELECT * FROM treatment WHERE pid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, pid);
         } catch (SQLException exception) {
             exception.printStackTrace();
@@ -169,19 +242,238 @@ public class TreatmentDao extends DaoImp<Treatment> {
      * <code>ResultSet</code>.
      */
     public List<Treatment> readTreatmentsByPid(long pid) throws SQLException {
-        ResultSet result = getReadAllTreatmentsOfOnePatientByPid(pid).executeQuery();
-        return getListFromResultSet(result);
+        return measure("readTreatmentsByPid", () -> {
+            try (ConnectionLease lease = leaseReadConnection();
+                 ResultSet result = getReadAllTreatmentsOfOnePatientByPid(lease.getConnection(), pid).executeQuery()) {
+                return getListFromResultSet(result);
+            }
+        }, List::size);
+    }
+
+    /**
+     * Streams all treatments of a given patient id (pid), ordered by the treatment id (tid). The stream holds a
+     * database connection until it is closed.
+     *
+     * @param pid Patient id to query all treatments referencing this id.
+     * @return Lazily mapped <code>Stream</code> of the treatments of the patient.
+     */
+    public Stream<Treatment> streamTreatmentsByPid(long pid) throws SQLException {
+        return measure("streamTreatmentsByPid", () -> openStream(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT * FROM treatment WHERE pid = ? ORDER BY tid");
+            statement.setLong(1, pid);
+            return statement;
+        }), stream -> 0);
+    }
+
+    /**
+     * Counts all treatments of a given patient id (pid), i.e. the rows of {@link #readTreatmentsByPid(long)}.
+     *
+     * @param pid Patient id to count the treatments of.
+     * @return Number of treatments of the patient.
+     */
+    public int countTreatmentsByPid(long pid) throws SQLException {
+        return measure("countTreatmentsByPid", () -> {
+            try (ConnectionLease lease = leaseReadConnection()) {
+                PreparedStatement statement = prepareStatement(lease.getConnection(),
+                        "SELECT COUNT(*) FROM treatment WHERE pid = ?");
+                statement.setLong(1, pid);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getInt(1) : 0;
+                }
+            }
+        }, count -> 1);
+    }
+
+    /**
+     * Queries the treatments that match a query, in the order and up to the limit of the query.
+     *
+     * @param query Filters, order and limit of the treatments.
+     * @return <code>List</code> with the matching treatments.
+     */
+    public List<Treatment> readMatching(TreatmentQuery query) throws SQLException {
+        return measure("readMatching", () -> {
+            try (ConnectionLease lease = leaseReadConnection()) {
+                PreparedStatement statement = prepareStatement(lease.getConnection(), query.selectSql());
+                int index = query.bind(statement, null);
+                if (query.getLimit() > 0) {
+                    statement.setInt(index, query.getLimit());
+                }
+                try (ResultSet result = statement.executeQuery()) {
+                    return getMatchingFromResultSet(result);
+                }
+            }
+        }, List::size);
+    }
+
+    /**
+     * Streams the treatments that match a query, in the order and up to the limit of the query, with a single
+     * statement. The stream holds a database connection until it is closed.
+     *
+     * @param query Filters, order and limit of the treatments.
+     * @return Lazily mapped <code>Stream</code> of the matching treatments.
+     */
+    public Stream<Treatment> streamMatching(TreatmentQuery query) throws SQLException {
+        return measure("streamMatching", () -> openStream(connection -> {
+            PreparedStatement statement = connection.prepareStatement(query.selectSql());
+            int index = query.bind(statement, null);
+            if (query.getLimit() > 0) {
+                statement.setInt(index, query.getLimit());
+            }
+            return statement;
+        }), stream -> 0);
+    }
+
+    /**
+     * Counts the treatments that match a query, ignoring its limit.
+     *
+     * @param query Filters of the treatments.
+     * @return Number of matching treatments.
+     */
+    public int countMatching(TreatmentQuery query) throws SQLException {
+        return measure("countMatching", () -> {
+            try (ConnectionLease lease = leaseReadConnection()) {
+                PreparedStatement statement = prepareStatement(lease.getConnection(), query.countSql());
+                query.bind(statement, null);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next() ? result.getInt(1) : 0;
+                }
+            }
+        }, count -> 1);
+    }
+
+    /**
+     * Queries a window of the treatments that match a query, in the order of the query; its limit is ignored. The
+     * window starts <code>offset</code> rows after the treatment <code>after</code>. If the last treatment before the
+     * window is known, pass it and an offset of 0, so SQLite seeks to the window instead of skipping rows.
+     *
+     * @param query Filters and order of the treatments.
+     * @param after Treatment before the window, <code>null</code> to count the offset from the first treatment.
+     * @param offset Number of treatments to skip after <code>after</code>.
+     * @param limit Maximum number of treatments in the window.
+     * @return <code>List</code> with the treatments of the window.
+     */
+    public List<Treatment> readWindow(TreatmentQuery query, Treatment after, int offset, int limit) throws SQLException {
+        return measure("readMatchingWindow", () -> {
+            try (ConnectionLease lease = leaseReadConnection()) {
+                PreparedStatement statement = prepareStatement(lease.getConnection(), query.windowSql(after != null));
+                int index = query.bind(statement, after);
+                statement.setInt(index, limit);
+                statement.setInt(index + 1, offset);
+                try (ResultSet result = statement.executeQuery()) {
+                    return getMatchingFromResultSet(result);
+                }
+            }
+        }, List::size);
+    }
+
+    /**
+     * Searches the treatments that match the filters of a query by the words of their description and remark in the
+     * full-text index <code>treatment_search</code>. Every word of the text has to occur, as a word or as the start of a
+     * word, in the description or in the remark; case and diacritics are ignored. The treatments are ranked by BM25,
+     * where a match in the description counts twice as much as one in the remark. The filters are part of the SQL, so
+     * the limit applies to the treatments that match them.
+     * Ranking costs time for every match, so only the newest {@link #RANKED_MATCHES} treatments that match the text and
+     * the filters are ranked, older ones are not found: a word that occurs in that many treatments hardly changes their
+     * rank anyway, and the search stays as fast on millions of treatments as on thousands. Narrowing the filters, e.g.
+     * to a patient, finds the older treatments.
+     *
+     * @param text Words to search for, as typed by the user.
+     * @param query Filters of the treatments; the order and the limit of the query are ignored.
+     * @param limit Maximum number of results.
+     * @return The best matching treatments, the best first; empty if the text has no words.
+     */
+    public List<TreatmentSearchResult> search(String text, TreatmentQuery query, int limit) throws SQLException {
+        return measure("search", () -> {
+            String match = toMatchExpression(text);
+            if (match.isEmpty()) {
+                return new ArrayList<>();
+            }
+            String filters = query.joinedFilterSql();
+            // FTS5 reads the matches in the order of the tid, so the oldest ranked match is found without ranking
+            final String OLDEST_RANKED_SQL = "SELECT min(tid) FROM (SELECT treatment.tid FROM treatment_search " +
+                    "JOIN treatment ON treatment.tid = treatment_search.rowid " +
+                    "WHERE treatment_search MATCH ?" + filters + " ORDER BY treatment_search.rowid DESC LIMIT ?)";
+            // Ordered by the rank column, FTS5 sorts the matches itself, so the highlights and the join with the
+            // treatments are only evaluated for the rows up to the limit
+            final String SQL = "SELECT treatment.*, treatment_search.rank, " +
+                    "highlight(treatment_search, 0, '" + HIGHLIGHT_START + "', '" + HIGHLIGHT_END + "'), " +
+                    "snippet(treatment_search, 1, '" + HIGHLIGHT_START + "', '" + HIGHLIGHT_END + "', '…', 12) " +
+                    "FROM treatment_search JOIN treatment ON treatment.tid = treatment_search.rowid " +
+                    "WHERE treatment_search MATCH ? AND treatment_search.rank MATCH 'bm25(2.0, 1.0)' " +
+                    "AND treatment_search.rowid >= ?" + filters + " ORDER BY treatment_search.rank LIMIT ?";
+            try (ConnectionLease lease = leaseReadConnection()) {
+                Connection connection = lease.getConnection();
+                return inTransaction(connection, () -> {
+                    PreparedStatement oldestRanked = prepareStatement(connection, OLDEST_RANKED_SQL);
+                    oldestRanked.setString(1, match);
+                    oldestRanked.setInt(query.bind(oldestRanked, null, 2), RANKED_MATCHES);
+                    long oldestTid;
+                    try (ResultSet result = oldestRanked.executeQuery()) {
+                        oldestTid = result.next() ? result.getLong(1) : 0;
+                    }
+                    List<TreatmentSearchResult> list = new ArrayList<>();
+                    if (oldestTid == 0) {
+                        return list;
+                    }
+                    PreparedStatement statement = prepareStatement(connection, SQL);
+                    statement.setString(1, match);
+                    statement.setLong(2, oldestTid);
+                    statement.setInt(query.bind(statement, null, 3), limit);
+                    try (ResultSet result = statement.executeQuery()) {
+                        int columns = result.getMetaData().getColumnCount();
+                        while (result.next()) {
+                            String snippet = result.getString(columns);
+                            list.add(new TreatmentSearchResult(getInstanceFromResultSet(result),
+                                    result.getDouble(columns - 2), result.getString(columns - 1),
+                                    snippet.contains(HIGHLIGHT_START) ? snippet : null));
+                        }
+                    }
+                    return list;
+                });
+            }
+        }, List::size);
+    }
+
+    /**
+     * Turns the words typed by the user into an FTS5 query: every word becomes a quoted prefix query, so the syntax of
+     * FTS5 in the input, like <code>OR</code>, <code>NEAR</code> or <code>-</code>, is searched as text.
+     */
+    private static String toMatchExpression(String query) {
+        if (query == null) {
+            return "";
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            word = word.replace("\"", "");
+            if (!word.isEmpty()) {
+                match.append(match.length() == 0 ? "" : " ").append('"').append(word).append("\"*");
+            }
+        }
+        return match.toString();
+    }
+
+    /**
+     * Maps the treatments of a {@link TreatmentQuery}, which may include locked treatments.
+     */
+    private List<Treatment> getMatchingFromResultSet(ResultSet result) throws SQLException {
+        List<Treatment> list = new ArrayList<>();
+        while (result.next()) {
+            list.add(getInstanceFromResultSet(result));
+        }
+        return list;
     }
 
     /**
      * Generates a <code>PreparedStatement</code> to update the given treatment, identified
      * by the id of the treatment (tid).
      *
+     * @param connection Connection to prepare the statement on.
      * @param treatment Treatment object to update.
      * @return <code>PreparedStatement</code> to update the given treatment.
      */
     @Override
-    protected PreparedStatement getUpdateStatement(Treatment treatment) {
+    protected PreparedStatement getUpdateStatement(Connection connection, Treatment treatment) {
         PreparedStatement preparedStatement = null;
         try {
             final String SQL =
@@ -193,7 +485,7 @@ public class TreatmentDao extends DaoImp<Treatment> {
                             "description = ?, " +
                             "remark = ? " +
                             "WHERE tid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, treatment.getPid());
             preparedStatement.setString(2, treatment.getDate());
             preparedStatement.setString(3, treatment.getBegin());
@@ -210,16 +502,17 @@ public class TreatmentDao extends DaoImp<Treatment> {
     /**
      * Generates a <code>PreparedStatement</code> to delete a treatment with the given id.
      *
+     * @param connection Connection to prepare the statement on.
      * @param tid Id of the Treatment to delete.
      * @return <code>PreparedStatement</code> to delete treatment with the given id.
      */
     @Override
-    protected PreparedStatement getDeleteStatement(long tid) {
+    protected PreparedStatement getDeleteStatement(Connection connection, long tid) {
         PreparedStatement preparedStatement = null;
         try {
             final String SQL =
                     "DELETE FROM treatment WHERE tid = ?";
-            preparedStatement = this.connection.prepareStatement(SQL);
+            preparedStatement = prepareStatement(connection, SQL);
             preparedStatement.setLong(1, tid);
         } catch (SQLException exception) {
             exception.printStackTrace();
@@ -235,71 +528,87 @@ public class TreatmentDao extends DaoImp<Treatment> {
      * It also sets the 'lockedDate' field to the current date plus 10 years, indicating the date when the lock will expire.
      *
      * @param tid The ID of the treatment to be locked.
+     * @return Change set with the locked treatment as removed.
      * @throws SQLException if a database error occurs.
      */
-    public void lockTreatment(long tid) throws SQLException {
-        // Convert the treatment ID to an integer. This is a temporary solution and may need to be revised.
-        int intValue = (int) tid;
+    public ChangeSet<Treatment> lockTreatment(long tid) throws SQLException {
+        return measure("lockTreatment", () -> {
+            // Convert the treatment ID to an integer. This is a temporary solution and may need to be revised.
+            int intValue = (int) tid;
 
-        // Calculate the lock date as the current date plus 10 years.
-        LocalDate lockDate = LocalDate.now().plusYears(10);
+            // Calculate the lock date as the current date plus 10 years.
+            LocalDate lockDate = LocalDate.now().plusYears(10);
 
-        // Prepare the SQL query to update the 'locked' and 'lockedDate' fields of the treatment record.
-        String sql = "UPDATE treatment SET locked = 1, lockedDate = ? WHERE tid = ?";
+            // Prepare the SQL query to update the 'locked' and 'lockedDate' fields of the treatment record.
+            String sql = "UPDATE treatment SET locked = 1, lockedDate = ? WHERE tid = ?";
 
-        // Use a try-with-resources statement to automatically close the PreparedStatement object after use.
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
-            // Set the 'lockedDate' parameter in the SQL query.
-            pstmt.setDate(1, Date.valueOf(lockDate));
+            // Use a try-with-resources statement to return the connection after use; the statement stays cached.
+            try (ConnectionLease lease = leaseWriteConnection()) {
+                PreparedStatement pstmt = prepareStatement(lease.getConnection(), sql);
+                // Set the 'lockedDate' parameter in the SQL query, as a sortable 'yyyy-MM-dd' string.
+                pstmt.setString(1, DateConverter.convertLocalDateToString(lockDate));
 
-            // Set the 'tid' parameter in the SQL query.
-            pstmt.setLong(2, tid);
+                // Set the 'tid' parameter in the SQL query.
+                pstmt.setLong(2, tid);
 
-            // Execute the SQL update query.
-            pstmt.executeUpdate();
-        }
+                // Execute the SQL update query.
+                pstmt.executeUpdate();
+            }
+            return ChangeSet.removed(tid);
+        }, changes -> 1);
     }
 
 
 
     /**
      * This method deletes all treatments whose lock date has expired.
-     * It goes through all locked treatments in the database and checks if the current date is after the lock date.
-     * If this is the case, the treatment is deleted.
+     * The expired treatments are deleted in chunks of {@link #getBatchSize()} rows. Every chunk is a single
+     * <code>DELETE</code> in its own transaction, and the writer is released between the chunks, so the sweep does
+     * not block other writes for its whole duration.
      *
+     * @param maxRows Maximum number of treatments to delete in this run.
+     * @return The number of deleted treatments.
      * @throws SQLException if a database error occurs
      */
-    public void deleteExpiredLocks() throws SQLException {
-        // Debug
-        // System.out.println("deleteExpiredLocks");
-
-        // Retrieve the current date
-        LocalDate currentDate = LocalDate.now();
-
-        // Create SQL query to retrieve all locked treatments
-        String sql = "SELECT * FROM treatment WHERE locked = 1";
-
-        // Try-with-resources statement to ensure resources are properly released
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
-            // Execute the query and retrieve the result
-            ResultSet resultSet = pstmt.executeQuery();
-
-            while (resultSet.next()) {
-                // Retrieve the lock date as a long value (milliseconds since the Unix epoch)
-                long lockedDateMillis = resultSet.getLong("lockedDate");
-
-                // Convert the long value to a LocalDate object
-                LocalDate lockedDate = Instant.ofEpochMilli(lockedDateMillis).atZone(ZoneId.systemDefault()).toLocalDate();
-
-                // Check if the current date is after the lock date
-                if (currentDate.isAfter(lockedDate)) {
-                    // Retrieve the treatment ID
-                    long tid = resultSet.getLong("tid");
-
-                    // Delete the treatment
-                    deleteById(tid);
+    public int deleteExpiredLocks(int maxRows) throws SQLException {
+        return measure("deleteExpiredLocks", () -> {
+            // 'lockedDate' is stored as 'yyyy-MM-dd', so the dates compare as strings
+            String today = DateConverter.convertLocalDateToString(LocalDate.now());
+
+            // Delete one chunk of the oldest expired locks; SQLite has no LIMIT on DELETE, hence the sub query
+            String sql = "DELETE FROM treatment WHERE tid IN (" +
+                    "SELECT tid FROM treatment WHERE locked = 1 AND lockedDate < ? ORDER BY lockedDate LIMIT ?)";
+
+            int deleted = 0;
+            while (deleted < maxRows) {
+                int chunk = Math.min(getBatchSize(), maxRows - deleted);
+                int chunkDeleted;
+                try (ConnectionLease lease = leaseWriteConnection()) {
+                    Connection connection = lease.getConnection();
+                    chunkDeleted = inTransaction(connection, () -> {
+                        PreparedStatement pstmt = prepareStatement(connection, sql);
+                        pstmt.setString(1, today);
+                        pstmt.setInt(2, chunk);
+                        return pstmt.executeUpdate();
+                    });
+                }
+                deleted += chunkDeleted;
+                // A short chunk means there are no expired locks left
+                if (chunkDeleted < chunk) {
+                    break;
                 }
             }
-        }
+            return deleted;
+        }, Integer::intValue);
+    }
+
+    /**
+     * This method deletes all treatments whose lock date has expired, see {@link #deleteExpiredLocks(int)}.
+     *
+     * @return The number of deleted treatments.
+     * @throws SQLException if a database error occurs
+     */
+    public int deleteExpiredLocks() throws SQLException {
+        return deleteExpiredLocks(Integer.MAX_VALUE);
     }
-}
\ No newline at end of file
+}
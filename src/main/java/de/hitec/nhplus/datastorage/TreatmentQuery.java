@@ -0,0 +1,305 @@
+package de.hitec.nhplus.datastorage;
+
+import de.hitec.nhplus.model.Treatment;
+import de.hitec.nhplus.utils.DateConverter;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A <code>TreatmentQuery</code> describes which treatments {@link TreatmentDao} reads and in which order. The filters
+ * are combined with <code>AND</code>; a filter that is not set does not restrict the treatments. All values are bound
+ * as parameters, so the SQL text only depends on which filters are set and on the order. The DAO prepares one cached
+ * statement per such query shape.
+ * <p>
+ * A query is built by chaining its setters, e.g.
+ * <code>new TreatmentQuery().patient(pid).from(start).to(end).orderBy(TreatmentQuery.Order.DATE_DESCENDING)</code>.
+ */
+public class TreatmentQuery {
+
+    /**
+     * Which treatments are read by their lock.
+     */
+    public enum LockState {
+        UNLOCKED("locked is not true"),
+        LOCKED("locked is true"),
+        ALL(null);
+
+        private final String condition;
+
+        LockState(String condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * The order of the treatments. Every order ends with the treatment id, so it is unique and a page can be continued
+     * after its last treatment.
+     */
+    public enum Order {
+        ID("tid", false),
+        ID_DESCENDING("tid", true),
+        DATE("treatment_date, begin, tid", false),
+        DATE_DESCENDING("treatment_date, begin, tid", true);
+
+        private final String columns;
+        private final boolean descending;
+
+        Order(String columns, boolean descending) {
+            this.columns = columns;
+            this.descending = descending;
+        }
+
+        public boolean isDescending() {
+            return this.descending;
+        }
+    }
+
+    private long pid;
+    private LocalDate from;
+    private LocalDate to;
+    private String descriptionPrefix;
+    private LockState lockState = LockState.UNLOCKED;
+    private Order order = Order.ID;
+    private int limit;
+
+    /**
+     * Only reads the treatments of a patient.
+     *
+     * @param pid Patient id, 0 for the treatments of all patients.
+     * @return This query.
+     */
+    public TreatmentQuery patient(long pid) {
+        this.pid = pid;
+        return this;
+    }
+
+    /**
+     * Only reads the treatments on or after a day.
+     *
+     * @param from First day, <code>null</code> for no lower bound.
+     * @return This query.
+     */
+    public TreatmentQuery from(LocalDate from) {
+        this.from = from;
+        return this;
+    }
+
+    /**
+     * Only reads the treatments on or before a day.
+     *
+     * @param to Last day, <code>null</code> for no upper bound.
+     * @return This query.
+     */
+    public TreatmentQuery to(LocalDate to) {
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Only reads the treatments whose description starts with the prefix, ignoring the case of ASCII letters.
+     *
+     * @param descriptionPrefix Prefix of the description, <code>null</code> or blank for all descriptions.
+     * @return This query.
+     */
+    public TreatmentQuery descriptionPrefix(String descriptionPrefix) {
+        this.descriptionPrefix = descriptionPrefix == null || descriptionPrefix.isBlank() ? null : descriptionPrefix;
+        return this;
+    }
+
+    /**
+     * @param lockState Which treatments are read by their lock, {@link LockState#UNLOCKED} by default.
+     * @return This query.
+     */
+    public TreatmentQuery lockState(LockState lockState) {
+        this.lockState = lockState;
+        return this;
+    }
+
+    /**
+     * @param order Order of the treatments, {@link Order#ID} by default.
+     * @return This query.
+     */
+    public TreatmentQuery orderBy(Order order) {
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * @param limit Maximum number of treatments of {@link TreatmentDao#readMatching(TreatmentQuery)}, 0 for all.
+     * @return This query.
+     */
+    public TreatmentQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public long getPid() {
+        return this.pid;
+    }
+
+    public Order getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @param treatment A treatment.
+     * @return <code>true</code> if the treatment meets the filters of this query, e.g. to decide whether a new
+     * treatment is shown.
+     */
+    public boolean matches(Treatment treatment) {
+        if (this.pid != 0 && treatment.getPid() != this.pid) {
+            return false;
+        }
+        LocalDate date = DateConverter.convertStringToLocalDate(treatment.getDate());
+        if ((this.from != null && date.isBefore(this.from)) || (this.to != null && date.isAfter(this.to))) {
+            return false;
+        }
+        if (this.descriptionPrefix != null && !treatment.getDescription().regionMatches(true, 0,
+                this.descriptionPrefix, 0, this.descriptionPrefix.length())) {
+            return false;
+        }
+        boolean locked = Boolean.TRUE.equals(treatment.getLocked());
+        return switch (this.lockState) {
+            case UNLOCKED -> !locked;
+            case LOCKED -> locked;
+            case ALL -> true;
+        };
+    }
+
+    /**
+     * @return SQL to read the treatments, with the limit of this query.
+     */
+    String selectSql() {
+        return "SELECT * FROM treatment" + where(false) + orderBy() + (this.limit > 0 ? " LIMIT ?" : "");
+    }
+
+    /**
+     * @param seek <code>true</code> if the window starts after a given treatment.
+     * @return SQL to read a window of the treatments, with parameters for the limit and the offset.
+     */
+    String windowSql(boolean seek) {
+        return "SELECT * FROM treatment" + where(seek) + orderBy() + " LIMIT ? OFFSET ?";
+    }
+
+    /**
+     * @return SQL to count the treatments.
+     */
+    String countSql() {
+        return "SELECT COUNT(*) FROM treatment" + where(false);
+    }
+
+    /**
+     * @return The filters of this query on the columns of the joined table <code>treatment</code>, each appended with
+     * <code>AND</code>, e.g. for the full-text search; empty if no filter is set.
+     */
+    String joinedFilterSql() {
+        StringBuilder sql = new StringBuilder();
+        for (String condition : filters("treatment.")) {
+            sql.append(" AND ").append(condition);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Binds the values of the filters in the order of their placeholders.
+     *
+     * @param statement Statement prepared from SQL of this query.
+     * @param after Treatment before the window for {@link #windowSql(boolean)} with a seek, otherwise <code>null</code>.
+     * @return Index of the next parameter.
+     */
+    int bind(PreparedStatement statement, Treatment after) throws SQLException {
+        return bind(statement, after, 1);
+    }
+
+    /**
+     * Binds the values of the filters in the order of their placeholders, starting at the given parameter, e.g. after
+     * the parameters of a search that comes before {@link #joinedFilterSql()}.
+     *
+     * @param statement Statement prepared from SQL that contains the filters of this query.
+     * @param after Treatment before the window for {@link #windowSql(boolean)} with a seek, otherwise <code>null</code>.
+     * @param index Index of the first parameter of the filters.
+     * @return Index of the next parameter.
+     */
+    int bind(PreparedStatement statement, Treatment after, int index) throws SQLException {
+        if (this.pid != 0) {
+            statement.setLong(index++, this.pid);
+        }
+        if (this.from != null) {
+            statement.setString(index++, DateConverter.convertLocalDateToString(this.from));
+        }
+        if (this.to != null) {
+            statement.setString(index++, DateConverter.convertLocalDateToString(this.to));
+        }
+        if (this.descriptionPrefix != null) {
+            statement.setString(index++, escapeLike(this.descriptionPrefix) + "%");
+        }
+        if (after != null) {
+            if (this.order == Order.DATE || this.order == Order.DATE_DESCENDING) {
+                statement.setString(index++, after.getDate());
+                statement.setString(index++, after.getBegin());
+            }
+            statement.setLong(index++, after.getTid());
+        }
+        return index;
+    }
+
+    int getLimit() {
+        return this.limit;
+    }
+
+    private String where(boolean seek) {
+        List<String> conditions = filters("");
+        if (seek) {
+            // Row values compare column by column, like the order
+            String comparison = this.order.descending ? " < " : " > ";
+            conditions.add(this.order.columns.contains(",")
+                    ? "(" + this.order.columns + ")" + comparison + "(?, ?, ?)"
+                    : this.order.columns + comparison + "?");
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    /**
+     * @param table Prefix of the columns, e.g. <code>treatment.</code> if other tables with the same columns are joined.
+     * @return The conditions of the filters that are set, in the order of their placeholders.
+     */
+    private List<String> filters(String table) {
+        List<String> conditions = new ArrayList<>();
+        if (this.pid != 0) {
+            conditions.add(table + "pid = ?");
+        }
+        if (this.from != null) {
+            conditions.add(table + "treatment_date >= ?");
+        }
+        if (this.to != null) {
+            conditions.add(table + "treatment_date <= ?");
+        }
+        if (this.descriptionPrefix != null) {
+            conditions.add(table + "description LIKE ? ESCAPE '\\'");
+        }
+        if (this.lockState.condition != null) {
+            conditions.add(table + this.lockState.condition);
+        }
+        return conditions;
+    }
+
+    private String orderBy() {
+        String direction = this.order.descending ? " DESC" : "";
+        return " ORDER BY " + String.join(direction + ", ", this.order.columns.split(", ")) + direction;
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    @Override
+    public String toString() {
+        return "TreatmentQuery[pid=" + this.pid + ", from=" + this.from + ", to=" + this.to + ", descriptionPrefix="
+                + this.descriptionPrefix + ", lockState=" + this.lockState + ", order=" + this.order + ", limit="
+                + this.limit + "]";
+    }
+}
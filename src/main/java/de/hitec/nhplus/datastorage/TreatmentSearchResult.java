@@ -0,0 +1,64 @@
+package de.hitec.nhplus.datastorage;
+
+import de.hitec.nhplus.model.Treatment;
+
+/**
+ * A <code>TreatmentSearchResult</code> is a treatment found by {@link TreatmentDao#search(String, TreatmentQuery, int)}, together with
+ * its rank and the matched words of its description and remark. The matched words are enclosed in
+ * {@link TreatmentDao#HIGHLIGHT_START} and {@link TreatmentDao#HIGHLIGHT_END}.
+ */
+public final class TreatmentSearchResult {
+
+    private final Treatment treatment;
+    private final double rank;
+    private final String highlightedDescription;
+    private final String remarkSnippet;
+
+    TreatmentSearchResult(Treatment treatment, double rank, String highlightedDescription, String remarkSnippet) {
+        this.treatment = treatment;
+        this.rank = rank;
+        this.highlightedDescription = highlightedDescription;
+        this.remarkSnippet = remarkSnippet;
+    }
+
+    public Treatment getTreatment() {
+        return this.treatment;
+    }
+
+    /**
+     * @return BM25 rank of the treatment; the lower, the better the treatment matches.
+     */
+    public double getRank() {
+        return this.rank;
+    }
+
+    /**
+     * @return The whole description with the matched words highlighted.
+     */
+    public String getHighlightedDescription() {
+        return this.highlightedDescription;
+    }
+
+    /**
+     * @return The part of the remark around its matched words, or <code>null</code> if only the description matched.
+     */
+    public String getRemarkSnippet() {
+        return this.remarkSnippet;
+    }
+
+    /**
+     * @return The highlighted description, followed by the remark snippet if the remark matched, on a single line.
+     */
+    public String getSummary() {
+        String summary = this.remarkSnippet == null
+                ? this.highlightedDescription
+                : this.highlightedDescription + " – " + this.remarkSnippet;
+        return summary.replace('\n', ' ');
+    }
+
+    @Override
+    public String toString() {
+        return "TreatmentSearchResult[tid=" + this.treatment.getTid() + ", rank=" + this.rank + ", summary="
+                + getSummary() + "]";
+    }
+}
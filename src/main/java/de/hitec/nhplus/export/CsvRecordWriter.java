@@ -0,0 +1,76 @@
+package de.hitec.nhplus.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes records as CSV with a header row. Values are separated by semicolons; a value that contains a separator, a
+ * quote or a line break is quoted, with quotes doubled.
+ */
+public class CsvRecordWriter implements RecordWriter {
+
+    private static final char SEPARATOR = ';';
+    private static final char QUOTE = '"';
+
+    private final Writer writer;
+
+    /**
+     * Creates the writer and writes the header row.
+     *
+     * @param writer Character stream to write to, owned by this writer.
+     * @param columns Names of the columns.
+     * @throws IOException if the header could not be written.
+     */
+    public CsvRecordWriter(Writer writer, List<String> columns) throws IOException {
+        this.writer = writer;
+        write(columns.toArray(new String[0]));
+    }
+
+    @Override
+    public void write(String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                this.writer.write(SEPARATOR);
+            }
+            writeValue(values[i]);
+        }
+        this.writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+
+    private void writeValue(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuotes(value)) {
+            this.writer.write(value);
+            return;
+        }
+        this.writer.write(QUOTE);
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == QUOTE) {
+                // Write up to and including the quote, it is written a second time with the next chunk
+                this.writer.write(value, start, i - start + 1);
+                start = i;
+            }
+        }
+        this.writer.write(value, start, value.length() - start);
+        this.writer.write(QUOTE);
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == SEPARATOR || c == QUOTE || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,47 @@
+package de.hitec.nhplus.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * The file formats of an export.
+ */
+public enum ExportFormat {
+    CSV("CSV", ".csv"),
+    JSON_LINES("JSON Lines", ".jsonl");
+
+    private final String displayName;
+    private final String extension;
+
+    ExportFormat(String displayName, String extension) {
+        this.displayName = displayName;
+        this.extension = extension;
+    }
+
+    public String getDisplayName() {
+        return this.displayName;
+    }
+
+    /**
+     * @return File extension of the format, including the dot.
+     */
+    public String getExtension() {
+        return this.extension;
+    }
+
+    /**
+     * Creates a writer for records with the given columns.
+     *
+     * @param writer Character stream to write to, owned by the returned writer.
+     * @param columns Names of the columns.
+     * @return Writer for the records.
+     * @throws IOException if the beginning of the file, e.g. a header, could not be written.
+     */
+    public RecordWriter createWriter(Writer writer, List<String> columns) throws IOException {
+        return switch (this) {
+            case CSV -> new CsvRecordWriter(writer, columns);
+            case JSON_LINES -> new JsonLinesRecordWriter(writer, columns);
+        };
+    }
+}
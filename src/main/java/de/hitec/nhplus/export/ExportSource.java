@@ -0,0 +1,190 @@
+package de.hitec.nhplus.export;
+
+import de.hitec.nhplus.datastorage.CaregiverDao;
+import de.hitec.nhplus.datastorage.DaoFactory;
+import de.hitec.nhplus.datastorage.PatientDao;
+import de.hitec.nhplus.datastorage.TreatmentDao;
+import de.hitec.nhplus.datastorage.TreatmentQuery;
+import de.hitec.nhplus.datastorage.UncheckedSQLException;
+import de.hitec.nhplus.model.Caregiver;
+import de.hitec.nhplus.model.Patient;
+import de.hitec.nhplus.model.Treatment;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * An <code>ExportSource</code> provides the rows of one export file. The rows are streamed from the DAOs, so an
+ * export never holds more than the current row in memory.
+ */
+public interface ExportSource {
+
+    /**
+     * @return Names of the columns of the rows.
+     */
+    List<String> getColumns();
+
+    /**
+     * Counts the rows, to report the progress of the export.
+     *
+     * @return Number of rows, or -1 if it is not known in advance.
+     * @throws SQLException if the rows could not be counted.
+     */
+    long count() throws SQLException;
+
+    /**
+     * Opens the rows. The stream holds database resources and has to be closed.
+     *
+     * @return Stream of the rows, every row has one value per column.
+     * @throws SQLException if the rows could not be queried.
+     */
+    Stream<String[]> openRows() throws SQLException;
+
+    List<String> PATIENT_COLUMNS = List.of("pid", "firstName", "surname", "dateOfBirth", "careLevel", "roomNumber");
+
+    List<String> TREATMENT_COLUMNS = List.of("tid", "pid", "date", "begin", "end", "description", "remarks",
+            "locked", "lockedDate");
+
+    List<String> CAREGIVER_COLUMNS = List.of("pid", "username", "firstName", "surname", "dateOfBirth",
+            "telephoneNumber", "isAdmin");
+
+    /**
+     * @return Source of all patients that are not locked.
+     */
+    static ExportSource allPatients() {
+        PatientDao dao = DaoFactory.getDaoFactory().createPatientDAO();
+        return of(PATIENT_COLUMNS, dao::countAll, () -> dao.streamAll().map(ExportSource::patientRow));
+    }
+
+    /**
+     * @param patients Patients to export, e.g. the selection of a table.
+     * @return Source of the given patients.
+     */
+    static ExportSource patients(List<Patient> patients) {
+        List<Patient> copy = new ArrayList<>(patients);
+        return of(PATIENT_COLUMNS, copy::size, () -> copy.stream().map(ExportSource::patientRow));
+    }
+
+    /**
+     * Source of the complete treatment histories of the given patients, including locked treatments. The treatments
+     * are streamed patient by patient.
+     *
+     * @param pids Ids of the patients.
+     * @return Source of the treatments of the patients.
+     */
+    static ExportSource treatmentsOfPatients(List<Long> pids) {
+        TreatmentDao dao = DaoFactory.getDaoFactory().createTreatmentDao();
+        List<Long> copy = new ArrayList<>(pids);
+        return of(TREATMENT_COLUMNS, () -> {
+            long count = 0;
+            for (long pid : copy) {
+                count += dao.countTreatmentsByPid(pid);
+            }
+            return count;
+        }, () -> copy.stream().flatMap(pid -> {
+            try {
+                return dao.streamTreatmentsByPid(pid);
+            } catch (SQLException exception) {
+                throw new UncheckedSQLException(exception);
+            }
+        }).map(ExportSource::treatmentRow));
+    }
+
+    /**
+     * Source of the complete treatment histories of all patients, including locked treatments, for a full export of
+     * the facility. Unlike {@link #treatmentsOfPatients(List)}, the treatments are streamed by one statement in the
+     * order of their id.
+     *
+     * @return Source of all treatments.
+     */
+    static ExportSource allTreatments() {
+        TreatmentDao dao = DaoFactory.getDaoFactory().createTreatmentDao();
+        TreatmentQuery query = new TreatmentQuery().lockState(TreatmentQuery.LockState.ALL);
+        return of(TREATMENT_COLUMNS, () -> dao.countMatching(query),
+                () -> dao.streamMatching(query).map(ExportSource::treatmentRow));
+    }
+
+    /**
+     * @return Source of all caregivers that are not locked. The password hashes are not exported.
+     */
+    static ExportSource allCaregivers() {
+        CaregiverDao dao = DaoFactory.getDaoFactory().createCaregiverDAO();
+        return of(CAREGIVER_COLUMNS, dao::countAll, () -> dao.streamAll().map(ExportSource::caregiverRow));
+    }
+
+    /**
+     * Creates a source from its parts.
+     *
+     * @param columns Names of the columns.
+     * @param count Counts the rows.
+     * @param rows Opens the rows.
+     * @return The source.
+     */
+    static ExportSource of(List<String> columns, Count count, Rows rows) {
+        return new ExportSource() {
+            @Override
+            public List<String> getColumns() {
+                return columns;
+            }
+
+            @Override
+            public long count() throws SQLException {
+                return count.count();
+            }
+
+            @Override
+            public Stream<String[]> openRows() throws SQLException {
+                return rows.open();
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Count {
+        long count() throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface Rows {
+        Stream<String[]> open() throws SQLException;
+    }
+
+    private static String[] patientRow(Patient patient) {
+        return new String[]{
+                String.valueOf(patient.getPid()),
+                patient.getFirstName(),
+                patient.getSurname(),
+                patient.getDateOfBirth(),
+                patient.getCareLevel(),
+                patient.getRoomNumber()
+        };
+    }
+
+    private static String[] treatmentRow(Treatment treatment) {
+        return new String[]{
+                String.valueOf(treatment.getTid()),
+                String.valueOf(treatment.getPid()),
+                treatment.getDate(),
+                treatment.getBegin(),
+                treatment.getEnd(),
+                treatment.getDescription(),
+                treatment.getRemarks(),
+                String.valueOf(Boolean.TRUE.equals(treatment.getLocked())),
+                treatment.getLockedDate()
+        };
+    }
+
+    private static String[] caregiverRow(Caregiver caregiver) {
+        return new String[]{
+                String.valueOf(caregiver.getPid()),
+                caregiver.getUsername(),
+                caregiver.getFirstName(),
+                caregiver.getSurname(),
+                caregiver.getDateOfBirth(),
+                caregiver.getTelephoneNumber(),
+                String.valueOf(caregiver.isAdmin())
+        };
+    }
+}
@@ -0,0 +1,138 @@
+package de.hitec.nhplus.export;
+
+import javafx.concurrent.Task;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The <code>ExportTask</code> writes one or more {@link ExportSource}s into files. It is a JavaFX <code>Task</code>:
+ * it is meant to run on a background thread, reports its progress in rows and can be cancelled. Files of a cancelled
+ * or failed export are deleted. The value of the task is the number of exported rows.
+ */
+public class ExportTask extends Task<Long> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // The progress is updated every this many rows, which keeps the number of runLater calls low
+    private static final int PROGRESS_INTERVAL = 1_000;
+
+    private final ExportFormat format;
+    private final boolean gzip;
+    private final List<Path> files = new ArrayList<>();
+    private final List<ExportSource> sources = new ArrayList<>();
+
+    /**
+     * Creates an export without files.
+     *
+     * @param format Format of the files.
+     * @param gzip Whether the files are compressed with gzip.
+     */
+    public ExportTask(ExportFormat format, boolean gzip) {
+        this.format = format;
+        this.gzip = gzip;
+        updateTitle("Export");
+    }
+
+    /**
+     * Adds a file to the export. Must be called before the task is started.
+     *
+     * @param source Rows of the file.
+     * @param file Path of the file, an existing file is overwritten.
+     * @return This task.
+     */
+    public ExportTask add(ExportSource source, Path file) {
+        this.sources.add(source);
+        this.files.add(file);
+        return this;
+    }
+
+    /**
+     * Returns the file name for an export with the given base name, with the extension of the format and of gzip.
+     *
+     * @param baseName File name without extension.
+     * @param format Format of the file.
+     * @param gzip Whether the file is compressed with gzip.
+     * @return The file name.
+     */
+    public static String fileName(String baseName, ExportFormat format, boolean gzip) {
+        return baseName + format.getExtension() + (gzip ? ".gz" : "");
+    }
+
+    @Override
+    protected Long call() throws Exception {
+        long total = 0;
+        for (ExportSource source : this.sources) {
+            long count = source.count();
+            if (count < 0) {
+                total = -1;
+                break;
+            }
+            total += count;
+        }
+
+        long rows = 0;
+        try {
+            for (int i = 0; i < this.sources.size(); i++) {
+                updateMessage("Exportiere " + this.files.get(i).getFileName());
+                rows = export(this.sources.get(i), this.files.get(i), rows, total);
+            }
+        } catch (Exception exception) {
+            deleteFiles();
+            throw exception;
+        }
+        updateProgress(rows, rows);
+        updateMessage(rows + " Datensätze exportiert");
+        return rows;
+    }
+
+    private long export(ExportSource source, Path file, long rows, long total) throws Exception {
+        try (RecordWriter writer = this.format.createWriter(openWriter(file), source.getColumns());
+             Stream<String[]> stream = source.openRows()) {
+            Iterator<String[]> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+                writer.write(iterator.next());
+                if (++rows % PROGRESS_INTERVAL == 0) {
+                    updateProgress(rows, total);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private BufferedWriter openWriter(Path file) throws IOException {
+        OutputStream output = Files.newOutputStream(file);
+        try {
+            if (this.gzip) {
+                output = new GZIPOutputStream(output, BUFFER_SIZE);
+            }
+        } catch (IOException exception) {
+            output.close();
+            throw exception;
+        }
+        return new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private void deleteFiles() {
+        for (Path file : this.files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.hitec.nhplus.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes records as JSON Lines: every record is one JSON object on its own line, with the column names as keys and
+ * the values as strings. <code>null</code> values are written as JSON <code>null</code>.
+ */
+public class JsonLinesRecordWriter implements RecordWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private final String[] keys;
+
+    /**
+     * Creates the writer. The column names are escaped once here and reused for every record.
+     *
+     * @param writer Character stream to write to, owned by this writer.
+     * @param columns Names of the columns, used as the keys of the objects.
+     */
+    public JsonLinesRecordWriter(Writer writer, List<String> columns) {
+        this.writer = writer;
+        this.keys = new String[columns.size()];
+        for (int i = 0; i < this.keys.length; i++) {
+            StringBuilder key = new StringBuilder();
+            appendString(key, columns.get(i));
+            this.keys[i] = key.append(':').toString();
+        }
+    }
+
+    @Override
+    public void write(String[] values) throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        line.append('{');
+        for (int i = 0; i < this.keys.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(this.keys[i]);
+            String value = i < values.length ? values[i] : null;
+            if (value == null) {
+                line.append("null");
+            } else {
+                appendString(line, value);
+            }
+        }
+        line.append("}\n");
+        this.writer.append(line);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,20 @@
+package de.hitec.nhplus.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A <code>RecordWriter</code> writes the records of an export, one row of values at a time, to a character stream.
+ * The columns of the records are fixed when the writer is created, see {@link ExportFormat#createWriter}.
+ */
+public interface RecordWriter extends Closeable {
+
+    /**
+     * Writes one record.
+     *
+     * @param values The values of the record, in the order of the columns. <code>null</code> is written as an empty
+     *               value.
+     * @throws IOException if the record could not be written.
+     */
+    void write(String[] values) throws IOException;
+}
@@ -1,68 +1,120 @@
 package de.hitec.nhplus.service;
 
-import de.hitec.nhplus.datastorage.ConnectionBuilder;
+import de.hitec.nhplus.datastorage.CaregiverDao;
+import de.hitec.nhplus.datastorage.DaoFactory;
 import de.hitec.nhplus.model.Caregiver;
-import de.hitec.nhplus.utils.DateConverter;
 import de.hitec.nhplus.utils.PasswordUtil;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.security.SecureRandom;
 import java.sql.SQLException;
+import java.util.Base64;
+import java.util.concurrent.RejectedExecutionException;
 
 
 /**
  * This class provides services related to the Caregiver model.
  * It contains a method for authenticating a caregiver based on their username and password.
+ * Failed logins are counted per username by a {@link LoginThrottle} that is shared by all instances.
  */
 public class CaregiverService {
 
+    // The failed logins of all login windows
+    private static final LoginThrottle loginThrottle = new LoginThrottle();
+
     /**
      * This method authenticates a caregiver based on their username and password.
-     * It first checks if the username and password are not null.
-     * Then it establishes a connection to the database and prepares a SQL statement to select the caregiver with the given username who is not locked.
-     * It executes the SQL statement and retrieves the result.
-     * It retrieves the hashed password from the result and checks if it matches the given password.
-     * If the result contains a next row and the password matches, it creates a new Caregiver object with the data from the result and returns it.
-     * If the result does not contain a next row or the password does not match, it returns null.
-     * If a SQL exception occurs, it prints the stack trace and returns null.
+     * It first checks if the username and password are not null and reserves the attempt, which is refused if the
+     * username is locked because of too many failed logins. The attempt counts as a failed login until it succeeds.
+     * Then it reads the caregiver with the given username who is not locked with a single indexed lookup and checks if
+     * the given password matches the password hash of the caregiver. If there is no such caregiver, the password is
+     * checked against a dummy hash instead. Every login also checks a dummy hash of the other version, so that an
+     * unknown username takes as long as a wrong password, whichever version the stored hashes have.
+     * If the password matches, the failed logins of the username are reset and the caregiver is returned; if the
+     * password hash was created with an older version or iteration count, it is replaced by a new hash.
+     * Otherwise null is returned. If the password cannot be checked because too many logins are waiting for the
+     * {@link PasswordHasher}, the attempt is taken back and the login is refused as busy.
+     * If a SQL exception occurs, the attempt is taken back as well; it prints the stack trace and returns null.
      *
      * @param username The username of the caregiver.
      * @param password The password of the caregiver.
      * @return The authenticated caregiver, or null if the authentication failed.
+     * @throws LoginThrottledException If the username is locked because of too many failed logins.
+     * @throws LoginBusyException If the password could not be checked because the hasher is busy.
      */
-    public Caregiver authenticate(String username, String password) {
+    public Caregiver authenticate(String username, String password)
+            throws LoginThrottledException, LoginBusyException {
         if (username == null || password == null) {
             return null;
         }
-        Caregiver caregiver = null;
+        long remainingLockout = loginThrottle.reserveAttempt(username);
+        if (remainingLockout > 0) {
+            throw new LoginThrottledException(remainingLockout);
+        }
+        Caregiver caregiver;
         try {
-            Connection connection = ConnectionBuilder.getConnection();
-            PreparedStatement statement = connection.prepareStatement("SELECT * FROM caregiver WHERE username = ? AND locked is not true");
-            statement.setString(1, username);
-
-            ResultSet resultSet = statement.executeQuery();
-
-            String password_hash = resultSet.getString("password_hash");
-            boolean password_match = PasswordUtil.checkPassword(password, password_hash);
-
-            if (resultSet.next() && password_match) {
-                caregiver = new Caregiver(
-                        resultSet.getLong("pid"),
-                        resultSet.getString("username"),
-                        resultSet.getString("firstname"),
-                        resultSet.getString("surname"),
-                        DateConverter.convertStringToLocalDate(resultSet.getString("dateOfBirth")),
-                        resultSet.getString("telephoneNumber"),
-                        password_hash,
-                        resultSet.getBoolean("isAdmin")
-                );
-            } else {
-                return null;
-            }
+            caregiver = DaoFactory.getDaoFactory().createCaregiverDAO().readByUsername(username);
         } catch (SQLException e) {
+            // The password was not checked, so the attempt does not count as a failed login
+            loginThrottle.releaseAttempt(username);
             e.printStackTrace();
+            return null;
         }
+        String password_hash = caregiver != null ? caregiver.getPassword_hash() : DummyHash.CURRENT;
+        boolean password_match;
+        try {
+            password_match = PasswordUtil.checkPassword(password, password_hash);
+            // A legacy hash is much cheaper to check than a current one, so the other version is checked as well
+            PasswordUtil.checkPassword(password,
+                    PasswordUtil.needsRehash(password_hash) ? DummyHash.CURRENT : DummyHash.LEGACY);
+        } catch (RejectedExecutionException e) {
+            loginThrottle.releaseAttempt(username);
+            throw new LoginBusyException(e);
+        }
+
+        if (caregiver == null || !password_match) {
+            return null;
+        }
+        loginThrottle.recordSuccess(username);
+        rehashIfNeeded(caregiver, password);
         return caregiver;
     }
-}
\ No newline at end of file
+
+    /**
+     * Replaces the password hash of a caregiver who just logged in if it was not created with the current version and
+     * iteration count of the {@link PasswordHasher}. A failed update, or a hasher that is too busy, only keeps the old
+     * hash until the next login.
+     *
+     * @param caregiver The authenticated caregiver.
+     * @param password The password the caregiver logged in with.
+     */
+    private void rehashIfNeeded(Caregiver caregiver, String password) {
+        if (!PasswordUtil.needsRehash(caregiver.getPassword_hash())) {
+            return;
+        }
+        try {
+            String passwordHash = PasswordUtil.generatePassword(password);
+            CaregiverDao dao = DaoFactory.getDaoFactory().createCaregiverDAO();
+            dao.updatePasswordHash(caregiver.getPid(), passwordHash);
+            caregiver.setPassword_hash(passwordHash);
+        } catch (SQLException | RejectedExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The hashes that passwords are checked against in place of a stored hash: a hash of the current version for
+     * unknown usernames and for the stored legacy hashes, and a legacy hash for the stored current hashes. They are
+     * created on the first login, the current one on the calling thread, so that a busy hasher cannot fail the
+     * initialization. The legacy hash is a random salt and key, which is checked like a real one.
+     */
+    private static final class DummyHash {
+        private static final String CURRENT = PasswordHasher.getInstance().hashNow(Long.toString(System.nanoTime()));
+        private static final String LEGACY = randomBase64(16) + ":" + randomBase64(32);
+
+        private static String randomBase64(int length) {
+            byte[] bytes = new byte[length];
+            new SecureRandom().nextBytes(bytes);
+            return Base64.getEncoder().encodeToString(bytes);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package de.hitec.nhplus.service;
+
+import de.hitec.nhplus.datastorage.ConnectionBuilder;
+import de.hitec.nhplus.datastorage.QueryTracer;
+import javafx.application.Platform;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This class runs database work off the JavaFX application thread.
+ * It uses the Singleton design pattern, so that all controllers share the same worker threads.
+ * The work runs on a fixed number of daemon threads, by default one per read connection of the connection pool, and
+ * its result is handed back to the JavaFX application thread with <code>Platform.runLater</code>.
+ * The number of threads can be set with the system property <code>nhplus.db.executorThreads</code>.
+ * The work and its callbacks continue the {@link QueryTracer.Action} of the thread that submitted the work, so their
+ * statements are counted for the user action that caused them.
+ */
+public class DbTaskExecutor {
+    // The single instance of the DbTaskExecutor class
+    private static DbTaskExecutor instance;
+
+    // The threads running the database work
+    private final ExecutorService executor;
+
+    /**
+     * A unit of database work without a result.
+     */
+    @FunctionalInterface
+    public interface DbAction {
+        void run() throws Exception;
+    }
+
+    /**
+     * The private constructor prevents other classes from creating new instances of the DbTaskExecutor class.
+     */
+    private DbTaskExecutor() {
+        int threads = Integer.getInteger("nhplus.db.executorThreads", ConnectionBuilder.getPool().getReadConnections());
+        AtomicInteger number = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "nhplus-db-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * This method returns the single instance of the DbTaskExecutor class.
+     * If the instance does not exist, it is created.
+     *
+     * @return The single instance of the DbTaskExecutor class.
+     */
+    public static synchronized DbTaskExecutor getInstance() {
+        if (instance == null) {
+            instance = new DbTaskExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Runs the given work on a database thread.
+     *
+     * @param work Work to run, e.g. a DAO call.
+     * @return Future that is completed with the result of the work on the database thread.
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        QueryTracer.Action action = QueryTracer.captureAction();
+        this.executor.execute(() -> {
+            QueryTracer.Scope scope = QueryTracer.resume(action);
+            try {
+                future.complete(work.call());
+            } catch (Throwable exception) {
+                future.completeExceptionally(exception);
+            } finally {
+                scope.close();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs the given work on a database thread and passes its result to <code>onSuccess</code> on the JavaFX
+     * application thread. If the work fails, its stack trace is printed.
+     *
+     * @param work Work to run, e.g. a DAO call.
+     * @param onSuccess Called with the result on the JavaFX application thread.
+     * @return Future of the work.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> work, Consumer<? super T> onSuccess) {
+        return submit(work, onSuccess, Throwable::printStackTrace);
+    }
+
+    /**
+     * Runs the given work on a database thread and passes its result to <code>onSuccess</code>, or the exception it
+     * threw to <code>onError</code>, on the JavaFX application thread.
+     *
+     * @param work Work to run, e.g. a DAO call.
+     * @param onSuccess Called with the result on the JavaFX application thread.
+     * @param onError Called with the exception of the work on the JavaFX application thread.
+     * @return Future of the work.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> work, Consumer<? super T> onSuccess, Consumer<Throwable> onError) {
+        QueryTracer.Action action = QueryTracer.captureAction();
+        CompletableFuture<T> future = supply(work);
+        future.whenCompleteAsync((result, exception) -> {
+            QueryTracer.Scope scope = QueryTracer.resume(action);
+            try {
+                if (exception == null) {
+                    onSuccess.accept(result);
+                } else {
+                    onError.accept(unwrap(exception));
+                }
+            } finally {
+                scope.close();
+            }
+        }, Platform::runLater);
+        return future;
+    }
+
+    /**
+     * Runs the given work on a database thread and calls <code>onSuccess</code> on the JavaFX application thread when
+     * it is done. If the work fails, its stack trace is printed.
+     *
+     * @param work Work to run, e.g. a DAO call.
+     * @param onSuccess Called on the JavaFX application thread after the work is done.
+     * @return Future of the work.
+     */
+    public CompletableFuture<Void> run(DbAction work, Runnable onSuccess) {
+        return submit(() -> {
+            work.run();
+            return null;
+        }, result -> onSuccess.run());
+    }
+
+    /**
+     * Runs the given work on a database thread. If the work fails, its stack trace is printed.
+     *
+     * @param work Work to run, e.g. a DAO call.
+     * @return Future of the work.
+     */
+    public CompletableFuture<Void> run(DbAction work) {
+        return run(work, () -> {});
+    }
+
+    /**
+     * Stops accepting new work and waits up to the given time for the submitted work to finish.
+     *
+     * @param timeoutMillis Maximum time in milliseconds to wait.
+     */
+    public void shutdown(long timeoutMillis) {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Throwable unwrap(Throwable exception) {
+        while ((exception instanceof CompletionException || exception instanceof ExecutionException)
+                && exception.getCause() != null) {
+            exception = exception.getCause();
+        }
+        return exception;
+    }
+}
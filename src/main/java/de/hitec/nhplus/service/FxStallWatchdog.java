@@ -0,0 +1,207 @@
+package de.hitec.nhplus.service;
+
+import de.hitec.nhplus.utils.LatencyHistogram;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class watches the JavaFX application thread for stalls, in which the user interface does not respond.
+ * It uses the Singleton design pattern, so that there is only one watchdog thread.
+ * The watchdog posts a pulse with <code>Platform.runLater</code> and waits for the application thread to run it. While
+ * a pulse is late, the stack of the application thread is sampled. If the pulse took at least the stall threshold, the
+ * stall is logged with the call site of the application in most of the samples, and its duration is counted in a
+ * histogram per call site, so that {@link #report()} can rank the call sites by their stall time. A stall that begins
+ * between two pulses is measured from the next pulse, so its duration may be short by up to the pulse interval.
+ * The threshold, the interval of the samples and the interval of the pulses can be set with the system properties
+ * <code>nhplus.fx.stallThresholdMillis</code>, <code>nhplus.fx.sampleIntervalMillis</code> and
+ * <code>nhplus.fx.pulseIntervalMillis</code>; the watchdog is switched off with <code>nhplus.fx.watchdog=false</code>.
+ */
+public class FxStallWatchdog {
+    // The single instance of the FxStallWatchdog class
+    private static FxStallWatchdog instance;
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("nhplus.fx.watchdog", "true"));
+    private static final long STALL_THRESHOLD_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("nhplus.fx.stallThresholdMillis", 100));
+    private static final long SAMPLE_INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("nhplus.fx.sampleIntervalMillis", 10));
+    private static final long PULSE_INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("nhplus.fx.pulseIntervalMillis", 50));
+
+    // Frames of the application; the first of them outside of the data storage, the services and the utilities in a
+    // sample is its call site, e.g. the controller that reads the database
+    private static final String APPLICATION_PACKAGE = "de.hitec.nhplus.";
+    private static final List<String> LIBRARY_PACKAGES = List.of("de.hitec.nhplus.datastorage.",
+            "de.hitec.nhplus.service.", "de.hitec.nhplus.utils.");
+    // Number of frames of the most frequent stack in the log of a stall
+    private static final int LOGGED_FRAMES = 6;
+
+    // The delays of all pulses
+    private final LatencyHistogram delays = new LatencyHistogram();
+    // The stalls by their call site
+    private final Map<String, LatencyHistogram> stalls = new ConcurrentHashMap<>();
+
+    private Thread applicationThread;
+    private Thread watchdog;
+
+    /**
+     * A pulse is answered when the application thread runs it.
+     */
+    private static final class Pulse implements Runnable {
+        private volatile long answered;
+
+        @Override
+        public void run() {
+            this.answered = System.nanoTime();
+        }
+    }
+
+    /**
+     * The private constructor prevents other classes from creating new instances of the FxStallWatchdog class.
+     */
+    private FxStallWatchdog() {
+    }
+
+    /**
+     * This method returns the single instance of the FxStallWatchdog class.
+     * If the instance does not exist, it is created.
+     *
+     * @return The single instance of the FxStallWatchdog class.
+     */
+    public static synchronized FxStallWatchdog getInstance() {
+        if (instance == null) {
+            instance = new FxStallWatchdog();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts watching the JavaFX application thread, unless the watchdog is switched off. Starting it again has no
+     * effect. Has to be called on the JavaFX application thread.
+     */
+    public synchronized void start() {
+        if (!ENABLED || this.watchdog != null) {
+            return;
+        }
+        this.applicationThread = Thread.currentThread();
+        this.watchdog = new Thread(this::watch, "nhplus-fx-watchdog");
+        this.watchdog.setDaemon(true);
+        this.watchdog.start();
+    }
+
+    /**
+     * @return The delays of all pulses in nanoseconds, i.e. how long user input waits for the application thread.
+     */
+    public LatencyHistogram getDelays() {
+        return this.delays;
+    }
+
+    /**
+     * @return The stalls by the call site of the application that was running during most of each stall.
+     */
+    public Map<String, LatencyHistogram> getStalls() {
+        return Map.copyOf(this.stalls);
+    }
+
+    /**
+     * @return The call sites of the stalls, the call site with the longest total stall time first, one per line
+     * together with its stall durations.
+     */
+    public String report() {
+        List<Map.Entry<String, LatencyHistogram>> sites = new ArrayList<>(this.stalls.entrySet());
+        sites.sort(Comparator.comparingLong((Map.Entry<String, LatencyHistogram> site) -> site.getValue().getTotal())
+                .reversed());
+        StringBuilder report = new StringBuilder("UI-Stillstände, Verzögerung aller Pulse: ").append(this.delays)
+                .append(System.lineSeparator());
+        for (Map.Entry<String, LatencyHistogram> site : sites) {
+            report.append(String.format("%8.0f ms  %s: %s", site.getValue().getTotal() / 1e6, site.getKey(),
+                    site.getValue())).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    private void watch() {
+        while (true) {
+            Pulse pulse = new Pulse();
+            long posted = System.nanoTime();
+            try {
+                Platform.runLater(pulse);
+            } catch (IllegalStateException exception) {
+                // The JavaFX toolkit has exited
+                return;
+            }
+            List<StackTraceElement[]> samples = new ArrayList<>();
+            while (pulse.answered == 0) {
+                if (!this.applicationThread.isAlive()) {
+                    return;
+                }
+                LockSupport.parkNanos(SAMPLE_INTERVAL_NANOS);
+                // Samples are only taken when a stall is likely, so that a responsive thread is not interrupted
+                if (pulse.answered == 0 && System.nanoTime() - posted >= STALL_THRESHOLD_NANOS / 2) {
+                    samples.add(this.applicationThread.getStackTrace());
+                }
+            }
+            long delay = pulse.answered - posted;
+            this.delays.record(delay);
+            if (delay >= STALL_THRESHOLD_NANOS) {
+                stalled(delay, samples);
+            }
+            LockSupport.parkNanos(PULSE_INTERVAL_NANOS);
+        }
+    }
+
+    private void stalled(long nanos, List<StackTraceElement[]> samples) {
+        Map<String, Integer> sites = new HashMap<>();
+        Map<String, StackTraceElement[]> stacks = new HashMap<>();
+        for (StackTraceElement[] sample : samples) {
+            String site = callSite(sample);
+            sites.merge(site, 1, Integer::sum);
+            stacks.putIfAbsent(site, sample);
+        }
+        String site = sites.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey)
+                .orElse("unbekannt");
+        this.stalls.computeIfAbsent(site, key -> new LatencyHistogram()).record(nanos);
+
+        StringBuilder log = new StringBuilder(String.format("UI blockiert für %d ms (%d von %d Stichproben in %s)",
+                TimeUnit.NANOSECONDS.toMillis(nanos), sites.getOrDefault(site, 0), samples.size(), site));
+        StackTraceElement[] stack = stacks.get(site);
+        if (stack != null) {
+            for (int frame = 0; frame < Math.min(LOGGED_FRAMES, stack.length); frame++) {
+                log.append(System.lineSeparator()).append("    at ").append(stack[frame]);
+            }
+        }
+        System.out.println(log);
+    }
+
+    /**
+     * @return The first frame of the application outside of the library packages in the sample, otherwise the first
+     * frame of the application, or the top frame if the application is not on the stack, e.g. during the layout of the
+     * scene.
+     */
+    private static String callSite(StackTraceElement[] sample) {
+        StackTraceElement library = null;
+        for (StackTraceElement frame : sample) {
+            String className = frame.getClassName();
+            if (className.startsWith(APPLICATION_PACKAGE)) {
+                if (LIBRARY_PACKAGES.stream().noneMatch(className::startsWith)) {
+                    return frame.toString();
+                }
+                if (library == null) {
+                    library = frame;
+                }
+            }
+        }
+        if (library != null) {
+            return library.toString();
+        }
+        return sample.length == 0 ? "unbekannt" : sample[0].toString();
+    }
+}
@@ -0,0 +1,17 @@
+package de.hitec.nhplus.service;
+
+/**
+ * This exception is thrown when a login is refused because the {@link PasswordHasher} has too many passwords waiting
+ * to be checked. The login may be retried a moment later; it does not count as a failed login.
+ */
+public class LoginBusyException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param cause The rejection of the password check by the full queue of the hasher.
+     */
+    public LoginBusyException(Throwable cause) {
+        super("Too many logins at the same time, retry later", cause);
+    }
+}
@@ -0,0 +1,167 @@
+package de.hitec.nhplus.service;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * This class slows down guessing passwords. It counts the failed logins per username in memory; after
+ * <code>maxFailures</code> failures within the failure window, further logins with that username are refused for the
+ * lockout time, which doubles with every further lockout up to <code>maxLockoutMillis</code>. A successful login resets
+ * the username. Usernames without failures in the failure window and without an active lockout are forgotten.
+ * Every login reserves its attempt with {@link #reserveAttempt(String)} before the password is checked, so that
+ * logins running at the same time cannot make more attempts than the failures allow.
+ */
+public class LoginThrottle {
+
+    // Above this number of usernames, the map is searched for forgotten usernames
+    private static final int PRUNE_THRESHOLD = 1_000;
+
+    private final int maxFailures;
+    private final long failureWindowMillis;
+    private final long lockoutMillis;
+    private final long maxLockoutMillis;
+    private final LongSupplier clock;
+
+    private final Map<String, Failures> failures = new ConcurrentHashMap<>();
+
+    /**
+     * The failed logins of one username. Only changed inside <code>compute</code> of the map.
+     */
+    private static final class Failures {
+        int count;
+        long firstFailure;
+        long lastFailure;
+        long lockedUntil;
+        int lockouts;
+    }
+
+    /**
+     * Creates a throttle with the settings of the system properties <code>nhplus.login.maxFailures</code>,
+     * <code>nhplus.login.failureWindowSeconds</code>, <code>nhplus.login.lockoutSeconds</code> and
+     * <code>nhplus.login.maxLockoutSeconds</code>: by default 5 failures within 15 minutes lock the username for 30
+     * seconds, at most for 15 minutes.
+     */
+    public LoginThrottle() {
+        this(Integer.getInteger("nhplus.login.maxFailures", 5),
+                Long.getLong("nhplus.login.failureWindowSeconds", 15 * 60) * 1000,
+                Long.getLong("nhplus.login.lockoutSeconds", 30) * 1000,
+                Long.getLong("nhplus.login.maxLockoutSeconds", 15 * 60) * 1000,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxFailures Number of failures that lock a username.
+     * @param failureWindowMillis Time in which the failures are counted.
+     * @param lockoutMillis Duration of the first lockout.
+     * @param maxLockoutMillis Maximum duration of a lockout.
+     * @param clock Current time in milliseconds.
+     */
+    public LoginThrottle(int maxFailures, long failureWindowMillis, long lockoutMillis, long maxLockoutMillis,
+                         LongSupplier clock) {
+        this.maxFailures = maxFailures;
+        this.failureWindowMillis = failureWindowMillis;
+        this.lockoutMillis = lockoutMillis;
+        this.maxLockoutMillis = maxLockoutMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @param username The username of the login.
+     * @return Milliseconds until logins with the username are allowed again, 0 if they are allowed.
+     */
+    public long getRemainingLockoutMillis(String username) {
+        Failures entry = this.failures.get(key(username));
+        if (entry == null) {
+            return 0;
+        }
+        synchronized (entry) {
+            return Math.max(0, entry.lockedUntil - this.clock.getAsLong());
+        }
+    }
+
+    /**
+     * Reserves an attempt to log in with the username, unless the username is locked. The attempt is counted as a
+     * failed login right away and locks the username when it reached the maximum number of failures; a successful login
+     * forgets the failures with {@link #recordSuccess(String)}.
+     *
+     * @param username The username of the login.
+     * @return 0 if the attempt was reserved, otherwise the milliseconds until logins with the username are allowed again.
+     */
+    public long reserveAttempt(String username) {
+        long now = this.clock.getAsLong();
+        long[] remainingLockout = new long[1];
+        this.failures.compute(key(username), (key, entry) -> {
+            if (entry == null || isForgotten(entry, now)) {
+                entry = new Failures();
+            }
+            synchronized (entry) {
+                if (entry.lockedUntil > now) {
+                    remainingLockout[0] = entry.lockedUntil - now;
+                    return entry;
+                }
+                if (entry.count == 0 || now - entry.firstFailure > this.failureWindowMillis) {
+                    entry.count = 0;
+                    entry.firstFailure = now;
+                }
+                entry.count++;
+                entry.lastFailure = now;
+                if (entry.count >= this.maxFailures) {
+                    // A username that was locked before is locked longer the next time
+                    long lockout = this.lockoutMillis << Math.min(entry.lockouts, 20);
+                    entry.lockedUntil = now + Math.min(lockout, this.maxLockoutMillis);
+                    entry.lockouts++;
+                    entry.count = 0;
+                }
+            }
+            return entry;
+        });
+        if (this.failures.size() > PRUNE_THRESHOLD) {
+            prune(now);
+        }
+        return remainingLockout[0];
+    }
+
+    /**
+     * Takes back an attempt reserved with {@link #reserveAttempt(String)} whose password could not be checked, e.g.
+     * because the hasher was busy or the caregiver could not be read. A lockout that the attempt caused stays in place.
+     *
+     * @param username The username of the login.
+     */
+    public void releaseAttempt(String username) {
+        this.failures.computeIfPresent(key(username), (key, entry) -> {
+            synchronized (entry) {
+                if (entry.count > 0) {
+                    entry.count--;
+                }
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * Forgets the failures of the username after a successful login.
+     *
+     * @param username The username of the login.
+     */
+    public void recordSuccess(String username) {
+        this.failures.remove(key(username));
+    }
+
+    private void prune(long now) {
+        this.failures.entrySet().removeIf(entry -> {
+            synchronized (entry.getValue()) {
+                return isForgotten(entry.getValue(), now);
+            }
+        });
+    }
+
+    private boolean isForgotten(Failures entry, long now) {
+        return now >= entry.lockedUntil && now - entry.lastFailure > this.failureWindowMillis;
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
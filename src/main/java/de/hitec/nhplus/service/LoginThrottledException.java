@@ -0,0 +1,23 @@
+package de.hitec.nhplus.service;
+
+/**
+ * This exception is thrown when a login is refused because of too many failed logins with the same username.
+ */
+public class LoginThrottledException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long remainingMillis;
+
+    /**
+     * @param remainingMillis Milliseconds until logins with the username are allowed again.
+     */
+    public LoginThrottledException(long remainingMillis) {
+        super("Too many failed logins, retry in " + remainingMillis + " ms");
+        this.remainingMillis = remainingMillis;
+    }
+
+    public long getRemainingMillis() {
+        return this.remainingMillis;
+    }
+}
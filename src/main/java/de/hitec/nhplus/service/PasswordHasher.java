@@ -0,0 +1,295 @@
+package de.hitec.nhplus.service;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hashes and verifies passwords with PBKDF2.
+ * It uses the Singleton design pattern, so that all callers share the same worker threads. Hashing is slow on purpose,
+ * so it runs on a fixed number of daemon threads with a bounded queue; a burst of logins cannot occupy every core.
+ * Hashes are stored as <code>v2$sha256$&lt;iterations&gt;$&lt;salt&gt;$&lt;hash&gt;</code>, so the iteration count can
+ * be raised without invalidating existing hashes. Hashes of the first version, <code>&lt;salt&gt;:&lt;hash&gt;</code> with
+ * 10,000 iterations of PBKDF2WithHmacSHA1, are still verified; {@link #needsRehash(String)} tells when a stored hash
+ * should be replaced after a successful login.
+ * The iteration count, the number of threads and the size of the queue can be set with the system properties
+ * <code>nhplus.password.iterations</code>, <code>nhplus.password.threads</code> and
+ * <code>nhplus.password.queueCapacity</code>.
+ */
+public class PasswordHasher {
+    // The single instance of the PasswordHasher class
+    private static PasswordHasher instance;
+
+    public static final int DEFAULT_ITERATIONS = 600_000;
+
+    private static final String VERSION = "v2";
+    private static final String ALGORITHM = "sha256";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String SEPARATOR = "$";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 32;
+
+    // Parameters of the hashes of the first version
+    private static final String LEGACY_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final String LEGACY_SEPARATOR = ":";
+    private static final int LEGACY_ITERATIONS = 10_000;
+    private static final int LEGACY_KEY_LENGTH = 256;
+
+    // Creating these is expensive, so every thread keeps its own instances
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(MAC_ALGORITHM);
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException(exception);
+        }
+    });
+    private static final ThreadLocal<SecretKeyFactory> LEGACY_KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(LEGACY_ALGORITHM);
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException(exception);
+        }
+    });
+
+    private final SecureRandom random = new SecureRandom();
+    private final int iterations;
+    private final ExecutorService executor;
+
+    /**
+     * The private constructor prevents other classes from creating new instances of the PasswordHasher class.
+     */
+    private PasswordHasher() {
+        this(Integer.getInteger("nhplus.password.iterations", DEFAULT_ITERATIONS),
+                Integer.getInteger("nhplus.password.threads",
+                        Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("nhplus.password.queueCapacity", 64));
+    }
+
+    /**
+     * Creates a hasher with its own worker threads, e.g. for a benchmark.
+     *
+     * @param iterations Number of PBKDF2 iterations of new hashes.
+     * @param threads Number of worker threads.
+     * @param queueCapacity Maximum number of waiting hash operations.
+     */
+    public PasswordHasher(int iterations, int threads, int queueCapacity) {
+        this.iterations = iterations;
+        AtomicInteger number = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "nhplus-password-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * This method returns the single instance of the PasswordHasher class.
+     * If the instance does not exist, it is created.
+     *
+     * @return The single instance of the PasswordHasher class.
+     */
+    public static synchronized PasswordHasher getInstance() {
+        if (instance == null) {
+            instance = new PasswordHasher();
+        }
+        return instance;
+    }
+
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    /**
+     * Hashes the password with a new salt on a worker thread.
+     *
+     * @param password The password to hash.
+     * @return Future of the hash string.
+     * @throws RejectedExecutionException if the queue of waiting hash operations is full.
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+        return CompletableFuture.supplyAsync(() -> hashNow(password), this.executor);
+    }
+
+    /**
+     * Checks the password against a stored hash on a worker thread.
+     *
+     * @param password The password to check.
+     * @param storedHash The stored hash string, of any version.
+     * @return Future that is completed with <code>true</code> if the password matches.
+     * @throws RejectedExecutionException if the queue of waiting hash operations is full.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String storedHash) {
+        return CompletableFuture.supplyAsync(() -> verifyNow(password, storedHash), this.executor);
+    }
+
+    /**
+     * Hashes the password on a worker thread and waits for the result.
+     *
+     * @param password The password to hash.
+     * @return The hash string.
+     * @throws RejectedExecutionException if the queue of waiting hash operations is full.
+     */
+    public String hash(String password) {
+        return join(hashAsync(password));
+    }
+
+    /**
+     * Checks the password against a stored hash on a worker thread and waits for the result.
+     *
+     * @param password The password to check.
+     * @param storedHash The stored hash string, of any version.
+     * @return <code>true</code> if the password matches.
+     * @throws RejectedExecutionException if the queue of waiting hash operations is full.
+     */
+    public boolean verify(String password, String storedHash) {
+        return join(verifyAsync(password, storedHash));
+    }
+
+    /**
+     * @param storedHash The stored hash string.
+     * @return <code>true</code> if the hash was not created with the current version and iteration count.
+     */
+    public boolean needsRehash(String storedHash) {
+        String[] parts = storedHash.split("\\" + SEPARATOR);
+        return parts.length != 5 || !parts[0].equals(VERSION) || !parts[1].equals(ALGORITHM)
+                || Integer.parseInt(parts[2]) != this.iterations;
+    }
+
+    /**
+     * Hashes the password on the calling thread.
+     *
+     * @param password The password to hash.
+     * @return The hash string.
+     */
+    public String hashNow(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        this.random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, this.iterations);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return String.join(SEPARATOR, VERSION, ALGORITHM, String.valueOf(this.iterations),
+                encoder.encodeToString(salt), encoder.encodeToString(hash));
+    }
+
+    /**
+     * Checks the password against a stored hash on the calling thread. The hashes are compared in constant time.
+     *
+     * @param password The password to check.
+     * @param storedHash The stored hash string, of any version.
+     * @return <code>true</code> if the password matches.
+     * @throws IllegalArgumentException if the stored hash has an unknown format.
+     */
+    public boolean verifyNow(String password, String storedHash) {
+        if (password == null || storedHash == null) {
+            return false;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        String[] parts = storedHash.split("\\" + SEPARATOR);
+        if (parts.length == 5 && parts[0].equals(VERSION) && parts[1].equals(ALGORITHM)) {
+            byte[] expected = decoder.decode(parts[4]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, decoder.decode(parts[3]), Integer.parseInt(parts[2])));
+        }
+        String[] legacyParts = storedHash.split(LEGACY_SEPARATOR);
+        if (legacyParts.length == 2) {
+            byte[] expected = decoder.decode(legacyParts[1]);
+            return MessageDigest.isEqual(expected, legacyHash(password, decoder.decode(legacyParts[0])));
+        }
+        throw new IllegalArgumentException("Invalid hashed password");
+    }
+
+    /**
+     * Stops the worker threads after the submitted work is done.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * PBKDF2 (RFC 8018) with HMAC-SHA256 on the <code>Mac</code> of the calling thread. The key is at most one block
+     * long, so only the first block is derived.
+     */
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        Mac mac = MAC.get();
+        try {
+            mac.init(new PasswordKey(passwordBytes));
+            byte[] block = new byte[mac.getMacLength()];
+            mac.update(salt);
+            mac.update(new byte[]{0, 0, 0, 1});
+            mac.doFinal(block, 0);
+            byte[] result = block.clone();
+            for (int i = 1; i < iterations; i++) {
+                mac.update(block);
+                mac.doFinal(block, 0);
+                for (int j = 0; j < result.length; j++) {
+                    result[j] ^= block[j];
+                }
+            }
+            return Arrays.copyOf(result, KEY_LENGTH);
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException("Error while hashing a password: " + exception.getMessage(), exception);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    private static byte[] legacyHash(String password, byte[] salt) {
+        char[] passwordChars = password.toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(passwordChars, salt, LEGACY_ITERATIONS, LEGACY_KEY_LENGTH);
+        Arrays.fill(passwordChars, Character.MIN_VALUE);
+        try {
+            return LEGACY_KEY_FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException("Error while hashing a password: " + exception.getMessage(), exception);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * The password as HMAC key. Unlike <code>SecretKeySpec</code> it also accepts an empty password.
+     */
+    private record PasswordKey(byte[] bytes) implements SecretKey {
+
+        @Override
+        public String getAlgorithm() {
+            return MAC_ALGORITHM;
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return this.bytes.clone();
+        }
+    }
+}
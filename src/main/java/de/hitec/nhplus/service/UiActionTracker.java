@@ -0,0 +1,93 @@
+package de.hitec.nhplus.service;
+
+import de.hitec.nhplus.datastorage.QueryTracer;
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.event.ActionEvent;
+import javafx.event.Event;
+import javafx.event.EventHandler;
+import javafx.event.EventTarget;
+import javafx.scene.Node;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.stage.Window;
+
+/**
+ * The <code>UiActionTracker</code> starts a {@link QueryTracer.Action} for every click, key press and action event in
+ * any window of the application, so that the statements a user action causes are counted together. The action is named
+ * after the event and the control that received it, e.g. <code>ACTION Button#btnDelete</code>. It covers the event
+ * handlers, everything that runs on the JavaFX application thread before the next <code>Platform.runLater</code>
+ * and the work the handlers submit to the {@link DbTaskExecutor}. The events until then, e.g. the action event of a
+ * button after its mouse release, belong to the same action, so there is only one scope open at a time.
+ */
+public class UiActionTracker {
+
+    private static final EventHandler<Event> FILTER = UiActionTracker::beginAction;
+
+    private static boolean installed;
+    // The scope of the action of the events that are being handled, null between two actions
+    private static QueryTracer.Scope scope;
+
+    private UiActionTracker() {
+    }
+
+    /**
+     * Tracks the user actions in all windows that are open or opened later. Installing the tracker again has no
+     * effect. Has to be called on the JavaFX application thread.
+     */
+    public static void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        Window.getWindows().forEach(UiActionTracker::track);
+        Window.getWindows().addListener((ListChangeListener<Window>) change -> {
+            while (change.next()) {
+                change.getAddedSubList().forEach(UiActionTracker::track);
+                change.getRemoved().forEach(UiActionTracker::untrack);
+            }
+        });
+    }
+
+    private static void track(Window window) {
+        window.addEventFilter(MouseEvent.MOUSE_RELEASED, FILTER);
+        window.addEventFilter(KeyEvent.KEY_PRESSED, FILTER);
+        window.addEventFilter(ActionEvent.ACTION, FILTER);
+    }
+
+    private static void untrack(Window window) {
+        window.removeEventFilter(MouseEvent.MOUSE_RELEASED, FILTER);
+        window.removeEventFilter(KeyEvent.KEY_PRESSED, FILTER);
+        window.removeEventFilter(ActionEvent.ACTION, FILTER);
+    }
+
+    private static void beginAction(Event event) {
+        if (scope != null) {
+            return;
+        }
+        scope = QueryTracer.beginAction(event.getEventType() + " " + describe(event.getTarget()));
+        // The handlers of the event run before the next runLater
+        Platform.runLater(UiActionTracker::endAction);
+    }
+
+    private static void endAction() {
+        QueryTracer.Scope ended = scope;
+        scope = null;
+        ended.close();
+    }
+
+    /**
+     * @return The class and the id of the target or of its closest parent with an id, e.g. a table for a click on one
+     * of its cells.
+     */
+    private static String describe(EventTarget target) {
+        if (!(target instanceof Node node)) {
+            return target.getClass().getSimpleName();
+        }
+        Node named = node;
+        while (named != null && named.getId() == null) {
+            named = named.getParent();
+        }
+        return named == null ? node.getClass().getSimpleName() : named.getClass().getSimpleName() + "#" + named.getId();
+    }
+}
@@ -3,35 +3,146 @@ package de.hitec.nhplus.utils;
 import de.hitec.nhplus.model.Caregiver;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class is responsible for writing audit logs.
- * It contains two methods: writeLog and formatLogMessage.
+ * Log messages are formatted on the calling thread and put into a bounded queue. A single background thread takes
+ * them from the queue and appends them to the log file of the day, which it keeps open. The file is flushed when a
+ * batch of messages was written or when no new message arrived within the flush interval.
+ * The size of the queue, the batch size and the flush interval can be set with the system properties
+ * <code>nhplus.audit.queueCapacity</code>, <code>nhplus.audit.batchSize</code> and
+ * <code>nhplus.audit.flushIntervalMillis</code>; the behaviour for a full queue with {@link #setOverflowPolicy}.
  */
 public class AuditLog {
 
+    /**
+     * What <code>writeLog</code> does when the queue is full.
+     */
+    public enum OverflowPolicy {
+        // The calling thread waits until the writer made room in the queue
+        BLOCK,
+        // The new message is dropped
+        DROP_NEWEST,
+        // The oldest queued message is dropped to make room for the new one
+        DROP_OLDEST
+    }
+
+    private static final DateTimeFormatter FILE_DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-dd");
+    private static final DateTimeFormatter MESSAGE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final int QUEUE_CAPACITY = Integer.getInteger("nhplus.audit.queueCapacity", 10_000);
+    private static final int BATCH_SIZE = Integer.getInteger("nhplus.audit.batchSize", 256);
+    private static final long FLUSH_INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("nhplus.audit.flushIntervalMillis", 200));
+
+    // The queue of formatted messages and its size, which is kept separately to bound the queue without a lock
+    private static final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger queueSize = new AtomicInteger();
+    private static final AtomicLong droppedMessages = new AtomicLong();
+
+    private static volatile OverflowPolicy overflowPolicy =
+            OverflowPolicy.valueOf(System.getProperty("nhplus.audit.overflowPolicy", OverflowPolicy.BLOCK.name()));
+
+    private static Thread writerThread;
+    private static volatile boolean running;
+    private static volatile boolean shutDown;
+
+    // Only used by the writer thread: the open log file, the day it belongs to and the dropped messages reported so far
+    private static BufferedWriter writer;
+    private static LocalDate writerDate;
+    private static long reportedDroppedMessages;
+
+    /**
+     * A formatted log message and the day of the file it belongs to.
+     */
+    private record Entry(LocalDate date, String message) {
+    }
+
     /**
      * This method writes a log message to a file.
-     * The log message is formatted using the formatLogMessage method.
+     * The log message is formatted using the formatLogMessage method and queued for the background writer.
      * The file is named "AuditLog_" followed by the current date in the format "dd-MM-dd".
      * The file is located in the "logs" directory.
      * If the file does not exist, it is created. If it does exist, the log message is appended to the file.
+     * After {@link #shutdown(long)} the message is written on the calling thread.
      *
      * @param caregiver The caregiver who performed the action.
      * @param action The action that was performed.
      */
     public static void writeLog(Caregiver caregiver, String action) {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("dd-MM-dd");
-        String fileName = "logs/AuditLog_" + dtf.format(LocalDate.now()) + ".txt";
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
-            writer.write(formatLogMessage(caregiver, action));
-        } catch (IOException e) {
-            e.printStackTrace();
+        LocalDateTime now = LocalDateTime.now();
+        Entry entry = new Entry(now.toLocalDate(), formatLogMessage(now, caregiver, action));
+        if (shutDown) {
+            writeDirectly(entry);
+            return;
+        }
+        ensureWriterStarted();
+        if (!reserveSlot()) {
+            if (shutDown) {
+                writeDirectly(entry);
+            } else {
+                droppedMessages.incrementAndGet();
+            }
+            return;
+        }
+        queue.offer(entry);
+        if (queueSize.get() >= BATCH_SIZE) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Sets what {@link #writeLog(Caregiver, String)} does when the queue is full.
+     *
+     * @param policy The new overflow policy.
+     */
+    public static void setOverflowPolicy(OverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
+
+    /**
+     * @return The number of messages that were dropped because the queue was full.
+     */
+    public static long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Stops the background writer after it has written all queued messages and closes the log file. Messages that
+     * are logged afterwards are written directly.
+     *
+     * @param timeoutMillis Maximum time in milliseconds to wait for the queue to be drained.
+     */
+    public static void shutdown(long timeoutMillis) {
+        Thread thread;
+        synchronized (AuditLog.class) {
+            shutDown = true;
+            running = false;
+            thread = writerThread;
+        }
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -40,15 +151,143 @@ public class AuditLog {
      * The message includes the current date and time, the caregiver's PID and username, and the action that was performed.
      * The date and time are formatted as "yyyy-MM-dd HH:mm:ss".
      *
+     * @param now The date and time of the action.
      * @param caregiver The caregiver who performed the action.
      * @param action The action that was performed.
      * @return The formatted log message.
      */
-    private static String formatLogMessage(Caregiver caregiver, String action) {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        String currentDateTime = dtf.format(LocalDateTime.now());
+    private static String formatLogMessage(LocalDateTime now, Caregiver caregiver, String action) {
+        String currentDateTime = MESSAGE_DATE_FORMAT.format(now);
 
         return String.format("[%s] Caretaker: %s %s; Performed Action: %s%n",
                 currentDateTime, caregiver.getPid(), caregiver.getUsername(), action);
     }
-}
\ No newline at end of file
+
+    /**
+     * Takes a place in the queue according to the overflow policy.
+     *
+     * @return <code>false</code> if the message has to be dropped.
+     */
+    private static boolean reserveSlot() {
+        while (true) {
+            int size = queueSize.get();
+            if (size < QUEUE_CAPACITY) {
+                if (queueSize.compareAndSet(size, size + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    return false;
+                case DROP_OLDEST:
+                    if (queue.poll() != null) {
+                        // The place of the dropped message is taken over by the new one
+                        droppedMessages.incrementAndGet();
+                        return true;
+                    }
+                    break;
+                default:
+                    // Wait for the writer to make room
+                    LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    if (shutDown) {
+                        return false;
+                    }
+            }
+        }
+    }
+
+    private static synchronized void ensureWriterStarted() {
+        if (writerThread != null) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(AuditLog::runWriter, "nhplus-audit-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * The loop of the writer thread. It writes up to a batch of messages at a time and flushes the file after each
+     * batch. If the queue is empty, it waits for the flush interval or until a producer wakes it up.
+     */
+    private static void runWriter() {
+        while (running || queueSize.get() > 0) {
+            int written = 0;
+            Entry entry;
+            while (written < BATCH_SIZE && (entry = queue.poll()) != null) {
+                queueSize.decrementAndGet();
+                append(entry);
+                written++;
+            }
+            if (written > 0) {
+                flush();
+            }
+            if (written < BATCH_SIZE && running) {
+                LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+            }
+        }
+        closeWriter();
+    }
+
+    private static void append(Entry entry) {
+        try {
+            if (writer == null || !entry.date().equals(writerDate)) {
+                closeWriter();
+                writer = Files.newBufferedWriter(getLogFile(entry.date()), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                writerDate = entry.date();
+            }
+            writer.write(entry.message());
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeWriter();
+        }
+    }
+
+    private static void flush() {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeWriter();
+        }
+        long dropped = droppedMessages.get();
+        if (dropped > reportedDroppedMessages) {
+            System.out.println("Audit-Log: " + (dropped - reportedDroppedMessages) +
+                    " Einträge verworfen, die Warteschlange war voll");
+            reportedDroppedMessages = dropped;
+        }
+    }
+
+    private static void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writer = null;
+        writerDate = null;
+    }
+
+    private static synchronized void writeDirectly(Entry entry) {
+        try (BufferedWriter directWriter = Files.newBufferedWriter(getLogFile(entry.date()), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            directWriter.write(entry.message());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Path getLogFile(LocalDate date) throws IOException {
+        Path directory = Paths.get("logs");
+        Files.createDirectories(directory);
+        return directory.resolve("AuditLog_" + FILE_DATE_FORMAT.format(date) + ".txt");
+    }
+}
@@ -0,0 +1,330 @@
+package de.hitec.nhplus.utils;
+
+import de.hitec.nhplus.datastorage.ConnectionBuilder;
+import de.hitec.nhplus.datastorage.ConnectionLease;
+import de.hitec.nhplus.datastorage.SchemaUpgrade;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The <code>DataGenerator</code> fills the database with synthetic patients, caregivers and treatment histories, e.g.
+ * to test the application and the benchmarks with a realistic amount of data. The data only depends on the seed, so
+ * the same settings always produce the same database.
+ * Every patient gets a history of treatments on consecutive days since their admission; the treatments are spread
+ * unevenly over the patients. A share of the rows of every table is locked, either with a lock that expires in the
+ * future, like a lock of the application, or with a lock that has already expired and is removed by the next sweep.
+ * The rows are inserted with batched statements, every batch in its own transaction. The indexes of the treatments
+ * and their search index are built once after all treatments are inserted.
+ * The class is executable, see {@link #main(String[])}.
+ */
+public class DataGenerator {
+
+    private static final String[] FIRST_NAMES = {"Seppl", "Martina", "Gertrud", "Ahmet", "Hans", "Elisabeth", "Karl",
+            "Ingrid", "Walter", "Helga", "Günter", "Ursula", "Heinz", "Renate", "Dieter", "Monika", "Fatma", "Jürgen"};
+    private static final String[] SURNAMES = {"Herberger", "Gerdsen", "Franzen", "Yilmaz", "Neumann", "Müller",
+            "Schmidt", "Schneider", "Fischer", "Weber", "Meyer", "Wagner", "Becker", "Schulz", "Hoffmann", "Koch"};
+    private static final String[][] TREATMENTS = {
+            {"Gespräch", "Patient ist unruhig, Gespräch über die Familie beruhigt ihn."},
+            {"Waschen", "Patient mit Waschlappen gewaschen und frisch angezogen. Patient gewendet."},
+            {"Spaziergang", "Spaziergang im Park, Patient ist heute lebhafter."},
+            {"Physiotherapie", "Übungen zur Stabilisation und Mobilisierung der Rückenmuskulatur."},
+            {"KG", "Massage der Extremitäten zur Verbesserung der Durchblutung."},
+            {"Toilettengang", "Hilfe beim Toilettengang, keine Auffälligkeiten."},
+            {"Medikamentengabe", "Medikamente nach Plan verabreicht."},
+            {"Verbandswechsel", "Verband gewechselt, Wunde heilt gut."},
+    };
+
+    // All generated caregivers log in with this password and their username "pflegerN"
+    public static final String CAREGIVER_PASSWORD = "pfleger";
+
+    private final long seed;
+    private int patients = 1_000;
+    private int caregivers = 50;
+    private int treatments = 20_000;
+    private double lockedShare;
+    private double expiredShare;
+    private int batchSize = 10_000;
+    private LocalDate today = LocalDate.now();
+
+    /**
+     * @param seed Seed of the random data.
+     */
+    public DataGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public void setPatients(int patients) {
+        this.patients = patients;
+    }
+
+    public void setCaregivers(int caregivers) {
+        this.caregivers = caregivers;
+    }
+
+    /**
+     * @param treatments Total number of treatments, spread over all patients.
+     */
+    public void setTreatments(int treatments) {
+        this.treatments = treatments;
+    }
+
+    /**
+     * @param lockedShare Share of the rows, between 0 and 1, that are locked until a date in the future.
+     */
+    public void setLockedShare(double lockedShare) {
+        this.lockedShare = lockedShare;
+    }
+
+    /**
+     * @param expiredShare Share of the rows, between 0 and 1, whose lock has already expired.
+     */
+    public void setExpiredShare(double expiredShare) {
+        this.expiredShare = expiredShare;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param today Day the locks and treatment histories are relative to, by default the current day.
+     */
+    public void setToday(LocalDate today) {
+        this.today = today;
+    }
+
+    /**
+     * Inserts the patients, caregivers and treatments into the existing tables. The generated rows get the keys
+     * following the rows already in the tables. The progress is printed to <code>System.out</code>.
+     *
+     * @param connection Writer connection to the database.
+     */
+    public void generate(Connection connection) throws SQLException {
+        Random random = new Random(this.seed);
+        long start = System.nanoTime();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            long firstPid = nextKey(connection, "patient", "pid");
+            report("Patienten", this.patients, generatePatients(connection, random));
+            report("Pfleger", this.caregivers, generateCaregivers(connection, random));
+            report("Behandlungen", this.treatments, generateTreatments(connection, random, firstPid));
+        } catch (SQLException exception) {
+            connection.rollback();
+            throw exception;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        report("Datensätze", this.patients + this.caregivers + this.treatments, start);
+    }
+
+    private long generatePatients(Connection connection, Random random) throws SQLException {
+        long start = System.nanoTime();
+        final String SQL = "INSERT INTO patient (firstname, surname, dateOfBirth, carelevel, roomnumber, locked, " +
+                "lockedDate, row_version, modified_at) VALUES (?, ?, ?, ?, ?, ?, ?, " +
+                SchemaUpgrade.TRACKED_INSERT_VALUES + ")";
+        try (PreparedStatement statement = connection.prepareStatement(SQL)) {
+            for (int i = 1; i <= this.patients; i++) {
+                statement.setString(1, pick(random, FIRST_NAMES));
+                statement.setString(2, pick(random, SURNAMES));
+                statement.setString(3, DateConverter.convertLocalDateToString(
+                        this.today.minusYears(65).minusDays(random.nextInt(30 * 365))));
+                statement.setString(4, String.valueOf(1 + random.nextInt(5)));
+                statement.setString(5, String.format("%03d", random.nextInt(400)));
+                setLock(statement, 6, random);
+                addBatch(connection, statement, i);
+            }
+            executeBatch(connection, statement);
+        }
+        return start;
+    }
+
+    private long generateCaregivers(Connection connection, Random random) throws SQLException {
+        long start = System.nanoTime();
+        final String SQL = "INSERT INTO caregiver (username, firstname, surname, dateOfBirth, telephoneNumber, " +
+                "password_hash, isAdmin, locked, lockedDate, row_version, modified_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, " +
+                SchemaUpgrade.TRACKED_INSERT_VALUES + ")";
+        // Hashing is slow on purpose, so all generated caregivers share one hash
+        String passwordHash = PasswordUtil.generatePassword(CAREGIVER_PASSWORD);
+        try (PreparedStatement statement = connection.prepareStatement(SQL)) {
+            for (int i = 1; i <= this.caregivers; i++) {
+                statement.setString(1, "pfleger" + i);
+                statement.setString(2, pick(random, FIRST_NAMES));
+                statement.setString(3, pick(random, SURNAMES));
+                statement.setString(4, DateConverter.convertLocalDateToString(
+                        this.today.minusYears(20).minusDays(random.nextInt(40 * 365))));
+                statement.setString(5, String.format("0%03d-%06d", random.nextInt(1000), random.nextInt(1_000_000)));
+                statement.setString(6, passwordHash);
+                statement.setBoolean(7, random.nextInt(20) == 0);
+                setLock(statement, 8, random);
+                addBatch(connection, statement, i);
+            }
+            executeBatch(connection, statement);
+        }
+        return start;
+    }
+
+    /**
+     * Every patient gets a random weight; the treatments are split according to the weights, so the histories differ
+     * in length but add up to exactly the requested number of treatments.
+     */
+    private long generateTreatments(Connection connection, Random random, long firstPid) throws SQLException {
+        long start = System.nanoTime();
+        if (this.patients == 0) {
+            return start;
+        }
+        double[] weights = new double[this.patients];
+        double totalWeight = 0;
+        for (int i = 0; i < this.patients; i++) {
+            weights[i] = 0.25 + random.nextDouble() * 1.5;
+            totalWeight += weights[i];
+        }
+        final String SQL = "INSERT INTO treatment (pid, treatment_date, begin, end, description, remark, locked, " +
+                "lockedDate, row_version, modified_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, " +
+                SchemaUpgrade.TRACKED_INSERT_VALUES + ")";
+        List<String> indexes = SchemaUpgrade.dropTreatmentIndexes(connection);
+        connection.commit();
+        try (PreparedStatement statement = connection.prepareStatement(SQL)) {
+            int row = 0;
+            double cumulativeWeight = 0;
+            for (int patient = 0; patient < this.patients; patient++) {
+                cumulativeWeight += weights[patient];
+                int end = patient == this.patients - 1
+                        ? this.treatments
+                        : (int) Math.round(this.treatments * cumulativeWeight / totalWeight);
+                int history = end - row;
+                // The history ends today and has about one treatment every other day
+                LocalDate date = this.today.minusDays(2L * history + random.nextInt(30));
+                for (int i = 0; i < history; i++) {
+                    date = date.plusDays(random.nextInt(4));
+                    LocalTime begin = LocalTime.of(7 + random.nextInt(12), 5 * random.nextInt(12));
+                    String[] treatment = pick(random, TREATMENTS);
+                    statement.setLong(1, firstPid + patient);
+                    statement.setString(2, DateConverter.convertLocalDateToString(date));
+                    statement.setString(3, DateConverter.convertLocalTimeToString(begin));
+                    statement.setString(4, DateConverter.convertLocalTimeToString(
+                            begin.plusMinutes(15 + 5 * random.nextInt(16))));
+                    statement.setString(5, treatment[0]);
+                    statement.setString(6, treatment[1]);
+                    setLock(statement, 7, random);
+                    addBatch(connection, statement, ++row);
+                }
+            }
+            executeBatch(connection, statement);
+        } finally {
+            // Discards an incomplete batch, the indexes are needed in any case
+            connection.rollback();
+            SchemaUpgrade.createTreatmentIndexes(connection, indexes);
+            connection.commit();
+        }
+        return start;
+    }
+
+    /**
+     * Sets the parameters <code>locked</code> and <code>lockedDate</code>. Locks of the application expire 10 years
+     * after the row was locked; generated locks were set up to 10 years ago.
+     */
+    private void setLock(PreparedStatement statement, int index, Random random) throws SQLException {
+        double value = random.nextDouble();
+        if (value < this.expiredShare) {
+            statement.setBoolean(index, true);
+            statement.setString(index + 1, DateConverter.convertLocalDateToString(
+                    this.today.minusDays(1 + random.nextInt(365))));
+        } else if (value < this.expiredShare + this.lockedShare) {
+            statement.setBoolean(index, true);
+            statement.setString(index + 1, DateConverter.convertLocalDateToString(
+                    this.today.plusYears(10).minusDays(random.nextInt(10 * 365))));
+        } else {
+            statement.setNull(index, Types.BOOLEAN);
+            statement.setNull(index + 1, Types.VARCHAR);
+        }
+    }
+
+    private void addBatch(Connection connection, PreparedStatement statement, int row) throws SQLException {
+        statement.addBatch();
+        if (row % this.batchSize == 0) {
+            executeBatch(connection, statement);
+        }
+    }
+
+    private static void executeBatch(Connection connection, PreparedStatement statement) throws SQLException {
+        statement.executeBatch();
+        connection.commit();
+    }
+
+    private static long nextKey(Connection connection, String table, String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT MAX(" + key + ") FROM " + table);
+             ResultSet result = statement.executeQuery()) {
+            return result.next() ? result.getLong(1) + 1 : 1;
+        }
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static void report(String name, int rows, long start) {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.printf("%,d %s in %.2f s (%,.0f Zeilen/s)%n", rows, name, seconds, rows / seconds);
+    }
+
+    /**
+     * Sets up a clean database with the test data of {@link SetUpDB} and adds the generated data.
+     * Options, all optional:
+     * <code>--patients=N --caregivers=N --treatments=N --locked=SHARE --expired=SHARE --seed=N --batch=N --today=yyyy-MM-dd
+     * --db=FILE</code>,
+     * e.g. <code>--patients=50000 --treatments=1000000 --locked=0.05 --expired=0.01</code>.
+     *
+     * @param args The options.
+     */
+    public static void main(String[] args) {
+        long seed = 1;
+        // The seed is needed first, the other options are applied to the generator afterwards
+        for (String arg : args) {
+            if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(value(arg));
+            }
+        }
+        DataGenerator generator = new DataGenerator(seed);
+        for (String arg : args) {
+            String name = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+            switch (name) {
+                case "--patients" -> generator.setPatients(Integer.parseInt(value(arg)));
+                case "--caregivers" -> generator.setCaregivers(Integer.parseInt(value(arg)));
+                case "--treatments" -> generator.setTreatments(Integer.parseInt(value(arg)));
+                case "--locked" -> generator.setLockedShare(Double.parseDouble(value(arg)));
+                case "--expired" -> generator.setExpiredShare(Double.parseDouble(value(arg)));
+                case "--batch" -> generator.setBatchSize(Integer.parseInt(value(arg)));
+                case "--today" -> generator.setToday(DateConverter.convertStringToLocalDate(value(arg)));
+                case "--db" -> ConnectionBuilder.configureDatabase("jdbc:sqlite:" + value(arg));
+                case "--seed" -> { }
+                default -> {
+                    System.out.println("Unbekannte Option: " + arg);
+                    System.out.println("Optionen: --patients=N --caregivers=N --treatments=N --locked=ANTEIL " +
+                            "--expired=ANTEIL --seed=N --batch=N --today=yyyy-MM-dd --db=DATEI");
+                    return;
+                }
+            }
+        }
+        SetUpDB.setUpDb();
+        try (ConnectionLease lease = ConnectionBuilder.leaseWriteConnection()) {
+            generator.generate(lease.getConnection());
+        } catch (SQLException exception) {
+            exception.printStackTrace();
+        } finally {
+            ConnectionBuilder.closeConnection();
+        }
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+}
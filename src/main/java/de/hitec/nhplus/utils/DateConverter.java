@@ -2,26 +2,96 @@ package de.hitec.nhplus.utils;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.Month;
+import java.time.Year;
 import java.time.format.DateTimeFormatter;
 
+/**
+ * Converts the dates and times of the database, <code>yyyy-MM-dd</code> and <code>HH:mm</code>, from and to
+ * <code>LocalDate</code> and <code>LocalTime</code>. The DAOs convert every row they read, so the fixed shapes are
+ * parsed and formatted by hand, without a <code>DateTimeFormatter</code>. Anything else, like an invalid date, is
+ * handed to the formatters, so the results and exceptions are the same as those of {@link #DATE_FORMATTER} and
+ * {@link #TIME_FORMATTER}.
+ */
 public class DateConverter {
 
     private static final String DATE_FORMAT = "yyyy-MM-dd";
     private static final String TIME_FORMAT = "HH:mm";
 
+    /**
+     * Formatters of the dates and times of the database. Formatters are immutable, so they are shared.
+     */
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern(DATE_FORMAT);
+    public static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern(TIME_FORMAT);
+
     public static LocalDate convertStringToLocalDate(String date) {
-        return LocalDate.parse(date, DateTimeFormatter.ofPattern(DATE_FORMAT));
+        if (date.length() == 10 && date.charAt(4) == '-' && date.charAt(7) == '-') {
+            int year = parseDigits(date, 0, 4);
+            int month = parseDigits(date, 5, 7);
+            int day = parseDigits(date, 8, 10);
+            if (year > 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31) {
+                // Like the formatter, a day after the end of the month is the last day of the month
+                return LocalDate.of(year, month, Math.min(day, Month.of(month).length(Year.isLeap(year))));
+            }
+        }
+        return LocalDate.parse(date, DATE_FORMATTER);
     }
 
     public static LocalTime convertStringToLocalTime(String time) {
-        return LocalTime.parse(time, DateTimeFormatter.ofPattern(TIME_FORMAT));
+        if (time.length() == 5 && time.charAt(2) == ':') {
+            int hour = parseDigits(time, 0, 2);
+            int minute = parseDigits(time, 3, 5);
+            if (hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59) {
+                return LocalTime.of(hour, minute);
+            }
+        }
+        return LocalTime.parse(time, TIME_FORMATTER);
     }
 
     public static String convertLocalDateToString(LocalDate date) {
-        return date.format(DateTimeFormatter.ofPattern(DATE_FORMAT));
+        int year = date.getYear();
+        if (year < 1 || year > 9999) {
+            return date.format(DATE_FORMATTER);
+        }
+        char[] chars = new char[10];
+        writeDigits(chars, 0, 4, year);
+        chars[4] = '-';
+        writeDigits(chars, 5, 7, date.getMonthValue());
+        chars[7] = '-';
+        writeDigits(chars, 8, 10, date.getDayOfMonth());
+        return new String(chars);
     }
 
     public static String convertLocalTimeToString(LocalTime time) {
-        return time.format(DateTimeFormatter.ofPattern(TIME_FORMAT));
+        char[] chars = new char[5];
+        writeDigits(chars, 0, 2, time.getHour());
+        chars[2] = ':';
+        writeDigits(chars, 3, 5, time.getMinute());
+        return new String(chars);
+    }
+
+    /**
+     * @return The number of the ASCII digits from <code>start</code> to <code>end</code>, -1 if there is another char.
+     */
+    private static int parseDigits(String text, int start, int end) {
+        int value = 0;
+        for (int index = start; index < end; index++) {
+            int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Writes the value with leading zeros into the chars from <code>start</code> to <code>end</code>.
+     */
+    private static void writeDigits(char[] chars, int start, int end, int value) {
+        for (int index = end - 1; index >= start; index--) {
+            chars[index] = (char) ('0' + value % 10);
+            value /= 10;
+        }
     }
 }
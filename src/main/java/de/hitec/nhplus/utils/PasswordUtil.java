@@ -1,87 +1,29 @@
 package de.hitec.nhplus.utils;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.util.Arrays;
-import java.util.Base64;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
+import de.hitec.nhplus.service.PasswordHasher;
 
 /**
  * This class provides utility methods for password management.
- * It uses the PBKDF2WithHmacSHA1 algorithm for password hashing.
+ * The passwords are hashed by the {@link PasswordHasher}, which runs the hashing on its own worker threads. If too
+ * many passwords are waiting for a worker, the methods throw a <code>RejectedExecutionException</code>.
  */
 public class PasswordUtil {
-    // The algorithm used for password hashing
-    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
-    // The number of iterations for the password hashing algorithm
-    private static final int ITERATIONS = 10000;
-    // The length of the key generated by the password hashing algorithm
-    private static final int KEY_LENGTH = 256;
-    // The length of the salt generated for password hashing
-    private static final int SALT_LENGTH = 20;
-    // The delimiter used in the hashed password
-    private static final String DELIMITER = ":";
 
     /**
      * This method generates a hashed password.
-     * It first generates a salt, then hashes the password with the salt, and finally returns the salt and hashed password separated by a delimiter.
+     * The hash contains the algorithm, the iteration count and the salt, so it can be checked after the iteration count
+     * was raised.
      *
      * @param password The password to be hashed.
-     * @return The salt and hashed password.
-     */
-    public static String generatePassword(String password) {
-        String salt = generateSalt();
-        String hashed_password = hashPassword(password, salt);
-        return salt + DELIMITER + hashed_password;
-    }
-
-    /**
-     * This method hashes a password with a salt.
-     * It first converts the password and salt to arrays of characters and bytes, respectively.
-     * Then it hashes the password using the PBKDF2WithHmacSHA1 algorithm and the specified number of iterations and key length.
-     * Finally, it returns the hashed password as a string.
-     *
-     * @param password The password to be hashed.
-     * @param salt The salt used for hashing.
      * @return The hashed password.
      */
-    public static String hashPassword(String password, String salt) {
-        char[] passwordChars = password.toCharArray();
-        byte[] saltBytes = Base64.getDecoder().decode(salt);
-
-        PBEKeySpec spec = new PBEKeySpec(passwordChars, saltBytes, ITERATIONS, KEY_LENGTH);
-        Arrays.fill(passwordChars, Character.MIN_VALUE);
-
-        try {
-            SecretKeyFactory skf = SecretKeyFactory.getInstance(ALGORITHM);
-            byte[] hash = skf.generateSecret(spec).getEncoded();
-            return Base64.getEncoder().encodeToString(hash);
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new AssertionError("Error while hashing a password: " + e.getMessage(), e);
-        } finally {
-            spec.clearPassword();
-        }
-    }
-
-    /**
-     * This method generates a salt for password hashing.
-     * It generates a random array of bytes and returns it as a string.
-     *
-     * @return The generated salt.
-     */
-    public static String generateSalt() {
-        SecureRandom random = new SecureRandom();
-        byte[] bytes = new byte[SALT_LENGTH];
-        random.nextBytes(bytes);
-        return Base64.getEncoder().encodeToString(bytes);
+    public static String generatePassword(String password) {
+        return PasswordHasher.getInstance().hash(password);
     }
 
     /**
      * This method checks if a password matches a hashed password.
-     * It first splits the hashed password into a salt and a hashed password.
-     * Then it hashes the input password with the salt and checks if it matches the hashed password.
+     * Hashed passwords of all versions are accepted.
      *
      * @param password The password to be checked.
      * @param hashedPassword The hashed password to be checked against.
@@ -89,13 +31,18 @@ public class PasswordUtil {
      */
     public static boolean checkPassword(String password, String hashedPassword) {
         if (password == null || hashedPassword == null) { return false; }
-        String[] parts = hashedPassword.split(DELIMITER);
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid hashed password");
-        }
-        String salt = parts[0];
-        String hashedInputPassword = hashPassword(password, salt);
-        return hashedInputPassword.equals(parts[1]);
+        return PasswordHasher.getInstance().verify(password, hashedPassword);
+    }
+
+    /**
+     * This method checks if a hashed password should be replaced by a new hash of the same password, because it was
+     * created with an older version or a lower iteration count.
+     *
+     * @param hashedPassword The hashed password.
+     * @return True if the password should be hashed again.
+     */
+    public static boolean needsRehash(String hashedPassword) {
+        return PasswordHasher.getInstance().needsRehash(hashedPassword);
     }
 
     /**
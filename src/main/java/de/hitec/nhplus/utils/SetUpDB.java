@@ -25,11 +25,15 @@ public class SetUpDB {
      * scratch and DML statements to fill the database with hard coded test data.
      */
     public static void setUpDb() {
-        Connection connection = ConnectionBuilder.getConnection();
-        SetUpDB.wipeDb(connection);
-        SetUpDB.setUpTablePatient(connection);
-        SetUpDB.setUpTableTreatment(connection);
-        SetUpDB.setUpTableCaregiver(connection);
+        try (ConnectionLease lease = ConnectionBuilder.leaseWriteConnection()) {
+            Connection connection = lease.getConnection();
+            SetUpDB.wipeDb(connection);
+            SetUpDB.setUpTables(connection);
+        } catch (SQLException exception) {
+            System.out.println("Verbindung zur Datenbank konnte nicht aufgebaut werden!");
+            exception.printStackTrace();
+            return;
+        }
         SetUpDB.setUpPatients();
         SetUpDB.setUpTreatments();
         SetUpDB.setUpCaregivers();
@@ -46,6 +50,43 @@ public class SetUpDB {
         } catch (SQLException exception) {
             System.out.println(exception.getMessage());
         }
+        // The tombstones and the search index of the dropped rows are meaningless
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS deleted_row");
+            statement.execute("DROP TABLE IF EXISTS treatment_search");
+        } catch (SQLException exception) {
+            System.out.println(exception.getMessage());
+        }
+        // The cached patients were dropped as well
+        PatientCache.getInstance().clear();
+        // The indexes were dropped together with the tables, so they have to be created again
+        try {
+            SchemaUpgrade.setVersion(connection, 0);
+        } catch (SQLException exception) {
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    /**
+     * This method creates the empty tables and their indexes, if they do not exist yet.
+     */
+    public static void setUpTables(Connection connection) {
+        SetUpDB.setUpTablePatient(connection);
+        SetUpDB.setUpTableTreatment(connection);
+        SetUpDB.setUpTableCaregiver(connection);
+        SetUpDB.setUpIndexes(connection);
+    }
+
+    /**
+     * This method creates the indexes of the tables, the change tracking and the full-text search of the treatments
+     * with its triggers by upgrading the fresh tables to the current schema version.
+     */
+    private static void setUpIndexes(Connection connection) {
+        try {
+            SchemaUpgrade.upgrade(connection);
+        } catch (SQLException exception) {
+            System.out.println(exception.getMessage());
+        }
     }
 
     private static void setUpTablePatient(Connection connection) {
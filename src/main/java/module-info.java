@@ -6,6 +6,7 @@ module de.hitec.nhplus {
     requires java.sql;
     requires org.xerial.sqlitejdbc;
     requires java.desktop;
+    requires java.management;
 
     opens de.hitec.nhplus to javafx.fxml;
     opens de.hitec.nhplus.controller to javafx.fxml;
@@ -14,4 +15,6 @@ module de.hitec.nhplus {
     exports de.hitec.nhplus;
     exports de.hitec.nhplus.controller;
     exports de.hitec.nhplus.model;
+    // The DAO metrics are published as MXBeans
+    exports de.hitec.nhplus.datastorage to java.management;
 }
\ No newline at end of file